@@ -1,11 +1,3 @@
-CREATE TABLE `logos` (
-  `id` INT NOT NULL AUTO_INCREMENT,
-  `image` MEDIUMBLOB,
-  `created_at` DATETIME,
-  `updated_at` DATETIME,
-  PRIMARY KEY (`id`)
-);
-
 CREATE TABLE `organizations` (
   `id` INT NOT NULL AUTO_INCREMENT,
   `name` VARCHAR(255),
@@ -15,13 +7,17 @@ CREATE TABLE `organizations` (
   `country` VARCHAR(64),
   `type` VARCHAR(64),
   `url` VARCHAR(512),
-  `id_logo` INT,
+  `logo_full` VARCHAR(64),
+  `logo_list` VARCHAR(64),
+  `logo_thumbnail` VARCHAR(64),
+  `logo_version` BIGINT NOT NULL DEFAULT 0,
   `approved` BOOLEAN,
+  `data_version` BIGINT NOT NULL DEFAULT 0,
+  `data_updated_at` DATETIME,
   `created_at` DATETIME,
   `updated_at` DATETIME,
   PRIMARY KEY (`id`),
-  UNIQUE (`mrn`),
-  FOREIGN KEY (`id_logo`) REFERENCES logos(`id`)
+  UNIQUE (`mrn`)
 );
 
 CREATE TABLE `identity_provider_attributes` (
@@ -53,9 +49,11 @@ CREATE TABLE `vessels` (
   `permissions` VARCHAR(4000),
   `mrn` VARCHAR(255),
   `created_at` DATETIME,
-  `updated_at` DATETIME,
+  `updated_at` DATETIME(3),
   PRIMARY KEY  (`id`),
   UNIQUE (`mrn`),
+  INDEX (`updated_at`, `id`),
+  INDEX (`id_organization`, `updated_at`, `id`),
   FOREIGN KEY (`id_organization`) REFERENCES organizations(`id`)
 );
 
@@ -81,9 +79,11 @@ CREATE TABLE `users` (
   `first_name` VARCHAR(255),
   `last_name` VARCHAR(255),
   `created_at` DATETIME,
-  `updated_at` DATETIME,
+  `updated_at` DATETIME(3),
   PRIMARY KEY (`id`),
   UNIQUE (`mrn`),
+  INDEX (`updated_at`, `id`),
+  INDEX (`id_organization`, `updated_at`, `id`),
   FOREIGN KEY (`id_organization`) REFERENCES organizations(`id`)
 );
 
@@ -94,9 +94,11 @@ CREATE TABLE `devices` (
   `permissions` VARCHAR(4000),
   `mrn` VARCHAR(255),
   `created_at` DATETIME,
-  `updated_at` DATETIME,
+  `updated_at` DATETIME(3),
   PRIMARY KEY (`id`),
   UNIQUE (`mrn`),
+  INDEX (`updated_at`, `id`),
+  INDEX (`id_organization`, `updated_at`, `id`),
   FOREIGN KEY (`id_organization`) REFERENCES organizations(`id`)
 );
 
@@ -112,9 +114,11 @@ CREATE TABLE `services` (
   `oidc_redirect_uri` VARCHAR(255),
   `cert_domain_name` VARCHAR(255),
   `created_at` DATETIME,
-  `updated_at` DATETIME,
+  `updated_at` DATETIME(3),
   PRIMARY KEY (`id`),
   UNIQUE (`mrn`),
+  INDEX (`updated_at`, `id`),
+  INDEX (`id_organization`, `updated_at`, `id`),
   FOREIGN KEY (`id_organization`) REFERENCES organizations(`id`)
 );
 
@@ -140,3 +144,116 @@ CREATE TABLE `certificates` (
   FOREIGN KEY (`id_service`) REFERENCES services(`id`),
   FOREIGN KEY (`id_organization`) REFERENCES organizations(`id`)
 );
+
+CREATE TABLE `keycloak_outbox` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `operation` VARCHAR(64) NOT NULL,
+  `target` VARCHAR(512) NOT NULL,
+  `payload` MEDIUMTEXT,
+  `status` VARCHAR(32) NOT NULL,
+  `attempts` INT NOT NULL DEFAULT 0,
+  `next_attempt_at` DATETIME,
+  `last_error` VARCHAR(2000),
+  `claimed_until` DATETIME,
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`),
+  INDEX (`status`, `id`)
+);
+
+CREATE TABLE `email_queue` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `recipient` VARCHAR(255) NOT NULL,
+  `sender` VARCHAR(255),
+  `subject` VARCHAR(255),
+  `text` MEDIUMTEXT,
+  `attempts` INT NOT NULL DEFAULT 0,
+  `next_attempt_at` DATETIME,
+  `last_error` VARCHAR(2000),
+  `secret` VARCHAR(1024),
+  `claimed_until` DATETIME,
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`),
+  INDEX (`next_attempt_at`)
+);
+
+CREATE TABLE `email_dead_letters` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `recipient` VARCHAR(255) NOT NULL,
+  `sender` VARCHAR(255),
+  `subject` VARCHAR(255),
+  `text` MEDIUMTEXT,
+  `attempts` INT NOT NULL DEFAULT 0,
+  `last_error` VARCHAR(2000),
+  `queued_at` DATETIME,
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE `cache_invalidation` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `cache_name` VARCHAR(64) NOT NULL,
+  `cache_key` VARCHAR(255),
+  `node` VARCHAR(64) NOT NULL,
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`),
+  INDEX (`created_at`)
+);
+
+CREATE TABLE `revocation_events` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `serial_number` INT NOT NULL,
+  `revoked_at` DATETIME,
+  `revoke_reason` VARCHAR(64),
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE `tombstones` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `entity_type` VARCHAR(32) NOT NULL,
+  `entity_id` INT NOT NULL,
+  `mrn` VARCHAR(255),
+  `id_organization` INT,
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`),
+  INDEX (`entity_type`, `updated_at`, `id`),
+  INDEX (`entity_type`, `id_organization`, `updated_at`, `id`),
+  INDEX (`created_at`)
+);
+
+CREATE TABLE `webhook_subscriptions` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `url` VARCHAR(255) NOT NULL,
+  `secret` VARCHAR(255) NOT NULL,
+  `events` VARCHAR(255),
+  `max_concurrency` INT,
+  `id_organization` INT NOT NULL,
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`),
+  INDEX (`id_organization`)
+);
+
+CREATE TABLE `webhook_deliveries` (
+  `id` INT NOT NULL AUTO_INCREMENT,
+  `id_subscription` INT NOT NULL,
+  `event` VARCHAR(64),
+  `payload` MEDIUMTEXT,
+  `status` VARCHAR(16),
+  `attempts` INT,
+  `next_attempt_at` DATETIME,
+  `last_error` VARCHAR(2000),
+  `claimed_until` DATETIME,
+  `created_at` DATETIME,
+  `updated_at` DATETIME,
+  PRIMARY KEY (`id`),
+  INDEX (`status`, `next_attempt_at`, `id`),
+  INDEX (`status`, `updated_at`),
+  INDEX (`id_subscription`)
+);
@@ -0,0 +1,86 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.benchmarks;
+
+import net.maritimecloud.identityregistry.utils.CertificateUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyStore.PrivateKeyEntry;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A throwaway CA for the certificate benchmarks. The root, intermediate and trust stores are generated
+ * in a temporary directory for each trial, so the benchmarks never touch the real keystores.
+ */
+@State(Scope.Benchmark)
+public class CertificateAuthorityState {
+
+    private static final String PASSWORD = "changeit";
+
+    public CertificateUtil certUtil;
+
+    public PrivateKeyEntry signingEntry;
+
+    // A certificate issued to a user the same way the certificate controllers do it
+    public X509Certificate entityCert;
+
+    public KeyPair entityKeyPair;
+
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        dir = Files.createTempDirectory("mcidreg-bench").toFile();
+        certUtil = new CertificateUtil();
+        ReflectionTestUtils.setField(certUtil, "CRL_URL", "https://localhost/x509/api/certificates/crl");
+        ReflectionTestUtils.setField(certUtil, "OCSP_URL", "https://localhost/x509/api/certificates/ocsp");
+        ReflectionTestUtils.setField(certUtil, "ROOT_KEYSTORE_PATH", new File(dir, "mc-root-keystore.jks").getPath());
+        ReflectionTestUtils.setField(certUtil, "INTERMEDIATE_KEYSTORE_PATH", new File(dir, "mc-it-keystore.jks").getPath());
+        ReflectionTestUtils.setField(certUtil, "KEYSTORE_PASSWORD", PASSWORD);
+        ReflectionTestUtils.setField(certUtil, "TRUSTSTORE_PATH", new File(dir, "mc-truststore.jks").getPath());
+        ReflectionTestUtils.setField(certUtil, "TRUSTSTORE_PASSWORD", PASSWORD);
+        certUtil.initCA();
+        signingEntry = certUtil.getSigningCertEntry();
+        if (signingEntry == null) {
+            throw new IllegalStateException("Could not create the benchmark CA in " + dir);
+        }
+
+        entityKeyPair = CertificateUtil.generateKeyPair();
+        Map<String, String> attrs = new HashMap<>();
+        attrs.put(CertificateUtil.MC_OID_MRN, "urn:mrn:mcl:user:dma:b00345");
+        attrs.put(CertificateUtil.MC_OID_PERMISSIONS, "MCADMIN");
+        entityCert = certUtil.generateCertForEntity(1000L, "Denmark", "urn:mrn:mcl:org:dma", "user", "John Doe",
+                "jdoe@example.com", "urn:mrn:mcl:user:dma:b00345", entityKeyPair.getPublic(), attrs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(dir);
+    }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.benchmarks;
+
+import net.maritimecloud.identityregistry.utils.CertificateUtil;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the certificate operations done when issuing certificates and when authenticating with them.
+ * Note that verifyCertificate, generateOCSPResponse and initOCSPRespBuilder load the keystores from disk on
+ * every call, as they do in production.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertificateBenchmark {
+
+    private PublicKey subjectKey;
+    private X500Name issuer;
+    private X500Name subject;
+    private Map<String, String> customAttrs;
+    // The certificate as nginx forwards it in a header
+    private String certHeader;
+    private OCSPReq ocspRequest;
+
+    @Setup
+    public void setUp(CertificateAuthorityState ca) throws Exception {
+        subjectKey = ca.entityKeyPair.getPublic();
+        issuer = new JcaX509CertificateHolder((X509Certificate) ca.signingEntry.getCertificate()).getSubject();
+        subject = new X500Name("C=DK, O=urn:mrn:mcl:org:dma, OU=user, CN=John Doe, UID=urn:mrn:mcl:user:dma:b00345");
+        customAttrs = new HashMap<>();
+        customAttrs.put(CertificateUtil.MC_OID_MRN, "urn:mrn:mcl:user:dma:b00345");
+        customAttrs.put(CertificateUtil.MC_OID_PERMISSIONS, "MCADMIN");
+
+        certHeader = CertificateUtil.getPemFromEncoded("CERTIFICATE", ca.entityCert.getEncoded()).replaceAll("\\r?\\n", "  ");
+
+        CertificateID certId = new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                new JcaX509CertificateHolder((X509Certificate) ca.signingEntry.getCertificate()), ca.entityCert.getSerialNumber());
+        Extension nonce = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+                new DEROctetString(BigInteger.valueOf(System.currentTimeMillis()).toByteArray()));
+        ocspRequest = new OCSPReqBuilder().addRequest(certId).setRequestExtensions(new Extensions(nonce)).build();
+    }
+
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return CertificateUtil.generateKeyPair();
+    }
+
+    @Benchmark
+    public X509Certificate buildAndSignCert(CertificateAuthorityState ca) throws Exception {
+        return ca.certUtil.buildAndSignCert(1001L, ca.signingEntry.getPrivateKey(), ca.signingEntry.getCertificate().getPublicKey(),
+                subjectKey, issuer, subject, customAttrs, "ENTITY");
+    }
+
+    @Benchmark
+    public boolean verifyCertificate(CertificateAuthorityState ca) {
+        return ca.certUtil.verifyCertificate(ca.entityCert);
+    }
+
+    @Benchmark
+    public X509Certificate getCertFromString(CertificateAuthorityState ca) {
+        return ca.certUtil.getCertFromString(certHeader);
+    }
+
+    @Benchmark
+    public UserDetails getUserFromCert(CertificateAuthorityState ca) {
+        return ca.certUtil.getUserFromCert(ca.entityCert);
+    }
+
+    /* The same steps as CertificateController.handleOCSP, with the certificate lookup left out */
+    @Benchmark
+    public byte[] generateOCSPResponse(CertificateAuthorityState ca) throws Exception {
+        BasicOCSPRespBuilder respBuilder = ca.certUtil.initOCSPRespBuilder(ocspRequest);
+        for (Req req : ocspRequest.getRequestList()) {
+            respBuilder.addResponse(req.getCertID(), CertificateStatus.GOOD);
+        }
+        OCSPResp response = ca.certUtil.generateOCSPResponse(respBuilder);
+        return response.getEncoded();
+    }
+}
@@ -0,0 +1,73 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.benchmarks;
+
+import net.maritimecloud.identityregistry.model.database.Certificate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures CRL generation for revocation lists of different sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrlBenchmark {
+
+    private static final String[] REASONS = { "unspecified", "keycompromise", "superseded", "cessationofoperation" };
+
+    @Param({ "0", "100", "1000", "10000" })
+    public int revokedCount;
+
+    private List<Certificate> revokedCerts;
+
+    @Setup
+    public void setUp() {
+        revokedCerts = new ArrayList<>(revokedCount);
+        Date revokedAt = new Date();
+        for (int i = 0; i < revokedCount; i++) {
+            Certificate cert = new Certificate();
+            ReflectionTestUtils.setField(cert, "id", (long) i + 1);
+            cert.setRevoked(true);
+            cert.setRevokedAt(revokedAt);
+            cert.setRevokeReason(REASONS[i % REASONS.length]);
+            revokedCerts.add(cert);
+        }
+    }
+
+    @Benchmark
+    public X509CRL generateCRL(CertificateAuthorityState ca) {
+        return ca.certUtil.generateCRL(revokedCerts);
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.benchmarks;
+
+import net.maritimecloud.identityregistry.utils.MrnUtil;
+import net.maritimecloud.identityregistry.utils.ParsedMrn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single pass MRN parser with the regular expressions and indexOf scans it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MrnParserBenchmark {
+
+    @Param({
+            // Valid MRNs
+            "urn:mrn:mcl:user:dma:b00345",
+            "urn:mrn:mcl:vessel:dfds@bimco:crown-seaways",
+            "urn:mrn:mcl:service:instance:dma:nw-nm-design:nw-nm-prod",
+            // Long MRN full of escapes, where the reluctant quantifiers have to backtrack
+            "urn:mrn:mcl:user:dma:%41%42%43%44%45%46%47%48%49%4a%4b%4c%4d%4e%4f%50%51%52%53%54%55%56%57%58%59%5a:%41%42%43%44%45%46%47%48%49%4a",
+            // Pathological: the marker is there but nothing follows it, after a long prefix
+            "urn:mrn:mcl:aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa:service:",
+            // Invalid character at the end
+            "urn:mrn:mcl:org:dma:vessel:poul-løwenørn"
+    })
+    public String mrn;
+
+    @Benchmark
+    public boolean validateRegex() {
+        return validateWithPatterns(mrn);
+    }
+
+    @Benchmark
+    public boolean validateParser() {
+        return ParsedMrn.parse(mrn).isValid();
+    }
+
+    @Benchmark
+    public String orgShortNameIndexOf() {
+        try {
+            return orgShortNameWithIndexOf(mrn);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public String orgShortNameParser() {
+        try {
+            return ParsedMrn.parse(mrn).getOrgShortName();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /* The validation as it was done before ParsedMrn */
+    private static boolean validateWithPatterns(String mrn) {
+        if (!MrnUtil.MRN_PATTERN.matcher(mrn).matches()) {
+            return false;
+        }
+        if (mrn.contains(":service:") && !MrnUtil.MRN_SERVICE_INSTANCE_PATTERN.matcher(mrn).matches()) {
+            return false;
+        } else if (mrn.contains(":user:") && !MrnUtil.MRN_USER_PATTERN.matcher(mrn).matches()) {
+            return false;
+        } else if (mrn.contains(":vessel:") && !MrnUtil.MRN_VESSEL_PATTERN.matcher(mrn).matches()) {
+            return false;
+        } else if (mrn.contains(":device:") && !MrnUtil.MRN_DEVICE_PATTERN.matcher(mrn).matches()) {
+            return false;
+        }
+        return true;
+    }
+
+    /* The org shortname lookup as it was done before ParsedMrn */
+    private static String orgShortNameWithIndexOf(String entityMrn) {
+        int tmpIdx = entityMrn.indexOf(":user:");
+        int startIdx = tmpIdx + 6;
+        if (tmpIdx < 0) {
+            tmpIdx = entityMrn.indexOf(":device:");
+            startIdx = tmpIdx + 8;
+        }
+        if (tmpIdx < 0) {
+            tmpIdx = entityMrn.indexOf(":vessel:");
+            startIdx = tmpIdx + 8;
+        }
+        if (tmpIdx < 0) {
+            tmpIdx = entityMrn.indexOf(":service:instance:");
+            startIdx = tmpIdx + 18;
+        }
+        if (tmpIdx < 0) {
+            throw new IllegalArgumentException("MRN is not a valid entity MRN!");
+        }
+        int endIdx = entityMrn.indexOf(":", startIdx);
+        return entityMrn.substring(startIdx, endIdx);
+    }
+}
@@ -0,0 +1,76 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Latencies and error count for one endpoint. Samples are kept in full, which is fine for runs of a few minutes.
+ */
+public class EndpointStats {
+
+    private final String name;
+
+    private long[] samples = new long[1024];
+
+    private int count;
+
+    private int errors;
+
+    public EndpointStats(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long nanos, boolean ok) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+        if (!ok) {
+            errors++;
+        }
+    }
+
+    public synchronized void reset() {
+        count = 0;
+        errors = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized int getErrors() {
+        return errors;
+    }
+
+    /* Returns the latencies in milliseconds at the given percentiles (0-100) */
+    public synchronized double[] getPercentiles(double... percentiles) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        double[] ret = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (sorted.length > 0) {
+                int idx = (int) Math.ceil(percentiles[i] / 100.0 * sorted.length) - 1;
+                ret[i] = sorted[Math.max(0, Math.min(idx, sorted.length - 1))] / 1e6;
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,110 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal stand-in for the Keycloak token and admin endpoints used by KeycloakAdminUtil. Every call succeeds:
+ * creates return 201 with a Location, searches return a single match, updates and deletes return 204.
+ * Identity providers are never found, so they are always created rather than updated.
+ */
+public class KeycloakStub {
+
+    private static final String TOKEN = "{\"access_token\":\"stub\",\"expires_in\":3600,\"refresh_expires_in\":3600," +
+            "\"refresh_token\":\"stub\",\"token_type\":\"bearer\"}";
+
+    private final HttpServer server;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    public KeycloakStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/auth/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/auth/";
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read(new byte[4096]) > 0) {
+                // Drain the body so the connection can be reused
+            }
+        }
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.endsWith("/protocol/openid-connect/token")) {
+            reply(exchange, 200, TOKEN);
+        } else if ("POST".equals(method)) {
+            exchange.getResponseHeaders().add("Location", exchange.getRequestURI() + "/" + UUID.randomUUID());
+            reply(exchange, 201, null);
+        } else if ("PUT".equals(method) || "DELETE".equals(method)) {
+            reply(exchange, 204, null);
+        } else if (path.contains("/identity-provider/instances/")) {
+            reply(exchange, 404, null);
+        } else if (path.endsWith("/client-secret")) {
+            reply(exchange, 200, "{\"type\":\"secret\",\"value\":\"" + UUID.randomUUID() + "\"}");
+        } else if (path.endsWith("/users") || path.endsWith("/clients")) {
+            reply(exchange, 200, "[" + representation() + "]");
+        } else {
+            reply(exchange, 200, representation());
+        }
+    }
+
+    private static String representation() {
+        String id = UUID.randomUUID().toString();
+        return "{\"id\":\"" + id + "\",\"username\":\"stub\",\"clientId\":\"stub\",\"enabled\":true,\"attributes\":{}}";
+    }
+
+    private static void reply(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
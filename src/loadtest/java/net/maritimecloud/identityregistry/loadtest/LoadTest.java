@@ -0,0 +1,410 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.maritimecloud.identityregistry.McIdregApplication;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.model.database.Role;
+import net.maritimecloud.identityregistry.services.OrganizationService;
+import net.maritimecloud.identityregistry.services.RoleService;
+import net.maritimecloud.identityregistry.utils.CertificateUtil;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Boots the identity registry on the test profile, with Keycloak and SMTP replaced by local stand-ins, and drives
+ * a weighted mix of requests against the x509 API from a number of threads. Every request is authenticated with
+ * a client certificate header issued to a site admin, except the public CRL, OCSP and apply endpoints.
+ *
+ * Options: --threads=N (default 16), --warmup=seconds (default 15), --duration=seconds (default 60).
+ * Run with: mvn -P loadtest -DskipTests verify -Dloadtest.args="--threads=32 --duration=120"
+ */
+public class LoadTest {
+
+    private static final String ADMIN_ORG_MRN = "urn:mrn:mcl:org:dma";
+    private static final String ADMIN_PERMISSION = "MCADMIN";
+    private static final String KEYSTORE_PASSWORD = "changeit";
+    // Vessels created before the test starts, and the number kept around when deleting
+    private static final int MIN_VESSELS = 100;
+
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+    private final Map<String, Integer> weights = new LinkedHashMap<>();
+    private final Map<String, Operation> operations = new HashMap<>();
+    private int totalWeight;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final List<String> vessels = new ArrayList<>();
+    private final List<String> appliedOrgs = new ArrayList<>();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private CloseableHttpClient http;
+    private String baseUrl;
+    private String certHeader;
+    private byte[] ocspRequest;
+
+    private interface Operation {
+        /* Sends the request and returns the http status */
+        int call() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = 16;
+        int warmup = 15;
+        int duration = 60;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            switch (parts[0]) {
+                case "--threads":
+                    threads = Integer.parseInt(parts[1]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(parts[1]);
+                    break;
+                case "--duration":
+                    duration = Integer.parseInt(parts[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        new LoadTest().run(threads, warmup, duration);
+        System.exit(0);
+    }
+
+    public LoadTest() {
+        // Reads by x509 authenticated clients dominate, writes and certificate handling are less frequent
+        add("GET org", 20, () -> execute(new HttpGet(baseUrl + "org/" + ADMIN_ORG_MRN)));
+        add("GET vessels", 10, () -> execute(new HttpGet(baseUrl + "org/" + ADMIN_ORG_MRN + "/vessels")));
+        add("GET vessel", 20, () -> execute(new HttpGet(baseUrl + "org/" + ADMIN_ORG_MRN + "/vessel/" + pick(vessels, false))));
+        add("POST vessel", 6, this::createVessel);
+        add("PUT vessel", 4, () -> {
+            String mrn = pick(vessels, false);
+            return send(new HttpPut(baseUrl + "org/" + ADMIN_ORG_MRN + "/vessel/" + mrn), vesselJson(mrn));
+        });
+        add("DELETE vessel", 3, () -> execute(new HttpDelete(baseUrl + "org/" + ADMIN_ORG_MRN + "/vessel/" + pick(vessels, true))));
+        add("POST user", 2, () -> {
+            int n = sequence.incrementAndGet();
+            return send(new HttpPost(baseUrl + "org/" + ADMIN_ORG_MRN + "/user"), mapper.writeValueAsString(map(
+                    "mrn", "urn:mrn:mcl:user:dma:lt-user-" + n, "firstName", "Load", "lastName", "Test " + n,
+                    "email", "lt-user-" + n + "@example.com")));
+        });
+        add("GET issue vessel cert", 4, () -> execute(new HttpGet(baseUrl + "org/" + ADMIN_ORG_MRN + "/vessel/" + pick(vessels, false) + "/certificate/issue-new")));
+        add("POST ocsp", 12, () -> {
+            HttpPost post = new HttpPost(baseUrl + "certificates/ocsp");
+            post.setEntity(new ByteArrayEntity(ocspRequest, ContentType.create("application/ocsp-request")));
+            return execute(post);
+        });
+        add("GET crl", 6, () -> execute(new HttpGet(baseUrl + "certificates/crl")));
+        add("POST org apply", 2, () -> {
+            String mrn = "urn:mrn:mcl:org:lt-org-" + sequence.incrementAndGet();
+            int status = send(new HttpPost(baseUrl + "org/apply"), mapper.writeValueAsString(map(
+                    "mrn", mrn, "name", "Load test " + mrn, "email", "admin@example.com", "url", "http://example.com",
+                    "address", "Carl Jacobsens Vej 31", "country", "Denmark")));
+            if (status == 200) {
+                synchronized (appliedOrgs) {
+                    appliedOrgs.add(mrn);
+                }
+            }
+            return status;
+        });
+        add("GET org approve", 2, () -> execute(new HttpGet(baseUrl + "org/" + pick(appliedOrgs, true) + "/approve")));
+    }
+
+    private void add(String name, int weight, Operation operation) {
+        stats.put(name, new EndpointStats(name));
+        weights.put(name, weight);
+        operations.put(name, operation);
+        totalWeight += weight;
+    }
+
+    public void run(int threads, int warmup, int duration) throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        File dir = Files.createTempDirectory("mcidreg-loadtest").toFile();
+        KeycloakStub keycloak = new KeycloakStub();
+        keycloak.start();
+        SmtpSink smtp = new SmtpSink();
+        smtp.start();
+        ConfigurableApplicationContext ctx = null;
+        try {
+            createCA(dir);
+            ctx = new SpringApplicationBuilder(McIdregApplication.class)
+                    .properties(properties(dir, keycloak, smtp))
+                    .run();
+            int port = ((EmbeddedWebApplicationContext) ctx).getEmbeddedServletContainer().getPort();
+            baseUrl = "http://localhost:" + port + "/x509/api/";
+            http = HttpClients.custom().setMaxConnTotal(threads * 2).setMaxConnPerRoute(threads * 2).build();
+            setUp(ctx);
+
+            System.out.println("Warming up for " + warmup + " s with " + threads + " threads");
+            drive(threads, warmup);
+            for (EndpointStats s : stats.values()) {
+                s.reset();
+            }
+            System.out.println("Measuring for " + duration + " s with " + threads + " threads");
+            drive(threads, duration);
+            report(duration, keycloak, smtp);
+        } finally {
+            if (http != null) {
+                http.close();
+            }
+            if (ctx != null) {
+                ctx.close();
+            }
+            keycloak.stop();
+            smtp.stop();
+            FileSystemUtils.deleteRecursively(dir);
+        }
+    }
+
+    private String[] properties(File dir, KeycloakStub keycloak, SmtpSink smtp) {
+        return new String[] {
+                "spring.profiles.active=test",
+                "server.port=0",
+                "logging.level.net.maritimecloud.identityregistry=WARN",
+                "net.maritimecloud.idreg.keycloak-broker-base-url=" + keycloak.getBaseUrl(),
+                "net.maritimecloud.idreg.keycloak-project-users-base-url=" + keycloak.getBaseUrl(),
+                "net.maritimecloud.idreg.keycloak-outbox.poll-interval=500",
+                "net.maritimecloud.idreg.email-queue.poll-interval=500",
+                "net.maritimecloud.idreg.blob-store.path=" + new File(dir, "blobs").getPath(),
+                "net.maritimecloud.idreg.certs.root-keystore=" + new File(dir, "mc-root-keystore.jks").getPath(),
+                "net.maritimecloud.idreg.certs.it-keystore=" + new File(dir, "mc-it-keystore.jks").getPath(),
+                "net.maritimecloud.idreg.certs.truststore=" + new File(dir, "mc-truststore.jks").getPath(),
+                "net.maritimecloud.idreg.certs.keystore-password=" + KEYSTORE_PASSWORD,
+                "net.maritimecloud.idreg.certs.truststore-password=" + KEYSTORE_PASSWORD,
+                "spring.mail.host=localhost",
+                "spring.mail.port=" + smtp.getPort(),
+        };
+    }
+
+    /* Creates a throwaway root and intermediate CA in the given directory */
+    private void createCA(File dir) {
+        CertificateUtil certUtil = new CertificateUtil();
+        ReflectionTestUtils.setField(certUtil, "ROOT_KEYSTORE_PATH", new File(dir, "mc-root-keystore.jks").getPath());
+        ReflectionTestUtils.setField(certUtil, "INTERMEDIATE_KEYSTORE_PATH", new File(dir, "mc-it-keystore.jks").getPath());
+        ReflectionTestUtils.setField(certUtil, "TRUSTSTORE_PATH", new File(dir, "mc-truststore.jks").getPath());
+        ReflectionTestUtils.setField(certUtil, "KEYSTORE_PASSWORD", KEYSTORE_PASSWORD);
+        ReflectionTestUtils.setField(certUtil, "TRUSTSTORE_PASSWORD", KEYSTORE_PASSWORD);
+        certUtil.initCA();
+    }
+
+    /* Creates the site admin organization and its client certificate, and seeds the vessels used by the test */
+    private void setUp(ConfigurableApplicationContext ctx) throws Exception {
+        OrganizationService organizationService = ctx.getBean(OrganizationService.class);
+        Organization org = new Organization();
+        org.setMrn(ADMIN_ORG_MRN);
+        org.setName("Danish Maritime Authority");
+        org.setEmail("admin@example.com");
+        org.setUrl("http://www.dma.dk");
+        org.setAddress("Carl Jacobsens Vej 31");
+        org.setCountry("Denmark");
+        org.setApproved(true);
+        org = organizationService.save(org);
+
+        Role role = new Role();
+        role.setIdOrganization(org.getId());
+        role.setPermission(ADMIN_PERMISSION);
+        role.setRoleName("ROLE_SITE_ADMIN");
+        ctx.getBean(RoleService.class).save(role);
+
+        CertificateUtil certUtil = ctx.getBean(CertificateUtil.class);
+        KeyPair keyPair = CertificateUtil.generateKeyPair();
+        Map<String, String> attrs = new HashMap<>();
+        attrs.put(CertificateUtil.MC_OID_MRN, "urn:mrn:mcl:user:dma:loadtest-admin");
+        attrs.put(CertificateUtil.MC_OID_PERMISSIONS, ADMIN_PERMISSION);
+        X509Certificate adminCert = certUtil.generateCertForEntity(1L, org.getCountry(), ADMIN_ORG_MRN, "user", "Load Test Admin",
+                "admin@example.com", "urn:mrn:mcl:user:dma:loadtest-admin", keyPair.getPublic(), attrs);
+        // nginx forwards the certificate with line breaks replaced by whitespaces
+        certHeader = CertificateUtil.getPemFromEncoded("CERTIFICATE", adminCert.getEncoded()).replaceAll("\\r?\\n", "  ");
+
+        for (int i = 0; i < MIN_VESSELS; i++) {
+            int status = createVessel();
+            if (status != 200) {
+                throw new IllegalStateException("Could not create vessels for the load test, got status " + status);
+            }
+        }
+
+        // Issue a real certificate, so the OCSP requests hit a known serial number
+        HttpGet get = new HttpGet(baseUrl + "org/" + ADMIN_ORG_MRN + "/vessel/" + pick(vessels, false) + "/certificate/issue-new");
+        get.setHeader("X-Client-Certificate", certHeader);
+        String pem;
+        try (CloseableHttpResponse response = http.execute(get)) {
+            pem = mapper.readTree(EntityUtils.toString(response.getEntity())).get("certificate").asText();
+        }
+        X509Certificate vesselCert = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+        CertificateID certId = new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                new JcaX509CertificateHolder((X509Certificate) certUtil.getSigningCertEntry().getCertificate()), vesselCert.getSerialNumber());
+        Extension nonce = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+                new DEROctetString(BigInteger.valueOf(System.nanoTime()).toByteArray()));
+        ocspRequest = new OCSPReqBuilder().addRequest(certId).setRequestExtensions(new Extensions(nonce)).build().getEncoded();
+    }
+
+    private void drive(int threads, int seconds) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < end) {
+                    String name = nextOperation();
+                    long start = System.nanoTime();
+                    int status;
+                    try {
+                        status = operations.get(name).call();
+                    } catch (Exception e) {
+                        status = -1;
+                    }
+                    stats.get(name).record(System.nanoTime() - start, status >= 200 && status < 300);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    }
+
+    private String nextOperation() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        String name = null;
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            name = weight.getKey();
+            r -= weight.getValue();
+            if (r < 0) {
+                break;
+            }
+        }
+        // Keep enough vessels and applications around for the operations that need one
+        synchronized (vessels) {
+            if ("DELETE vessel".equals(name) && vessels.size() <= MIN_VESSELS) {
+                return "POST vessel";
+            }
+        }
+        synchronized (appliedOrgs) {
+            if ("GET org approve".equals(name) && appliedOrgs.isEmpty()) {
+                return "POST org apply";
+            }
+        }
+        return name;
+    }
+
+    private int createVessel() throws Exception {
+        String mrn = "urn:mrn:mcl:vessel:dma:lt-vessel-" + sequence.incrementAndGet();
+        int status = send(new HttpPost(baseUrl + "org/" + ADMIN_ORG_MRN + "/vessel"), vesselJson(mrn));
+        if (status == 200) {
+            synchronized (vessels) {
+                vessels.add(mrn);
+            }
+        }
+        return status;
+    }
+
+    private String vesselJson(String mrn) throws IOException {
+        return mapper.writeValueAsString(map("mrn", mrn, "name", "Load test vessel " + ThreadLocalRandom.current().nextInt(1000)));
+    }
+
+    private static String pick(List<String> list, boolean remove) {
+        synchronized (list) {
+            int idx = ThreadLocalRandom.current().nextInt(list.size());
+            return remove ? list.remove(idx) : list.get(idx);
+        }
+    }
+
+    private static Map<String, String> map(String... keyValues) {
+        Map<String, String> ret = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            ret.put(keyValues[i], keyValues[i + 1]);
+        }
+        return ret;
+    }
+
+    private int send(HttpEntityEnclosingRequestBase request, String json) throws IOException {
+        request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        return execute(request);
+    }
+
+    private int execute(HttpUriRequest request) throws IOException {
+        request.setHeader("X-Client-Certificate", certHeader);
+        try (CloseableHttpResponse response = http.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    private void report(int duration, KeycloakStub keycloak, SmtpSink smtp) {
+        System.out.println();
+        System.out.println(String.format("%-24s %8s %7s %9s %9s %9s %9s %9s",
+                "Endpoint", "Count", "Errors", "Req/s", "p50 ms", "p90 ms", "p99 ms", "Max ms"));
+        int total = 0;
+        int errors = 0;
+        for (EndpointStats s : stats.values()) {
+            double[] p = s.getPercentiles(50, 90, 99, 100);
+            System.out.println(String.format("%-24s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f",
+                    s.getName(), s.getCount(), s.getErrors(), s.getCount() / (double) duration, p[0], p[1], p[2], p[3]));
+            total += s.getCount();
+            errors += s.getErrors();
+        }
+        System.out.println(String.format("%-24s %8d %7d %9.1f", "Total", total, errors, total / (double) duration));
+        System.out.println();
+        System.out.println("Keycloak stub requests: " + keycloak.getRequestCount() + ", emails received: " + smtp.getMessageCount());
+    }
+}
@@ -17,11 +17,13 @@ package net.maritimecloud.identityregistry;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.security.Security;
 
 
 @SpringBootApplication
+@EnableScheduling
 public class McIdregApplication {
 
     public static void main(String[] args) {
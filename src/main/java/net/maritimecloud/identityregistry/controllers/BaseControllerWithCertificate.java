@@ -25,6 +25,8 @@ import net.maritimecloud.identityregistry.model.database.entities.NonHumanEntity
 import net.maritimecloud.identityregistry.services.CertificateService;
 import net.maritimecloud.identityregistry.utils.CertificateUtil;
 import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
+import net.maritimecloud.identityregistry.utils.RequestTimings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -48,13 +50,19 @@ public abstract class BaseControllerWithCertificate {
     @Autowired
     private CertificateUtil certUtil;
 
+    @Autowired
+    private MetricsUtil metricsUtil;
+
     protected PemCertificate issueCertificate(CertificateModel certOwner, Organization org, String type, HttpServletRequest request) throws McBasicRestException {
         // Create the certificate and save it so that it gets an id that can be used as certificate serialnumber
         Certificate newMCCert = new Certificate();
         certOwner.assignToCert(newMCCert);
         newMCCert = this.certificateService.saveCertificate(newMCCert);
         // Generate keypair for user
+        long keygenStart = RequestTimings.start();
         KeyPair userKeyPair = CertificateUtil.generateKeyPair();
+        metricsUtil.recordTime("crypto.generateKeyPair", keygenStart);
+        RequestTimings.record("keygen", keygenStart);
         // Find special MC attributes to put in the certificate
         HashMap<String, String> attrs = getAttr(certOwner);
 
@@ -65,7 +73,9 @@ public abstract class BaseControllerWithCertificate {
         if (uid == null || uid.trim().isEmpty()) {
             throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.ENTITY_ORG_ID_MISSING, request.getServletPath());
         }
+        long signStart = RequestTimings.start();
         X509Certificate userCert = certUtil.generateCertForEntity(newMCCert.getId(), org.getCountry(), o, type, name, email, uid, userKeyPair.getPublic(), attrs);
+        RequestTimings.record("sign", signStart);
         String pemCertificate = "";
         try {
             pemCertificate = CertificateUtil.getPemFromEncoded("CERTIFICATE", userCert.getEncoded()).replace("\n", "\\n");
@@ -82,12 +92,15 @@ public abstract class BaseControllerWithCertificate {
         long offset = cal.get(Calendar.ZONE_OFFSET) + cal.get(Calendar.DST_OFFSET);
         newMCCert.setStart(new Date(userCert.getNotBefore().getTime() - offset));
         newMCCert.setEnd(new Date(userCert.getNotAfter().getTime() - offset));
-        this.certificateService.saveCertificate(newMCCert);
+        this.certificateService.issueCertificate(newMCCert);
         return ret;
     }
 
     protected void revokeCertificate(Long certId, CertificateRevocation input, HttpServletRequest request) throws McBasicRestException {
-        Certificate cert = this.certificateService.getCertificateById(certId);
+        revokeCertificate(this.certificateService.getCertificateById(certId), input, request);
+    }
+
+    protected void revokeCertificate(Certificate cert, CertificateRevocation input, HttpServletRequest request) throws McBasicRestException {
         if (!input.validateReason()) {
             throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_REVOCATION_REASON, request.getServletPath());
         }
@@ -97,7 +110,7 @@ public abstract class BaseControllerWithCertificate {
         cert.setRevokedAt(input.getRevokedAt());
         cert.setRevokeReason(input.getRevokationReason());
         cert.setRevoked(true);
-        this.certificateService.saveCertificate(cert);
+        this.certificateService.revokeCertificate(cert);
     }
 
     /* Override if the entity type of the controller isn't of type NonHumanEntityModel */
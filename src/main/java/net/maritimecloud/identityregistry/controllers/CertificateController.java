@@ -19,6 +19,7 @@ import java.math.BigInteger;
 import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -33,10 +34,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import net.maritimecloud.identityregistry.exception.McBasicRestException;
 import net.maritimecloud.identityregistry.model.database.Certificate;
 import net.maritimecloud.identityregistry.services.CertificateService;
+import net.maritimecloud.identityregistry.services.RevocationStreamService;
 import net.maritimecloud.identityregistry.utils.CertificateUtil;
+import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
 
 @RestController
 @RequestMapping(value={"oidc", "x509"})
@@ -51,6 +57,12 @@ public class CertificateController {
     @Autowired
     private CertificateUtil certUtil;
 
+    @Autowired
+    private MetricsUtil metricsUtil;
+
+    @Autowired
+    private RevocationStreamService revocationStreamService;
+
     /**
      * Returns info about the device identified by the given ID
      * 
@@ -63,6 +75,7 @@ public class CertificateController {
     @ResponseBody
     public ResponseEntity<?> getCRL(HttpServletRequest request) {
         List<Certificate> revokedCerts = this.certificateService.listRevokedCertificate();
+        metricsUtil.recordValue("crypto.crl.entries", revokedCerts.size());
         X509CRL crl = certUtil.generateCRL(revokedCerts);
         String pemCrl = "";
         try {
@@ -75,6 +88,27 @@ public class CertificateController {
         return new ResponseEntity<String>(pemCrl, HttpStatus.OK);
     }
 
+    /**
+     * Returns a stream of revocations as server-sent events, each with the serial number, revocation time and
+     * reason of a certificate. Streams resume after the sequence number in the Last-Event-ID header or the
+     * since parameter, and start with new revocations if neither is given.
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    @RequestMapping(
+            value = "/api/certificates/revocations",
+            method = RequestMethod.GET,
+            produces = "text/event-stream")
+    public SseEmitter getRevocations(HttpServletRequest request, @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                     @RequestParam(value = "since", required = false) Long since) throws McBasicRestException {
+        try {
+            return revocationStreamService.subscribe(lastEventId != null ? lastEventId : since);
+        } catch (RejectedExecutionException e) {
+            throw new McBasicRestException(HttpStatus.SERVICE_UNAVAILABLE, MCIdRegConstants.TOO_MANY_REVOCATION_STREAMS, request.getServletPath());
+        }
+    }
+
     @RequestMapping(
             value = "/api/certificates/ocsp",
             method = RequestMethod.POST,
@@ -22,8 +22,8 @@ import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.RestController;
 
 import net.maritimecloud.identityregistry.exception.McBasicRestException;
-import net.maritimecloud.identityregistry.model.database.Certificate;
 import net.maritimecloud.identityregistry.model.data.CertificateRevocation;
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
 import net.maritimecloud.identityregistry.model.data.PemCertificate;
 import net.maritimecloud.identityregistry.model.database.entities.Device;
 
@@ -39,6 +39,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @RestController
 public class DeviceController extends EntityController<Device> {
@@ -127,6 +128,40 @@ public class DeviceController extends EntityController<Device> {
         return this.getOrganizationEntities(request, orgMrn);
     }
 
+    /**
+     * Returns the devices of the organization created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/devices/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("@accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<ChangeSet<Device>> getOrganizationDeviceChanges(HttpServletRequest request, @PathVariable String orgMrn,
+                                                                  @RequestParam(required = false) String since,
+                                                                  @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, orgMrn, since, limit);
+    }
+
+    /**
+     * Returns the devices of all organizations created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/devices/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("hasRole('SITE_ADMIN')")
+    public ResponseEntity<ChangeSet<Device>> getDeviceChanges(HttpServletRequest request,
+                                                      @RequestParam(required = false) String since,
+                                                      @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, null, since, limit);
+    }
+
     /**
      * Returns new certificate for the device identified by the given ID
      * 
@@ -156,10 +191,5 @@ public class DeviceController extends EntityController<Device> {
     public ResponseEntity<?> revokeDeviceCert(HttpServletRequest request, @PathVariable String orgMrn, @PathVariable String deviceMrn, @PathVariable Long certId, @Valid @RequestBody CertificateRevocation input) throws McBasicRestException {
         return this.revokeEntityCert(request, orgMrn, deviceMrn, certId, input);
     }
-
-    @Override
-    protected Device getCertEntity(Certificate cert) {
-        return cert.getDevice();
-    }
 }
 
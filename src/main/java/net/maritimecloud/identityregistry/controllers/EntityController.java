@@ -16,7 +16,9 @@ package net.maritimecloud.identityregistry.controllers;
 
 import net.maritimecloud.identityregistry.model.database.CertificateModel;
 import net.maritimecloud.identityregistry.model.database.entities.EntityModel;
+import net.maritimecloud.identityregistry.services.ChangeFeedService;
 import net.maritimecloud.identityregistry.services.EntityService;
+import net.maritimecloud.identityregistry.utils.ChangeCursor;
 import net.maritimecloud.identityregistry.utils.MrnUtil;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.web.bind.annotation.RestController;
@@ -24,12 +26,17 @@ import org.springframework.web.bind.annotation.RestController;
 import net.maritimecloud.identityregistry.exception.McBasicRestException;
 import net.maritimecloud.identityregistry.model.database.Certificate;
 import net.maritimecloud.identityregistry.model.data.CertificateRevocation;
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
+import net.maritimecloud.identityregistry.model.data.EntityOwnership;
 import net.maritimecloud.identityregistry.model.database.Organization;
 import net.maritimecloud.identityregistry.model.data.PemCertificate;
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
 import net.maritimecloud.identityregistry.services.CertificateService;
 import net.maritimecloud.identityregistry.services.OrganizationService;
 import net.maritimecloud.identityregistry.utils.CertificateUtil;
+import net.maritimecloud.identityregistry.utils.HttpCacheUtil;
 import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
+import net.maritimecloud.identityregistry.utils.RequestTimings;
 
 import java.util.List;
 
@@ -41,6 +48,9 @@ import org.springframework.http.ResponseEntity;
 
 @RestController
 public abstract class EntityController<T extends EntityModel> extends BaseControllerWithCertificate {
+    protected static final int DEFAULT_CHANGES_LIMIT = 500;
+    private static final int MAX_CHANGES_LIMIT = 1000;
+
     protected EntityService<T> entityService;
     protected OrganizationService organizationService;
     protected CertificateService certificateService;
@@ -58,6 +68,9 @@ public abstract class EntityController<T extends EntityModel> extends BaseContro
     @Autowired
     protected CertificateUtil certUtil;
 
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
     /**
      * Creates a new Entity
      *
@@ -65,10 +78,10 @@ public abstract class EntityController<T extends EntityModel> extends BaseContro
      * @throws McBasicRestException
      */
     protected ResponseEntity<T> createEntity(HttpServletRequest request, String orgMrn, T input) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        Organization org = lookupOrganization(orgMrn);
         if (org != null) {
             // Check that the entity being created belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             input.setIdOrganization(org.getId());
@@ -84,29 +97,33 @@ public abstract class EntityController<T extends EntityModel> extends BaseContro
     }
 
     /**
-     * Returns info about the entity identified by the given ID
+     * Returns info about the entity identified by the given ID. Answers conditional requests with 304 from the
+     * version of the entity, without loading it.
      *
      * @return a reply...
      * @throws McBasicRestException
      */
     protected ResponseEntity<T> getEntity(HttpServletRequest request, String orgMrn, String entityMrn) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
-        if (org != null) {
-            // Check that the entity being queried belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(entityMrn))) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-            }
-            T entity = this.entityService.getByMrn(entityMrn);
-            if (entity == null) {
-                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ENTITY_NOT_FOUND, request.getServletPath());
-            }
-            if (entity.getIdOrganization().compareTo(org.getId()) == 0) {
-                return new ResponseEntity<T>(entity, HttpStatus.OK);
-            }
-            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-        } else {
-            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        // The version is read before the entity, so a change in between gives a newer entity with an older ETag, never the opposite
+        ResourceVersion version = this.entityService.getVersion(orgMrn, entityMrn);
+        if (version == null) {
+            throw notInOrgError(request, orgMrn, entityMrn);
+        }
+        checkOrgShortName(request, orgMrn, entityMrn);
+        if (HttpCacheUtil.isNotModified(request, version)) {
+            return HttpCacheUtil.notModified(version);
+        }
+        long start = RequestTimings.start();
+        T entity;
+        try {
+            entity = this.entityService.getDetailedByMrnInOrg(entityMrn, orgMrn);
+        } finally {
+            RequestTimings.record("entity", start);
         }
+        if (entity == null) {
+            throw notInOrgError(request, orgMrn, entityMrn);
+        }
+        return HttpCacheUtil.ok(entity, version);
     }
 
     /**
@@ -119,25 +136,10 @@ public abstract class EntityController<T extends EntityModel> extends BaseContro
         if (!entityMrn.equals(input.getMrn())) {
             throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.URL_DATA_MISMATCH, request.getServletPath());
         }
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
-        if (org != null) {
-            // Check that the entity being updated belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(entityMrn))) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-            }
-            T entity = this.entityService.getByMrn(entityMrn);
-            if (entity == null) {
-                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ENTITY_NOT_FOUND, request.getServletPath());
-            }
-            if (entity.getIdOrganization().compareTo(org.getId()) == 0) {
-                input.selectiveCopyTo(entity);
-                this.entityService.save(entity);
-                return new ResponseEntity<>(HttpStatus.OK);
-            }
-            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-        } else {
-            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
-        }
+        T entity = lookupEntityInOrg(request, orgMrn, entityMrn);
+        input.selectiveCopyTo(entity);
+        this.entityService.save(entity);
+        return new ResponseEntity<>(HttpStatus.OK);
     }
 
     /**
@@ -147,42 +149,60 @@ public abstract class EntityController<T extends EntityModel> extends BaseContro
      * @throws McBasicRestException
      */
     protected ResponseEntity<?> deleteEntity(HttpServletRequest request, String orgMrn, String entityMrn) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
-        if (org != null) {
-            // Check that the entity being deleted belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(entityMrn))) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-            }
-            T entity = this.entityService.getByMrn(entityMrn);
-            if (entity == null) {
-                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ENTITY_NOT_FOUND, request.getServletPath());
-            }
-            if (entity.getIdOrganization().compareTo(org.getId()) == 0) {
-                this.entityService.delete(entity.getId());
-                return new ResponseEntity<>(HttpStatus.OK);
-            }
-            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-        } else {
-            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
-        }
+        T entity = lookupEntityInOrg(request, orgMrn, entityMrn);
+        this.entityService.delete(entity.getId());
+        return new ResponseEntity<>(HttpStatus.OK);
     }
 
     /**
-     * Returns a list of entities owned by the organization identified by the given ID
+     * Returns a list of entities owned by the organization identified by the given ID. Answers conditional
+     * requests with 304 from the data version of the organization.
      *
      * @return a reply...
      * @throws McBasicRestException
      */
     protected ResponseEntity<List<T>> getOrganizationEntities(HttpServletRequest request, String orgMrn) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        Organization org = lookupOrganization(orgMrn);
         if (org != null) {
+            ResourceVersion version = this.entityService.getListVersion(org);
+            if (HttpCacheUtil.isNotModified(request, version)) {
+                return HttpCacheUtil.notModified(version);
+            }
             List<T> entities = this.entityService.listFromOrg(org.getId());
-            return new ResponseEntity<List<T>>(entities, HttpStatus.OK);
+            return HttpCacheUtil.ok(entities, version);
         } else {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
         }
     }
 
+    /**
+     * Returns the entities created, updated or deleted since the cursor, in the organization or in all
+     * organizations if orgMrn is null
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    protected ResponseEntity<ChangeSet<T>> getEntityChanges(HttpServletRequest request, String orgMrn, String since, int limit) throws McBasicRestException {
+        ChangeCursor cursor;
+        try {
+            cursor = ChangeCursor.parse(since);
+        } catch (IllegalArgumentException e) {
+            throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_CHANGE_CURSOR, request.getServletPath());
+        }
+        if (changeFeedService.isExpired(cursor)) {
+            throw new McBasicRestException(HttpStatus.GONE, MCIdRegConstants.CHANGE_CURSOR_EXPIRED, request.getServletPath());
+        }
+        limit = Math.max(1, Math.min(limit, MAX_CHANGES_LIMIT));
+        Long orgId = null;
+        if (orgMrn != null) {
+            Organization org = lookupOrganization(orgMrn);
+            if (org == null) {
+                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+            }
+            orgId = org.getId();
+        }
+        return new ResponseEntity<>(this.entityService.getChanges(orgId, cursor, limit), HttpStatus.OK);
+    }
 
     /**
      * Returns new certificate for the entity identified by the given ID
@@ -191,24 +211,11 @@ public abstract class EntityController<T extends EntityModel> extends BaseContro
      * @throws McBasicRestException
      */
     protected ResponseEntity<PemCertificate> newEntityCert(HttpServletRequest request, String orgMrn, String entityMrn, String type) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
-        if (org != null) {
-            // Check that the entity being queried belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(entityMrn))) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-            }
-            T entity = this.entityService.getByMrn(entityMrn);
-            if (entity == null) {
-                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ENTITY_NOT_FOUND, request.getServletPath());
-            }
-            if (entity.getIdOrganization().compareTo(org.getId()) == 0) {
-                PemCertificate ret = this.issueCertificate(entity, org, type, request);
-                return new ResponseEntity<PemCertificate>(ret, HttpStatus.OK);
-            }
-            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-        } else {
-            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
-        }
+        T entity = lookupEntityInOrg(request, orgMrn, entityMrn);
+        // The organization is only needed for the certificate, next to generating the key pair this lookup is cheap
+        Organization org = this.organizationService.getById(entity.getIdOrganization());
+        PemCertificate ret = this.issueCertificate(entity, org, type, request);
+        return new ResponseEntity<PemCertificate>(ret, HttpStatus.OK);
     }
 
     /**
@@ -218,32 +225,64 @@ public abstract class EntityController<T extends EntityModel> extends BaseContro
      * @throws McBasicRestException
      */
     protected ResponseEntity<?> revokeEntityCert(HttpServletRequest request, String orgMrn, String entityMrn, Long certId, CertificateRevocation input) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
-        if (org != null) {
-            // Check that the entity being queried belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(entityMrn))) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-            }
-            T entity = this.entityService.getByMrn(entityMrn);
-            if (entity == null) {
-                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ENTITY_NOT_FOUND, request.getServletPath());
-            }
-            if (entity.getIdOrganization().compareTo(org.getId()) == 0) {
-                Certificate cert = this.certificateService.getCertificateById(certId);
-                T certEntity = getCertEntity(cert);
-                if (certEntity != null && certEntity.getId().compareTo(entity.getId()) == 0) {
-                    this.revokeCertificate(cert.getId(), input, request);
-                    return new ResponseEntity<>(HttpStatus.OK);
-                }
-            }
-            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
-        } else {
-            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        // Finds the certificate, the entity and the organization and checks that they belong together in one query
+        Certificate cert = this.entityService.getCertificateInOrg(certId, entityMrn, orgMrn);
+        if (cert == null) {
+            // Forbidden if the entity is in the organization but the certificate isn't the entity's
+            throw notInOrgError(request, orgMrn, entityMrn);
         }
+        checkOrgShortName(request, orgMrn, entityMrn);
+        this.revokeCertificate(cert, input, request);
+        return new ResponseEntity<>(HttpStatus.OK);
     }
 
-    protected T getCertEntity(Certificate cert) {
-        throw new UnsupportedOperationException("EntityController implementation is missing getCertEntity method");
+    /* Looks up an approved organization, recorded as the "org" phase of the request */
+    protected Organization lookupOrganization(String orgMrn) {
+        long start = RequestTimings.start();
+        try {
+            return this.organizationService.getOrganizationByMrn(orgMrn);
+        } finally {
+            RequestTimings.record("org", start);
+        }
+    }
+
+    /**
+     * Looks up an entity of an approved organization with a single query, recorded as the "entity" phase of the
+     * request. Throws the same errors as looking up the organization and then the entity would.
+     */
+    protected T lookupEntityInOrg(HttpServletRequest request, String orgMrn, String entityMrn) throws McBasicRestException {
+        long start = RequestTimings.start();
+        T entity;
+        try {
+            entity = this.entityService.getByMrnInOrg(entityMrn, orgMrn);
+        } finally {
+            RequestTimings.record("entity", start);
+        }
+        if (entity == null) {
+            throw notInOrgError(request, orgMrn, entityMrn);
+        }
+        checkOrgShortName(request, orgMrn, entityMrn);
+        return entity;
+    }
+
+    /* Finds out why the entity wasn't found in the organization, only done when a request fails */
+    private McBasicRestException notInOrgError(HttpServletRequest request, String orgMrn, String entityMrn) throws McBasicRestException {
+        EntityOwnership ownership = this.entityService.getOwnership(entityMrn, orgMrn);
+        if (ownership == EntityOwnership.ORGANIZATION_NOT_FOUND) {
+            return new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+        checkOrgShortName(request, orgMrn, entityMrn);
+        if (ownership == EntityOwnership.ENTITY_NOT_FOUND) {
+            return new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ENTITY_NOT_FOUND, request.getServletPath());
+        }
+        return new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
+    }
+
+    /* Checks that the MRN of the entity is in the namespace of the organization */
+    private void checkOrgShortName(HttpServletRequest request, String orgMrn, String entityMrn) throws McBasicRestException {
+        if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(entityMrn))) {
+            throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
+        }
     }
 
     protected String getUid(CertificateModel certOwner) {
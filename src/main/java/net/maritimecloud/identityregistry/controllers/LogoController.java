@@ -15,32 +15,66 @@
 package net.maritimecloud.identityregistry.controllers;
 
 import net.maritimecloud.identityregistry.exception.McBasicRestException;
-import net.maritimecloud.identityregistry.model.database.Logo;
+import net.maritimecloud.identityregistry.model.data.LogoRendition;
 import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.services.BlobStore;
+import net.maritimecloud.identityregistry.services.LogoService;
 import net.maritimecloud.identityregistry.services.OrganizationService;
+import net.maritimecloud.identityregistry.utils.HttpCacheUtil;
 import net.maritimecloud.identityregistry.utils.ImageUtil;
 import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping(value={"oidc", "x509"})
 public class LogoController {
 
+    // Request attributes used by Tomcat to send a file without copying it through the application
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Value("${net.maritimecloud.idreg.logo-processing.cache-max-age:3600}")
+    private long cacheMaxAge;
+
     private OrganizationService organizationService;
 
+    private LogoService logoService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private MetricsUtil metricsUtil;
+
     @Autowired
     public void setOrganizationService(OrganizationService organizationService) {
         this.organizationService = organizationService;
     }
 
+    @Autowired
+    public void setLogoService(LogoService logoService) {
+        this.logoService = logoService;
+    }
+
     /**
      * Creates or updates a logo for an organization
      * @param request
@@ -58,20 +92,22 @@ public class LogoController {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             try {
-                this.saveLogo(org, logo.getInputStream());
-                organizationService.save(org);
+                if (logo.getSize() > ImageUtil.MAX_BYTES) {
+                    throw new IOException("Image is larger than " + ImageUtil.MAX_BYTES + " bytes!");
+                }
+                this.saveLogo(request, org, logo.getBytes());
             } catch (IOException e) {
                 e.printStackTrace();
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_IMAGE, request.getServletPath());
             }
-            return new ResponseEntity<>(HttpStatus.CREATED);
+            return new ResponseEntity<>(HttpStatus.ACCEPTED);
         } else {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
         }
     }
 
     /**
-     * Returns info about the logo identified by the given ID
+     * Returns the logo of the organization in the requested size (thumbnail, list or full)
      *
      * @return a reply...
      * @throws McBasicRestException
@@ -81,21 +117,43 @@ public class LogoController {
             method = RequestMethod.GET,
             produces = "image/png")
     @ResponseBody
-    public ResponseEntity<?> getLogo(HttpServletRequest request, @PathVariable String orgMrn) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
-        if (org != null && org.getLogo() != null) {
-            return new ResponseEntity<>(org.getLogo().getImage(), HttpStatus.OK);
-        } else {
+    public void getLogo(HttpServletRequest request, HttpServletResponse response, @PathVariable String orgMrn, @RequestParam(value = "size", defaultValue = "full") String size) throws McBasicRestException, IOException {
+        LogoRendition rendition = LogoRendition.fromName(size);
+        if (rendition == null) {
+            throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_LOGO_SIZE, request.getServletPath());
+        }
+        String key = this.logoService.getLogoKey(orgMrn, rendition);
+        long length = key != null ? this.blobStore.getSize(key) : -1;
+        if (length < 0) {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
         }
-
+        // The key is the hash of the content, so it can be used directly as a strong ETag
+        String eTag = "\"" + key + "\"";
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.maxAge(cacheMaxAge, TimeUnit.SECONDS).cachePublic().getHeaderValue());
+        if (HttpCacheUtil.matchesETag(request.getHeader(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            metricsUtil.increment("cache.logo.hit");
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        metricsUtil.increment("cache.logo.miss");
+        response.setContentType(MediaType.IMAGE_PNG_VALUE);
+        response.setContentLengthLong(length);
+        File file = this.blobStore.getLocalFile(key);
+        if (file != null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Let the servlet container send the file directly from disk
+            request.setAttribute(SENDFILE_FILENAME, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, length);
+        } else {
+            this.blobStore.writeTo(key, Channels.newChannel(response.getOutputStream()));
+        }
     }
 
     /**
      * Creates or updates a logo for an organization
      * @param request
      * @param orgMrn
-     * @param logo
      * @return
      * @throws McBasicRestException
      */
@@ -104,18 +162,18 @@ public class LogoController {
             method = RequestMethod.PUT)
     @ResponseBody
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
-    public ResponseEntity<?> createLogoPut(HttpServletRequest request, @PathVariable String orgMrn, @RequestBody byte[] logo) throws McBasicRestException {
+    public ResponseEntity<?> createLogoPut(HttpServletRequest request, @PathVariable String orgMrn) throws McBasicRestException {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             try {
-                ByteArrayInputStream inputLogo = new ByteArrayInputStream(logo);
-                this.saveLogo(org, inputLogo);
-                organizationService.save(org);
+                // Read the body ourselves, so an oversized upload is rejected without buffering all of it
+                byte[] logo = ImageUtil.readLimited(request.getInputStream(), ImageUtil.MAX_BYTES);
+                this.saveLogo(request, org, logo);
             } catch (IOException e) {
                 e.printStackTrace();
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_IMAGE, request.getServletPath());
             }
-            return new ResponseEntity<>(HttpStatus.CREATED);
+            return new ResponseEntity<>(HttpStatus.ACCEPTED);
         } else {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
         }
@@ -134,26 +192,20 @@ public class LogoController {
     public ResponseEntity<?> deleteLogo(HttpServletRequest request, @PathVariable String orgMrn) throws McBasicRestException {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
-            if (org.getLogo() != null) {
-                org.setLogo(null);
-                organizationService.save(org);
-            }
+            this.logoService.deleteLogo(org.getMrn());
             return new ResponseEntity<>(HttpStatus.OK);
         } else {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
         }
     }
 
-    private void saveLogo(Organization org, InputStream logoInputStream) throws IOException {
-        ByteArrayOutputStream newImage = ImageUtil.resize(logoInputStream);
-        if (org.getLogo() != null) {
-            org.getLogo().setImage(newImage.toByteArray());
-        } else {
-            Logo newLogo = new Logo();
-            newLogo.setImage(newImage.toByteArray());
-            newImage.close();
-            newLogo.setOrganization(org);
-            org.setLogo(newLogo);
+    /* Checks the image format and size from its header, and leaves decoding and scaling to the background processing */
+    private void saveLogo(HttpServletRequest request, Organization org, byte[] logo) throws IOException, McBasicRestException {
+        ImageUtil.readDimensions(logo);
+        try {
+            this.logoService.processLogo(org.getMrn(), logo);
+        } catch (RejectedExecutionException e) {
+            throw new McBasicRestException(HttpStatus.SERVICE_UNAVAILABLE, MCIdRegConstants.LOGO_QUEUE_FULL, request.getServletPath());
         }
     }
 }
@@ -0,0 +1,118 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.controllers;
+
+import net.maritimecloud.identityregistry.exception.McBasicRestException;
+import net.maritimecloud.identityregistry.model.data.MrnIndexEntry;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.services.MrnIndexService;
+import net.maritimecloud.identityregistry.services.OrganizationService;
+import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping(value={"oidc", "x509"})
+public class MrnController {
+
+    private static final int DEFAULT_SEARCH_LIMIT = 100;
+    private static final int MAX_SEARCH_LIMIT = 1000;
+    private static final int MAX_EXISTS_BATCH = 1000;
+
+    private MrnIndexService mrnIndexService;
+    private OrganizationService organizationService;
+
+    @Autowired
+    public void setMrnIndexService(MrnIndexService mrnIndexService) {
+        this.mrnIndexService = mrnIndexService;
+    }
+
+    @Autowired
+    public void setOrganizationService(OrganizationService organizationService) {
+        this.organizationService = organizationService;
+    }
+
+    /**
+     * Returns the users, devices, vessels and services of the organization with an MRN starting with the given prefix
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/mrn/search",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @ResponseBody
+    @PreAuthorize("hasRole('USER') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<List<MrnIndexEntry>> searchMrns(HttpServletRequest request, @PathVariable String orgMrn, @RequestParam String prefix,
+                                                          @RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT) int limit) throws McBasicRestException {
+        if (prefix.isEmpty()) {
+            throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_MRN_PREFIX, request.getServletPath());
+        }
+        Organization org = getOrganization(request, orgMrn);
+        limit = Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+        return new ResponseEntity<>(mrnIndexService.search(prefix, org.getId(), limit), HttpStatus.OK);
+    }
+
+    /**
+     * Checks which of the given MRNs belong to a user, device, vessel or service of the organization
+     *
+     * @return a map from each given MRN to whether it exists
+     * @throws McBasicRestException
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/mrn/exists",
+            method = RequestMethod.POST,
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = "application/json;charset=UTF-8")
+    @ResponseBody
+    @PreAuthorize("hasRole('USER') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<Map<String, Boolean>> mrnsExist(HttpServletRequest request, @PathVariable String orgMrn,
+                                                          @RequestBody List<String> mrns) throws McBasicRestException {
+        if (mrns.size() > MAX_EXISTS_BATCH) {
+            throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.TOO_MANY_MRNS, request.getServletPath());
+        }
+        Organization org = getOrganization(request, orgMrn);
+        Map<String, Boolean> ret = new LinkedHashMap<>();
+        for (String mrn : mrns) {
+            MrnIndexEntry entry = mrnIndexService.get(mrn);
+            ret.put(mrn, entry != null && org.getId().equals(entry.getIdOrganization()));
+        }
+        return new ResponseEntity<>(ret, HttpStatus.OK);
+    }
+
+    private Organization getOrganization(HttpServletRequest request, String orgMrn) throws McBasicRestException {
+        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        if (org == null) {
+            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+        return org;
+    }
+}
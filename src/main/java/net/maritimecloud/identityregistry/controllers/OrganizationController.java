@@ -16,6 +16,8 @@ package net.maritimecloud.identityregistry.controllers;
 
 import net.maritimecloud.identityregistry.model.data.CertificateRevocation;
 import net.maritimecloud.identityregistry.model.data.PemCertificate;
+import net.maritimecloud.identityregistry.model.data.PrecomputedReply;
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
 import net.maritimecloud.identityregistry.model.database.*;
 import net.maritimecloud.identityregistry.model.database.entities.Device;
 import net.maritimecloud.identityregistry.model.database.entities.Service;
@@ -23,30 +25,33 @@ import net.maritimecloud.identityregistry.model.database.entities.User;
 import net.maritimecloud.identityregistry.model.database.entities.Vessel;
 import net.maritimecloud.identityregistry.services.CertificateService;
 import net.maritimecloud.identityregistry.services.EntityService;
+import net.maritimecloud.identityregistry.services.KeycloakOutboxService;
+import net.maritimecloud.identityregistry.services.OrganizationDirectoryService;
 import net.maritimecloud.identityregistry.services.RoleService;
+import net.maritimecloud.identityregistry.services.WebhookService;
 import net.maritimecloud.identityregistry.utils.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.RestController;
 
 import net.maritimecloud.identityregistry.exception.McBasicRestException;
 import net.maritimecloud.identityregistry.services.OrganizationService;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
-import javax.ws.rs.InternalServerErrorException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -66,6 +71,13 @@ public class OrganizationController extends BaseControllerWithCertificate {
     private EntityService<Vessel> vesselService;
     @Autowired
     private RoleService roleService;
+    @Autowired
+    private WebhookService webhookService;
+    @Autowired
+    private OrganizationDirectoryService organizationDirectoryService;
+
+    @Value("${net.maritimecloud.idreg.admin-org:DMA}")
+    private String adminOrg;
 
     @Autowired
     private EmailUtil emailUtil;
@@ -73,7 +85,7 @@ public class OrganizationController extends BaseControllerWithCertificate {
     private OrganizationService organizationService;
 
     @Autowired
-    private KeycloakAdminUtil keycloakAU;
+    private KeycloakOutboxService keycloakOutbox;
 
     private CertificateService certificateService;
 
@@ -142,6 +154,7 @@ public class OrganizationController extends BaseControllerWithCertificate {
             value = "/api/org/{orgMrn}/approve",
             method = RequestMethod.GET,
             produces = "application/json;charset=UTF-8")
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('SITE_ADMIN')")
     public ResponseEntity<Organization> approveOrganization(HttpServletRequest request, @PathVariable String orgMrn) throws McBasicRestException {
         Organization org = this.organizationService.getOrganizationByMrnDisregardApproved(orgMrn);
@@ -151,20 +164,21 @@ public class OrganizationController extends BaseControllerWithCertificate {
         if (org.getApproved()) {
             throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.ORG_ALREADY_APPROVED, request.getServletPath());
         }
-        // Create the Identity Provider for the org
-        if (org.getIdentityProviderAttributes() != null && !org.getIdentityProviderAttributes().isEmpty()) {
-            keycloakAU.init(KeycloakAdminUtil.BROKER_INSTANCE);
-            try {
-                keycloakAU.createIdentityProvider(org.getMrn().toLowerCase(), org.getIdentityProviderAttributes());
-            } catch (MalformedURLException e) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_IDP_URL, request.getServletPath());
-            } catch (IOException e) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.COULD_NOT_GET_DATA_FROM_IDP, request.getServletPath());
-            }
-        }
         // Enabled the organization and save it
         org.setApproved(true);
         Organization approvedOrg =  this.organizationService.save(org);
+        // Create the Identity Provider for the org
+        if (org.getIdentityProviderAttributes() != null && !org.getIdentityProviderAttributes().isEmpty()) {
+            keycloakOutbox.createIdentityProvider(org.getMrn().toLowerCase(), org.getIdentityProviderAttributes());
+        }
+        // Tell the webhooks of the admin organization, the new organization can't have any yet
+        Organization admin = this.organizationService.getOrganizationByMrn("urn:mrn:mcl:org:" + adminOrg.toLowerCase());
+        if (admin != null) {
+            HashMap<String, Object> event = new HashMap<>();
+            event.put("mrn", approvedOrg.getMrn());
+            event.put("name", approvedOrg.getName());
+            webhookService.publish(admin.getId(), "organization.approved", event);
+        }
         return new ResponseEntity<Organization>(approvedOrg, HttpStatus.OK);
     }
 
@@ -180,11 +194,19 @@ public class OrganizationController extends BaseControllerWithCertificate {
             method = RequestMethod.GET,
             produces = "application/json;charset=UTF-8")
     public ResponseEntity<Organization> getOrganization(HttpServletRequest request, @PathVariable String orgMrn) throws McBasicRestException {
-        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        // The version is read before the organization, so a change in between never gives an old organization a new ETag
+        ResourceVersion version = this.organizationService.getVersionByMrn(orgMrn);
+        if (version == null) {
+            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+        if (HttpCacheUtil.isNotModified(request, version)) {
+            return HttpCacheUtil.notModified(version);
+        }
+        Organization org = this.organizationService.getOrganizationDetailsByMrn(orgMrn);
         if (org == null) {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
         }
-        return new ResponseEntity<Organization>(org, HttpStatus.OK);
+        return HttpCacheUtil.ok(org, version);
     }
 
     /**
@@ -196,9 +218,28 @@ public class OrganizationController extends BaseControllerWithCertificate {
             value = "/api/orgs",
             method = RequestMethod.GET,
             produces = "application/json;charset=UTF-8")
-    public ResponseEntity<List<Organization>> getOrganization(HttpServletRequest request) {
+    public ResponseEntity<?> getOrganization(HttpServletRequest request) {
+        if (!this.organizationService.canSeeSensitiveFields()) {
+            // Everybody else gets the same list, so it is served as it was serialized when the organizations last changed
+            PrecomputedReply directory = this.organizationDirectoryService.getPublicDirectory();
+            if (HttpCacheUtil.isNotModified(request, directory.getVersion())) {
+                return HttpCacheUtil.notModified(directory.getVersion());
+            }
+            String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+            ResponseEntity.BodyBuilder builder = HttpCacheUtil.okBuilder(directory.getVersion())
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(directory.getGzippedJson());
+            }
+            return builder.body(directory.getJson());
+        }
+        ResourceVersion version = this.organizationService.getListVersion();
+        if (HttpCacheUtil.isNotModified(request, version)) {
+            return HttpCacheUtil.notModified(version);
+        }
         List<Organization> orgs = this.organizationService.listAll();
-        return new ResponseEntity<List<Organization>>(orgs, HttpStatus.OK);
+        return HttpCacheUtil.ok(orgs, version);
     }
 
     /**
@@ -210,6 +251,7 @@ public class OrganizationController extends BaseControllerWithCertificate {
     @RequestMapping(
             value = "/api/org/{orgMrn}",
             method = RequestMethod.PUT)
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
     public ResponseEntity<?> updateOrganization(HttpServletRequest request, @PathVariable String orgMrn,
             @Valid @RequestBody Organization input, BindingResult bindingResult) throws McBasicRestException {
@@ -221,23 +263,15 @@ public class OrganizationController extends BaseControllerWithCertificate {
             }
             // If a well-known url and client id and secret was supplied, and it is different from the current data we create a new IDP, or update it.
             if (input.getIdentityProviderAttributes() != null && !input.getIdentityProviderAttributes().isEmpty()) {
-                keycloakAU.init(KeycloakAdminUtil.BROKER_INSTANCE);
                 // If the IDP setup is different we delete the old IDP in keycloak
                 if (org.getIdentityProviderAttributes() != null && !org.getIdentityProviderAttributes().isEmpty()
                         && !IdentityProviderAttribute.listsEquals(org.getIdentityProviderAttributes(), input.getIdentityProviderAttributes())) {
-                    keycloakAU.deleteIdentityProvider(input.getMrn());
-                }
-                try {
-                    keycloakAU.createIdentityProvider(input.getMrn().toLowerCase(), input.getIdentityProviderAttributes());
-                } catch (InternalServerErrorException e) {
-                    throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_IDP_URL, request.getServletPath());
-                } catch (IOException e) {
-                    throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.COULD_NOT_GET_DATA_FROM_IDP, request.getServletPath());
+                    keycloakOutbox.deleteIdentityProvider(input.getMrn());
                 }
+                keycloakOutbox.createIdentityProvider(input.getMrn().toLowerCase(), input.getIdentityProviderAttributes());
             } else if (org.getIdentityProviderAttributes() != null && !org.getIdentityProviderAttributes().isEmpty()) {
                 // Remove old IDP if new input doesn't contain IDP info
-                keycloakAU.init(KeycloakAdminUtil.BROKER_INSTANCE);
-                keycloakAU.deleteIdentityProvider(input.getMrn());
+                keycloakOutbox.deleteIdentityProvider(input.getMrn());
             }
             input.selectiveCopyTo(org);
             this.organizationService.save(org);
@@ -256,19 +290,18 @@ public class OrganizationController extends BaseControllerWithCertificate {
     @RequestMapping(
             value = "/api/org/{orgMrn}",
             method = RequestMethod.DELETE)
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('SITE_ADMIN')")
     public ResponseEntity<?> deleteOrg(HttpServletRequest request, @PathVariable String orgMrn) throws McBasicRestException {
         Organization org = this.organizationService.getOrganizationByMrnDisregardApproved(orgMrn);
         if (org != null) {
             //  TODO: we need to do some sync'ing with the Service Registry.
             if (org.getIdentityProviderAttributes() != null && !org.getIdentityProviderAttributes().isEmpty()) {
-                keycloakAU.init(KeycloakAdminUtil.BROKER_INSTANCE);
-                keycloakAU.deleteIdentityProvider(org.getMrn().toLowerCase());
+                keycloakOutbox.deleteIdentityProvider(org.getMrn().toLowerCase());
             } else {
                 // Remove any users from the shared project IDP
-                keycloakAU.init(KeycloakAdminUtil.USER_INSTANCE);
                 for (User user : this.userService.listFromOrg(org.getId())) {
-                    keycloakAU.deleteUser(user.getEmail());
+                    keycloakOutbox.deleteUser(user.getEmail());
                 }
             }
             this.deviceService.deleteByOrg(org.getId());
@@ -276,6 +309,7 @@ public class OrganizationController extends BaseControllerWithCertificate {
             this.userService.deleteByOrg(org.getId());
             this.vesselService.deleteByOrg(org.getId());
             this.roleService.deleteByOrg(org.getId());
+            this.webhookService.deleteByOrg(org.getId());
             this.organizationService.delete(org.getId());
             return new ResponseEntity<>(HttpStatus.OK);
         } else {
@@ -15,16 +15,19 @@
 package net.maritimecloud.identityregistry.controllers;
 
 import net.maritimecloud.identityregistry.model.database.CertificateModel;
+import net.maritimecloud.identityregistry.services.KeycloakOutboxService;
 import net.maritimecloud.identityregistry.utils.MrnUtil;
+import net.maritimecloud.identityregistry.utils.PasswordUtil;
 import net.maritimecloud.identityregistry.utils.ValidateUtil;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.RestController;
 
 import net.maritimecloud.identityregistry.exception.McBasicRestException;
-import net.maritimecloud.identityregistry.model.database.Certificate;
 import net.maritimecloud.identityregistry.model.data.CertificateRevocation;
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
 import net.maritimecloud.identityregistry.model.database.Organization;
 import net.maritimecloud.identityregistry.model.data.PemCertificate;
 import net.maritimecloud.identityregistry.model.database.entities.Service;
@@ -32,7 +35,6 @@ import net.maritimecloud.identityregistry.services.EntityService;
 import net.maritimecloud.identityregistry.utils.KeycloakAdminUtil;
 import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
 
-import java.io.IOException;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -46,11 +48,14 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @RestController
 public class ServiceController extends EntityController<Service> {
     @Autowired
     private KeycloakAdminUtil keycloakAU;
+    @Autowired
+    private KeycloakOutboxService keycloakOutbox;
 
     @Autowired
     public void setEntityService(EntityService<Service> entityService) {
@@ -68,27 +73,28 @@ public class ServiceController extends EntityController<Service> {
             method = RequestMethod.POST,
             produces = "application/json;charset=UTF-8")
     @ResponseBody
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
     public ResponseEntity<Service> createService(HttpServletRequest request, @PathVariable String orgMrn, @Valid @RequestBody Service input, BindingResult bindingResult) throws McBasicRestException {
         ValidateUtil.hasErrors(bindingResult, request);
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being created belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             input.setIdOrganization(org.getId());
             // Setup a keycloak client for the service if needed
             if (input.getOidcAccessType() != null && !input.getOidcAccessType().trim().isEmpty()
                     && input.getOidcRedirectUri() != null && !input.getOidcRedirectUri().trim().isEmpty()) {
-                keycloakAU.init(KeycloakAdminUtil.BROKER_INSTANCE);
                 input.setOidcClientId(input.getMrn());
-                try {
-                    String clientSecret = keycloakAU.createClient(input.getMrn(), input.getOidcAccessType(), input.getOidcRedirectUri());
-                    input.setOidcClientSecret(clientSecret);
-                } catch(IOException e) {
-                    throw new McBasicRestException(HttpStatus.INTERNAL_SERVER_ERROR, MCIdRegConstants.ERROR_CREATING_KC_CLIENT, request.getServletPath());
+                // The secret is generated here so it can be returned before the client exists in keycloak
+                if ("public".equals(input.getOidcAccessType())) {
+                    input.setOidcClientSecret("");
+                } else {
+                    input.setOidcClientSecret(PasswordUtil.generatePassword());
                 }
+                keycloakOutbox.createClient(input.getMrn(), input.getOidcAccessType(), input.getOidcRedirectUri(), input.getOidcClientSecret());
             } else {
                 input.setOidcAccessType(null);
                 input.setOidcClientId(null);
@@ -128,6 +134,7 @@ public class ServiceController extends EntityController<Service> {
             value = "/api/org/{orgMrn}/service/{serviceMrn}",
             method = RequestMethod.PUT)
     @ResponseBody
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
     public ResponseEntity<?> updateService(HttpServletRequest request, @PathVariable String orgMrn, @PathVariable String serviceMrn, @Valid @RequestBody Service input, BindingResult bindingResult) throws McBasicRestException {
         ValidateUtil.hasErrors(bindingResult, request);
@@ -137,7 +144,7 @@ public class ServiceController extends EntityController<Service> {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being updated belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             Service service = this.entityService.getByMrn(serviceMrn);
@@ -149,9 +156,8 @@ public class ServiceController extends EntityController<Service> {
                 // Update the keycloak client for the service if needed
                 if (service.getOidcAccessType() != null && !service.getOidcAccessType().trim().isEmpty()
                         && service.getOidcRedirectUri() != null && !service.getOidcRedirectUri().trim().isEmpty()) {
-                    keycloakAU.init(KeycloakAdminUtil.BROKER_INSTANCE);
                     service.setOidcClientId(service.getMrn());
-                    keycloakAU.updateClient(service.getMrn(), service.getOidcAccessType(), service.getOidcRedirectUri());
+                    keycloakOutbox.updateClient(service.getMrn(), service.getOidcAccessType(), service.getOidcRedirectUri(), service.getOidcClientSecret());
                 }
                 try {
                     this.entityService.save(service);
@@ -176,12 +182,13 @@ public class ServiceController extends EntityController<Service> {
             value = "/api/org/{orgMrn}/service/{serviceMrn}",
             method = RequestMethod.DELETE)
     @ResponseBody
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
     public ResponseEntity<?> deleteService(HttpServletRequest request, @PathVariable String orgMrn, @PathVariable String serviceMrn) throws McBasicRestException {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being deleted belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(serviceMrn))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(serviceMrn))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             Service service = this.entityService.getByMrn(serviceMrn);
@@ -192,8 +199,7 @@ public class ServiceController extends EntityController<Service> {
                 // Delete the keycloak client for the service if needed
                 if (service.getOidcAccessType() != null && !service.getOidcAccessType().trim().isEmpty()
                         && service.getOidcRedirectUri() != null && !service.getOidcRedirectUri().trim().isEmpty()) {
-                    keycloakAU.init(KeycloakAdminUtil.BROKER_INSTANCE);
-                    keycloakAU.deleteClient(service.getMrn());
+                    keycloakOutbox.deleteClient(service.getMrn());
                 }
                 this.entityService.delete(service.getId());
                 return new ResponseEntity<>(HttpStatus.OK);
@@ -219,6 +225,40 @@ public class ServiceController extends EntityController<Service> {
         return this.getOrganizationEntities(request, orgMrn);
     }
 
+    /**
+     * Returns the services of the organization created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/services/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("@accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<ChangeSet<Service>> getOrganizationServiceChanges(HttpServletRequest request, @PathVariable String orgMrn,
+                                                                  @RequestParam(required = false) String since,
+                                                                  @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, orgMrn, since, limit);
+    }
+
+    /**
+     * Returns the services of all organizations created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/services/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("hasRole('SITE_ADMIN')")
+    public ResponseEntity<ChangeSet<Service>> getServiceChanges(HttpServletRequest request,
+                                                      @RequestParam(required = false) String since,
+                                                      @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, null, since, limit);
+    }
+
     /**
      * Returns new certificate for the service identified by the given ID
      * 
@@ -265,7 +305,7 @@ public class ServiceController extends EntityController<Service> {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being queried belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(serviceMrn))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(serviceMrn))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             Service service = this.entityService.getByMrn(serviceMrn);
@@ -303,7 +343,7 @@ public class ServiceController extends EntityController<Service> {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being queried belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(serviceMrn))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(serviceMrn))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             Service service = this.entityService.getByMrn(serviceMrn);
@@ -325,11 +365,6 @@ public class ServiceController extends EntityController<Service> {
         }
     }
 
-    @Override
-    protected Service getCertEntity(Certificate cert) {
-        return cert.getService();
-    }
-
     @Override
     protected String getName(CertificateModel certOwner) {
         return ((Service)certOwner).getCertDomainName();
@@ -16,23 +16,28 @@ package net.maritimecloud.identityregistry.controllers;
 
 import net.maritimecloud.identityregistry.model.database.CertificateModel;
 import net.maritimecloud.identityregistry.services.EntityService;
+import net.maritimecloud.identityregistry.services.KeycloakOutboxService;
 import net.maritimecloud.identityregistry.utils.*;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.RestController;
 
 import io.swagger.annotations.ApiOperation;
 import net.maritimecloud.identityregistry.exception.McBasicRestException;
-import net.maritimecloud.identityregistry.model.database.Certificate;
 import net.maritimecloud.identityregistry.model.data.CertificateRevocation;
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
 import net.maritimecloud.identityregistry.model.database.Organization;
 import net.maritimecloud.identityregistry.model.data.PemCertificate;
 import net.maritimecloud.identityregistry.model.database.entities.User;
 import net.maritimecloud.identityregistry.services.UserService;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
@@ -46,6 +51,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @RestController
 public class UserController extends EntityController<User> {
@@ -65,7 +71,7 @@ public class UserController extends EntityController<User> {
     }
 
     @Autowired
-    private KeycloakAdminUtil keycloakAU;
+    private KeycloakOutboxService keycloakOutbox;
     @Autowired
     private EmailUtil emailUtil;
 
@@ -80,34 +86,32 @@ public class UserController extends EntityController<User> {
             method = RequestMethod.POST,
             produces = "application/json;charset=UTF-8")
     @ResponseBody
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
     public ResponseEntity<User> createUser(HttpServletRequest request, @PathVariable String orgMrn, @Valid @RequestBody User input, BindingResult bindingResult) throws McBasicRestException {
         ValidateUtil.hasErrors(bindingResult, request);
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being created belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
+            input.setIdOrganization(org.getId());
+            User newUser;
+            try {
+                newUser = this.entityService.save(input);
+            } catch (DataIntegrityViolationException e) {
+                throw new McBasicRestException(HttpStatus.BAD_REQUEST, e.getRootCause().getMessage(), request.getServletPath());
+            }
             // If the organization doesn't have its own Identity Provider we create the user in a special keycloak instance
             if (org.getIdentityProviderAttributes() == null || org.getIdentityProviderAttributes().isEmpty()) {
                 String password = PasswordUtil.generatePassword();
-                keycloakAU.init(KeycloakAdminUtil.USER_INSTANCE);
-                try {
-                    keycloakAU.createUser(input.getMrn(), password, input.getFirstName(), input.getLastName(), input.getEmail(), orgMrn, input.getPermissions(), true);
-                } catch (IOException e) {
-                    throw new McBasicRestException(HttpStatus.INTERNAL_SERVER_ERROR, MCIdRegConstants.ERROR_CREATING_KC_USER, request.getServletPath());
-                }
+                // Queued in this transaction and created in keycloak in the background
+                keycloakOutbox.createUser(input.getMrn(), password, input.getFirstName(), input.getLastName(), input.getEmail(), orgMrn, input.getPermissions(), true);
                 // Send email to user with credentials
                 emailUtil.sendUserCreatedEmail(input.getEmail(), input.getFirstName() + " " + input.getLastName(), input.getEmail(), password);
             }
-            input.setIdOrganization(org.getId());
-            try {
-                User newUser = this.entityService.save(input);
-                return new ResponseEntity<User>(newUser, HttpStatus.OK);
-            } catch (DataIntegrityViolationException e) {
-                throw new McBasicRestException(HttpStatus.BAD_REQUEST, e.getRootCause().getMessage(), request.getServletPath());
-            }
+            return new ResponseEntity<User>(newUser, HttpStatus.OK);
         } else {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
         }
@@ -139,6 +143,7 @@ public class UserController extends EntityController<User> {
             value = "/api/org/{orgMrn}/user/{userMrn}",
             method = RequestMethod.PUT)
     @ResponseBody
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
     public ResponseEntity<?> updateUser(HttpServletRequest request, @PathVariable String orgMrn, @PathVariable String userMrn, @Valid @RequestBody User input, BindingResult bindingResult) throws McBasicRestException {
         ValidateUtil.hasErrors(bindingResult, request);
@@ -148,7 +153,7 @@ public class UserController extends EntityController<User> {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being updated belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(input.getMrn()))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             User user = this.entityService.getByMrn(userMrn);
@@ -158,17 +163,12 @@ public class UserController extends EntityController<User> {
             if (!user.getMrn().equals(input.getMrn()) || user.getIdOrganization().compareTo(org.getId()) != 0) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.URL_DATA_MISMATCH, request.getServletPath());
             }
+            input.selectiveCopyTo(user);
+            this.entityService.save(user);
             // Update user in keycloak if created there.
             if (org.getIdentityProviderAttributes() == null || org.getIdentityProviderAttributes().isEmpty()) {
-                keycloakAU.init(KeycloakAdminUtil.USER_INSTANCE);
-                try {
-                    keycloakAU.updateUser(input.getMrn(), input.getFirstName(), input.getLastName(), input.getEmail(), input.getPermissions(), true);
-                } catch (IOException e) {
-                    throw new McBasicRestException(HttpStatus.INTERNAL_SERVER_ERROR, MCIdRegConstants.ERROR_UPDATING_KC_USER, request.getServletPath());
-                }
+                keycloakOutbox.updateUser(input.getMrn(), input.getFirstName(), input.getLastName(), input.getEmail(), input.getPermissions(), true);
             }
-            input.selectiveCopyTo(user);
-            this.entityService.save(user);
             return new ResponseEntity<>(HttpStatus.OK);
         } else {
             throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
@@ -185,12 +185,13 @@ public class UserController extends EntityController<User> {
             value = "/api/org/{orgMrn}/user/{userMrn}",
             method = RequestMethod.DELETE)
     @ResponseBody
+    @Transactional(rollbackFor = McBasicRestException.class)
     @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
     public ResponseEntity<?> deleteUser(HttpServletRequest request, @PathVariable String orgMrn, @PathVariable String userMrn) throws McBasicRestException {
         Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             // Check that the entity being deleted belongs to the organization
-            if (MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(userMrn))) {
+            if (!MrnUtil.getOrgShortNameFromOrgMrn(orgMrn).equals(MrnUtil.getOrgShortNameFromEntityMrn(userMrn))) {
                 throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
             }
             User user = this.entityService.getByMrn(userMrn);
@@ -201,8 +202,7 @@ public class UserController extends EntityController<User> {
                 this.entityService.delete(user.getId());
                 // Remove user from keycloak if created there.
                 if (org.getIdentityProviderAttributes() == null || org.getIdentityProviderAttributes().isEmpty()) {
-                    keycloakAU.init(KeycloakAdminUtil.USER_INSTANCE);
-                    keycloakAU.deleteUser(user.getEmail());
+                    keycloakOutbox.deleteUser(user.getEmail());
                 }
                 return new ResponseEntity<>(HttpStatus.OK);
             }
@@ -227,6 +227,40 @@ public class UserController extends EntityController<User> {
         return this.getOrganizationEntities(request, orgMrn);
     }
 
+    /**
+     * Returns the users of the organization created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/users/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("@accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<ChangeSet<User>> getOrganizationUserChanges(HttpServletRequest request, @PathVariable String orgMrn,
+                                                                  @RequestParam(required = false) String since,
+                                                                  @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, orgMrn, since, limit);
+    }
+
+    /**
+     * Returns the users of all organizations created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/users/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("hasRole('SITE_ADMIN')")
+    public ResponseEntity<ChangeSet<User>> getUserChanges(HttpServletRequest request,
+                                                      @RequestParam(required = false) String since,
+                                                      @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, null, since, limit);
+    }
+
     /**
      * Returns new certificate for the user identified by the given ID
      * 
@@ -274,7 +308,7 @@ public class UserController extends EntityController<User> {
         if (!AccessControlUtil.isUserSync(this.userSyncMRN, this.userSyncO, this.userSyncOU, this.userSyncC)) {
             throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
         }
-        Organization org = this.organizationService.getOrganizationByMrnNoFilter(orgMrn);
+        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
         if (org != null) {
             String userMrn = input.getMrn();
             if (userMrn == null || userMrn.isEmpty()) {
@@ -296,6 +330,65 @@ public class UserController extends EntityController<User> {
         }
     }
 
+    /**
+     * Sync a batch of users from keycloak in one request. Existing users are looked up with a single
+     * query and all users are created or updated in one transaction.
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    @ApiOperation(hidden=true, value = "Sync a batch of users from keycloak")
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/user-sync/batch",
+            method = RequestMethod.POST,
+            produces = "application/json;charset=UTF-8")
+    @ResponseBody
+    @Transactional(rollbackFor = McBasicRestException.class)
+    public ResponseEntity<?> syncUsers(HttpServletRequest request, @PathVariable String orgMrn, @RequestBody List<User> input) throws McBasicRestException {
+        if (!AccessControlUtil.isUserSync(this.userSyncMRN, this.userSyncO, this.userSyncOU, this.userSyncC)) {
+            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
+        }
+        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        if (org == null) {
+            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+        // If the same user is in the batch more than once the last one wins
+        Map<String, User> inputUsers = new LinkedHashMap<>();
+        for (User user : input) {
+            String userMrn = user.getMrn();
+            if (userMrn == null || userMrn.isEmpty()) {
+                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.USER_NOT_FOUND, request.getServletPath());
+            }
+            inputUsers.put(userMrn.toLowerCase(), user);
+        }
+        if (inputUsers.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.OK);
+        }
+        Map<String, User> oldUsers = new HashMap<>();
+        List<String> userMrns = new ArrayList<>(inputUsers.size());
+        for (User user : inputUsers.values()) {
+            userMrns.add(user.getMrn());
+        }
+        for (User oldUser : this.entityService.getByMrns(userMrns)) {
+            oldUsers.put(oldUser.getMrn().toLowerCase(), oldUser);
+        }
+        List<User> toSave = new ArrayList<>(inputUsers.size());
+        for (Map.Entry<String, User> entry : inputUsers.entrySet()) {
+            User user = entry.getValue();
+            User oldUser = oldUsers.get(entry.getKey());
+            // If user does not exists, we create him
+            if (oldUser == null) {
+                user.setIdOrganization(org.getId());
+                toSave.add(user);
+            } else {
+                // Update the existing user
+                toSave.add(user.selectiveCopyTo(oldUser));
+            }
+        }
+        this.entityService.saveAll(toSave);
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
     protected String getName(CertificateModel certOwner) {
         return ((User)certOwner).getFirstName() + " " + ((User)certOwner).getLastName();
     }
@@ -303,10 +396,5 @@ public class UserController extends EntityController<User> {
     protected String getEmail(CertificateModel certOwner) {
         return ((User)certOwner).getEmail();
     }
-
-    @Override
-    protected User getCertEntity(Certificate cert) {
-        return cert.getUser();
-    }
 }
 
@@ -25,8 +25,8 @@ import org.springframework.web.bind.ServletRequestDataBinder;
 import org.springframework.web.bind.annotation.*;
 
 import net.maritimecloud.identityregistry.exception.McBasicRestException;
-import net.maritimecloud.identityregistry.model.database.Certificate;
 import net.maritimecloud.identityregistry.model.data.CertificateRevocation;
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
 import net.maritimecloud.identityregistry.model.data.PemCertificate;
 import net.maritimecloud.identityregistry.model.database.entities.Vessel;
 import net.maritimecloud.identityregistry.model.database.entities.VesselAttribute;
@@ -140,6 +140,40 @@ public class VesselController extends EntityController<Vessel> {
         return this.getOrganizationEntities(request, orgMrn);
     }
 
+    /**
+     * Returns the vessels of the organization created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/vessels/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("@accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<ChangeSet<Vessel>> getOrganizationVesselChanges(HttpServletRequest request, @PathVariable String orgMrn,
+                                                                  @RequestParam(required = false) String since,
+                                                                  @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, orgMrn, since, limit);
+    }
+
+    /**
+     * Returns the vessels of all organizations created, updated or deleted since the given cursor
+     * 
+     * @return a reply...
+     * @throws McBasicRestException 
+     */
+    @RequestMapping(
+            value = "/api/vessels/changes",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @PreAuthorize("hasRole('SITE_ADMIN')")
+    public ResponseEntity<ChangeSet<Vessel>> getVesselChanges(HttpServletRequest request,
+                                                      @RequestParam(required = false) String since,
+                                                      @RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) throws McBasicRestException {
+        return this.getEntityChanges(request, null, since, limit);
+    }
+
     /**
      * Returns new certificate for the vessel identified by the given ID
      * 
@@ -202,9 +236,4 @@ public class VesselController extends EntityController<Vessel> {
         }
         return attrs;
     }
-
-    @Override
-    protected Vessel getCertEntity(Certificate cert) {
-        return cert.getVessel();
-    }
 }
@@ -0,0 +1,167 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.controllers;
+
+import net.maritimecloud.identityregistry.exception.McBasicRestException;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.model.database.WebhookSubscription;
+import net.maritimecloud.identityregistry.services.OrganizationService;
+import net.maritimecloud.identityregistry.services.WebhookService;
+import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
+import net.maritimecloud.identityregistry.utils.ValidateUtil;
+import net.maritimecloud.identityregistry.utils.WebhookSender;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+import java.io.IOException;
+import java.util.List;
+
+@RestController
+@RequestMapping(value={"oidc", "x509"})
+public class WebhookController {
+
+    private WebhookService webhookService;
+    private OrganizationService organizationService;
+    private WebhookSender webhookSender;
+
+    @Autowired
+    public void setWebhookService(WebhookService webhookService) {
+        this.webhookService = webhookService;
+    }
+
+    @Autowired
+    public void setOrganizationService(OrganizationService organizationService) {
+        this.organizationService = organizationService;
+    }
+
+    @Autowired
+    public void setWebhookSender(WebhookSender webhookSender) {
+        this.webhookSender = webhookSender;
+    }
+
+    /**
+     * Returns a list of webhooks for this organization
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/webhooks",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @ResponseBody
+    @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<List<WebhookSubscription>> getWebhooks(HttpServletRequest request, @PathVariable String orgMrn) throws McBasicRestException {
+        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        if (org != null) {
+            List<WebhookSubscription> webhooks = this.webhookService.listFromOrg(org.getId());
+            return new ResponseEntity<List<WebhookSubscription>>(webhooks, HttpStatus.OK);
+        } else {
+            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+    }
+
+    /**
+     * Creates a webhook. Events are posted to the url as a json array, signed with the secret.
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/webhook",
+            method = RequestMethod.POST,
+            produces = "application/json;charset=UTF-8")
+    @ResponseBody
+    @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<WebhookSubscription> createWebhook(HttpServletRequest request, @PathVariable String orgMrn, @Valid @RequestBody WebhookSubscription input, BindingResult bindingResult) throws McBasicRestException {
+        ValidateUtil.hasErrors(bindingResult, request);
+        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        if (org != null) {
+            try {
+                // Also checked when events are posted, in case the host is pointed somewhere else later
+                this.webhookSender.checkUrl(input.getUrl());
+            } catch (IOException e) {
+                throw new McBasicRestException(HttpStatus.BAD_REQUEST, MCIdRegConstants.INVALID_WEBHOOK_URL, request.getServletPath());
+            }
+            input.setIdOrganization(org.getId());
+            WebhookSubscription newWebhook = this.webhookService.save(input);
+            return new ResponseEntity<WebhookSubscription>(newWebhook, HttpStatus.OK);
+        } else {
+            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+    }
+
+    /**
+     * Returns info about the webhook identified by the given ID
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/webhook/{webhookId}",
+            method = RequestMethod.GET,
+            produces = "application/json;charset=UTF-8")
+    @ResponseBody
+    @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<WebhookSubscription> getWebhook(HttpServletRequest request, @PathVariable String orgMrn, @PathVariable Long webhookId) throws McBasicRestException {
+        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        if (org != null) {
+            WebhookSubscription webhook = this.webhookService.getById(webhookId);
+            if (webhook == null) {
+                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.WEBHOOK_NOT_FOUND, request.getServletPath());
+            }
+            if (webhook.getIdOrganization().compareTo(org.getId()) == 0) {
+                return new ResponseEntity<WebhookSubscription>(webhook, HttpStatus.OK);
+            }
+            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
+        } else {
+            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+    }
+
+    /**
+     * Deletes a webhook, events that have not been sent yet are dropped
+     *
+     * @return a reply...
+     * @throws McBasicRestException
+     */
+    @RequestMapping(
+            value = "/api/org/{orgMrn}/webhook/{webhookId}",
+            method = RequestMethod.DELETE)
+    @ResponseBody
+    @PreAuthorize("hasRole('ORG_ADMIN') and @accessControlUtil.hasAccessToOrg(#orgMrn)")
+    public ResponseEntity<?> deleteWebhook(HttpServletRequest request, @PathVariable String orgMrn, @PathVariable Long webhookId) throws McBasicRestException {
+        Organization org = this.organizationService.getOrganizationByMrn(orgMrn);
+        if (org != null) {
+            WebhookSubscription webhook = this.webhookService.getById(webhookId);
+            if (webhook == null) {
+                throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.WEBHOOK_NOT_FOUND, request.getServletPath());
+            }
+            if (webhook.getIdOrganization().compareTo(org.getId()) == 0) {
+                this.webhookService.delete(webhookId);
+                return new ResponseEntity<>(HttpStatus.OK);
+            }
+            throw new McBasicRestException(HttpStatus.FORBIDDEN, MCIdRegConstants.MISSING_RIGHTS, request.getServletPath());
+        } else {
+            throw new McBasicRestException(HttpStatus.NOT_FOUND, MCIdRegConstants.ORG_NOT_FOUND, request.getServletPath());
+        }
+    }
+}
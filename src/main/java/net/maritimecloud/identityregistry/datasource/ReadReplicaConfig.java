@@ -0,0 +1,152 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.datasource;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Replaces the auto-configured data source with one that sends read-only transactions to the read replicas.
+ * The primary is configured as usual with spring.datasource, and the replicas use the same pool settings.
+ */
+@Configuration
+@ConditionalOnProperty(name = "net.maritimecloud.idreg.read-replicas.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+    @Value("${net.maritimecloud.idreg.read-replicas.urls}")
+    private String[] urls;
+
+    @Value("${net.maritimecloud.idreg.read-replicas.username:}")
+    private String username;
+
+    @Value("${net.maritimecloud.idreg.read-replicas.password:}")
+    private String password;
+
+    @Value("${net.maritimecloud.idreg.read-replicas.lag-query:}")
+    private String lagQuery;
+
+    @Value("${net.maritimecloud.idreg.read-replicas.max-lag:10}")
+    private long maxLag;
+
+    @Value("${net.maritimecloud.idreg.read-replicas.sticky-window:5000}")
+    private long stickyWindow;
+
+    // The replica pools are not beans, so they are closed by closeReplicaPools()
+    private final List<org.apache.tomcat.jdbc.pool.DataSource> replicaPools = new ArrayList<>();
+
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.tomcat")
+    public org.apache.tomcat.jdbc.pool.DataSource primaryDataSource(DataSourceProperties properties) {
+        return (org.apache.tomcat.jdbc.pool.DataSource) properties.initializeDataSourceBuilder()
+                .type(org.apache.tomcat.jdbc.pool.DataSource.class).build();
+    }
+
+    @Bean
+    public ReadWriteRoutingDataSource routingDataSource(org.apache.tomcat.jdbc.pool.DataSource primaryDataSource) {
+        List<DataSource> replicas = new ArrayList<>();
+        for (String url : urls) {
+            org.apache.tomcat.jdbc.pool.DataSource replica = new org.apache.tomcat.jdbc.pool.DataSource();
+            // Copy the pool settings, but not the properties holding the connection details, which the pool modifies
+            BeanUtils.copyProperties(primaryDataSource.getPoolProperties(), replica.getPoolProperties(),
+                    "url", "username", "password", "dbProperties", "name", "dataSource");
+            replica.setUrl(url.trim());
+            replica.setUsername(StringUtils.hasText(username) ? username : primaryDataSource.getUsername());
+            replica.setPassword(StringUtils.hasText(password) ? password : primaryDataSource.getPoolProperties().getPassword());
+            replicas.add(replica);
+            replicaPools.add(replica);
+        }
+        return new ReadWriteRoutingDataSource(primaryDataSource, replicas, lagQuery, maxLag, stickyWindow);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter() {
+        return new ReadYourWritesFilter();
+    }
+
+    /**
+     * Runs the scheduled jobs on a single thread like the default scheduler, but forgets after each run that the
+     * thread has written, as the filter does for requests.
+     */
+    @Bean
+    public TaskScheduler taskScheduler() {
+        return new ThreadPoolTaskScheduler() {
+            @Override
+            protected ScheduledExecutorService createExecutor(int poolSize, ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+                return new ScheduledThreadPoolExecutor(poolSize, threadFactory, rejectedExecutionHandler) {
+                    @Override
+                    protected void afterExecute(Runnable r, Throwable t) {
+                        ReadWriteRoutingDataSource.clearRequest();
+                        super.afterExecute(r, t);
+                    }
+                };
+            }
+        };
+    }
+
+    @PreDestroy
+    public void closeReplicaPools() {
+        for (org.apache.tomcat.jdbc.pool.DataSource replica : replicaPools) {
+            replica.close();
+        }
+    }
+
+    /**
+     * Forgets at the end of each request that it has written, so the thread can read from the replicas again.
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public static class ReadYourWritesFilter extends OncePerRequestFilter {
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                ReadWriteRoutingDataSource.clearRequest();
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends read-only transactions to a healthy replica and everything else to the primary.
+ *
+ * Replicas are checked periodically by checkReplicas(). A replica is taken out of rotation if it can't be reached
+ * or, when a lag query is configured, if it is more than maxLag seconds behind the primary. If no replica is
+ * healthy, or getting a connection from the chosen one fails, the primary is used.
+ *
+ * Once a thread has started a write transaction its reads go to the primary until clearRequest() is called, so a
+ * request can read what it just wrote. The user that wrote is also kept on the primary for stickyWindow ms, to cover
+ * the next request from the same client.
+ *
+ * Must be wrapped in a LazyConnectionDataSourceProxy, as the transaction's read-only flag is only known after the
+ * transaction manager has asked for a connection.
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource {
+    private static final Logger logger = LoggerFactory.getLogger(ReadWriteRoutingDataSource.class);
+
+    private static final ThreadLocal<Boolean> wroteInRequest = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<String, Long> recentWriters = new ConcurrentHashMap<>();
+
+    private final String lagQuery;
+    private final long maxLag;
+    private final long stickyWindow;
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, String lagQuery, long maxLag, long stickyWindow) {
+        this.primary = primary;
+        for (DataSource replica : replicas) {
+            this.replicas.add(new Replica(replica, this.replicas.size()));
+        }
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+        this.stickyWindow = stickyWindow;
+    }
+
+    /**
+     * Forgets that the current thread has written, called when a request, scheduled job or background task is done.
+     */
+    public static void clearRequest() {
+        wroteInRequest.remove();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Replica replica = chooseReplica();
+        if (replica != null) {
+            try {
+                return connect(replica.dataSource, username, password);
+            } catch (SQLException e) {
+                logger.warn("Could not get a connection from replica " + replica.index + ", using the primary", e);
+                replica.healthy = false;
+            }
+        }
+        return connect(primary, username, password);
+    }
+
+    /**
+     * Checks that each replica can be reached and is not lagging too far behind, and drops expired sticky users.
+     */
+    @Scheduled(fixedDelayString = "${net.maritimecloud.idreg.read-replicas.check-interval:5000}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean healthy = isHealthy(replica);
+            if (healthy != replica.healthy) {
+                logger.info("Replica " + replica.index + " is now " + (healthy ? "healthy" : "unhealthy"));
+                replica.healthy = healthy;
+            }
+        }
+        long now = System.currentTimeMillis();
+        recentWriters.values().removeIf(expires -> expires < now);
+    }
+
+    private Replica chooseReplica() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            markWrite();
+            return null;
+        }
+        if (wroteInRequest.get() != null || wroteRecently()) {
+            return null;
+        }
+        int start = Math.abs(next.getAndIncrement() % Math.max(replicas.size(), 1));
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void markWrite() {
+        wroteInRequest.set(Boolean.TRUE);
+        String user = currentUser();
+        if (user != null && stickyWindow > 0) {
+            recentWriters.put(user, System.currentTimeMillis() + stickyWindow);
+        }
+    }
+
+    private boolean wroteRecently() {
+        if (recentWriters.isEmpty()) {
+            return false;
+        }
+        String user = currentUser();
+        if (user == null) {
+            return false;
+        }
+        Long expires = recentWriters.get(user);
+        return expires != null && expires >= System.currentTimeMillis();
+    }
+
+    private String currentUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null ? auth.getName() : null;
+    }
+
+    private boolean isHealthy(Replica replica) {
+        try (Connection conn = replica.dataSource.getConnection()) {
+            if (!conn.isValid(5)) {
+                return false;
+            }
+            if (lagQuery == null || lagQuery.isEmpty()) {
+                return true;
+            }
+            try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery(lagQuery)) {
+                if (!rs.next()) {
+                    logger.warn("Lag query returned nothing for replica " + replica.index);
+                    return false;
+                }
+                long lag = readLag(rs);
+                if (rs.wasNull() || lag > maxLag) {
+                    logger.debug("Replica " + replica.index + " is lagging: " + (rs.wasNull() ? "replication stopped" : lag + "s"));
+                    return false;
+                }
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.debug("Health check failed for replica " + replica.index, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the lag in seconds, either from a Seconds_Behind_Master column (as returned by SHOW SLAVE STATUS) or from
+     * the first column.
+     */
+    private long readLag(ResultSet rs) throws SQLException {
+        int columns = rs.getMetaData().getColumnCount();
+        for (int i = 1; i <= columns; i++) {
+            if ("Seconds_Behind_Master".equalsIgnoreCase(rs.getMetaData().getColumnLabel(i))) {
+                return rs.getLong(i);
+            }
+        }
+        return rs.getLong(1);
+    }
+
+    private Connection connect(DataSource dataSource, String username, String password) throws SQLException {
+        return username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+    }
+
+    private static class Replica {
+        private final DataSource dataSource;
+        private final int index;
+        private volatile boolean healthy = true;
+
+        Replica(DataSource dataSource, int index) {
+            this.dataSource = dataSource;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.access.event.AuthorizationFailureEvent;
+import org.springframework.security.authentication.event.AbstractAuthenticationFailureEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts failed authentications, by the type of exception, and requests denied access.
+ */
+@Component
+public class AuthenticationMetricsListener {
+
+    @Autowired
+    private MetricsUtil metricsUtil;
+
+    @EventListener
+    public void onAuthenticationFailure(AbstractAuthenticationFailureEvent event) {
+        metricsUtil.increment("auth.failure." + event.getException().getClass().getSimpleName());
+    }
+
+    @EventListener
+    public void onAuthorizationFailure(AuthorizationFailureEvent event) {
+        metricsUtil.increment("auth.denied");
+    }
+}
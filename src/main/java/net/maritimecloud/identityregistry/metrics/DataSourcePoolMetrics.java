@@ -0,0 +1,84 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Metrics for the Tomcat JDBC connection pool: gauges for active, idle, pending (threads waiting for a connection)
+ * and total connections, and a timer of how long it takes to get a connection from the pool.
+ *
+ * The data source is proxied with a subclass, so it is still recognized as a Tomcat pool by the actuator.
+ * Timings are only recorded once the context has been refreshed, so connections taken while Hibernate starts up
+ * don't pull the metric services into existence early.
+ */
+@Component
+public class DataSourcePoolMetrics implements BeanPostProcessor, ApplicationListener<ContextRefreshedEvent> {
+
+    private volatile MetricsUtil metricsUtil;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!(bean instanceof DataSource)) {
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+            MetricsUtil metrics = metricsUtil;
+            if (metrics == null || !"getConnection".equals(invocation.getMethod().getName())) {
+                return invocation.proceed();
+            }
+            long start = System.nanoTime();
+            try {
+                return invocation.proceed();
+            } finally {
+                metrics.recordTime("datasource.acquire", start);
+            }
+        });
+        return proxyFactory.getProxy();
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (metricsUtil != null || event.getApplicationContext().getParent() != null) {
+            return;
+        }
+        MetricRegistry registry = event.getApplicationContext().getBean(MetricRegistry.class);
+        for (DataSource dataSource : event.getApplicationContext().getBeansOfType(DataSource.class).values()) {
+            registry.register("datasource.pool.active", (Gauge<Integer>) dataSource::getActive);
+            registry.register("datasource.pool.idle", (Gauge<Integer>) dataSource::getIdle);
+            registry.register("datasource.pool.pending", (Gauge<Integer>) dataSource::getWaitCount);
+            registry.register("datasource.pool.size", (Gauge<Integer>) dataSource::getSize);
+            break;
+        }
+        metricsUtil = event.getApplicationContext().getBean(MetricsUtil.class);
+    }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.InitializeCollectionEventListener;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns on Hibernate statistics and keeps statement, entity load and collection fetch counts per endpoint.
+ * Requests executing more statements than the alert threshold are logged, as they are likely N+1 selects.
+ * The numbers are shown by the /hibernate actuator endpoint, and per endpoint histograms are available
+ * through /metrics and /prometheus.
+ */
+@Component
+public class HibernateStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HibernateStatistics.class);
+
+    @Value("${net.maritimecloud.idreg.hibernate-stats.enabled:false}")
+    private boolean enabled;
+
+    @Value("${net.maritimecloud.idreg.hibernate-stats.slow-query-threshold:200}")
+    private long slowQueryThreshold;
+
+    @Value("${net.maritimecloud.idreg.hibernate-stats.query-count-alert:50}")
+    private long queryCountAlert;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MetricsUtil metricsUtil;
+
+    private Statistics statistics;
+
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        statistics = sessionFactory.getStatistics();
+        statistics.setStatisticsEnabled(enabled);
+        QueryStats.configure(enabled, slowQueryThreshold);
+        if (enabled) {
+            EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+            registry.appendListeners(EventType.POST_LOAD, (PostLoadEventListener) event -> QueryStats.entityLoaded());
+            registry.appendListeners(EventType.INIT_COLLECTION, (InitializeCollectionEventListener) event -> QueryStats.collectionFetched());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the statements executed by a request to the given endpoint
+     *
+     * @param endpoint e.g. "GET /x509/api/org/{orgMrn}"
+     * @param stats the counts of the request
+     */
+    public void record(String endpoint, QueryStats stats) {
+        endpoints.computeIfAbsent(endpoint, k -> new EndpointStats()).add(stats);
+        metricsUtil.recordValue("hibernate.statements." + endpoint, stats.getStatements());
+        if (stats.getStatements() > queryCountAlert) {
+            metricsUtil.increment("hibernate.query-count-alert");
+            logger.warn(endpoint + " executed " + stats.getStatements() + " statements, loaded " + stats.getEntityLoads()
+                    + " entities and fetched " + stats.getCollectionFetches() + " collections");
+        }
+    }
+
+    public Map<String, Object> getSummary() {
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("enabled", enabled);
+        if (!enabled) {
+            return ret;
+        }
+        Map<String, Object> global = new LinkedHashMap<>();
+        global.put("prepareStatementCount", statistics.getPrepareStatementCount());
+        global.put("queryExecutionCount", statistics.getQueryExecutionCount());
+        global.put("queryExecutionMaxTime", statistics.getQueryExecutionMaxTime());
+        global.put("queryExecutionMaxTimeQueryString", statistics.getQueryExecutionMaxTimeQueryString());
+        global.put("entityLoadCount", statistics.getEntityLoadCount());
+        global.put("entityFetchCount", statistics.getEntityFetchCount());
+        global.put("collectionLoadCount", statistics.getCollectionLoadCount());
+        global.put("collectionFetchCount", statistics.getCollectionFetchCount());
+        global.put("transactionCount", statistics.getTransactionCount());
+        global.put("secondLevelCacheHitCount", statistics.getSecondLevelCacheHitCount());
+        global.put("secondLevelCacheMissCount", statistics.getSecondLevelCacheMissCount());
+        ret.put("global", global);
+        Map<String, Object> perEndpoint = new TreeMap<>();
+        for (Map.Entry<String, EndpointStats> endpoint : endpoints.entrySet()) {
+            perEndpoint.put(endpoint.getKey(), endpoint.getValue().toMap());
+        }
+        ret.put("endpoints", perEndpoint);
+        return ret;
+    }
+
+    private static class EndpointStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final LongAdder statementNanos = new LongAdder();
+        private final LongAdder entityLoads = new LongAdder();
+        private final LongAdder collectionFetches = new LongAdder();
+        private final AtomicLong maxStatements = new AtomicLong();
+
+        private void add(QueryStats stats) {
+            requests.increment();
+            statements.add(stats.getStatements());
+            statementNanos.add(stats.getStatementNanos());
+            entityLoads.add(stats.getEntityLoads());
+            collectionFetches.add(stats.getCollectionFetches());
+            maxStatements.accumulateAndGet(stats.getStatements(), Math::max);
+        }
+
+        private Map<String, Object> toMap() {
+            long count = Math.max(1, requests.sum());
+            Map<String, Object> ret = new LinkedHashMap<>();
+            ret.put("requests", requests.sum());
+            ret.put("statementsPerRequest", statements.sum() / (double) count);
+            ret.put("maxStatements", maxStatements.get());
+            ret.put("statementMillisPerRequest", statementNanos.sum() / 1e6 / count);
+            ret.put("entityLoadsPerRequest", entityLoads.sum() / (double) count);
+            ret.put("collectionFetchesPerRequest", collectionFetches.sum() / (double) count);
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint at /hibernate showing the Hibernate statistics and the statement counts per endpoint.
+ */
+@Component
+public class HibernateStatisticsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    @Autowired
+    private HibernateStatistics hibernateStatistics;
+
+    public HibernateStatisticsEndpoint() {
+        super("hibernate", true);
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        return hibernateStatistics.getSummary();
+    }
+}
@@ -0,0 +1,88 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
+import net.maritimecloud.identityregistry.utils.RequestTimings;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times every controller endpoint, repository method, Keycloak admin call and certificate operation.
+ * Timers are named controller.[class].[method], repository.[interface].[method], keycloak.[method] and
+ * crypto.[method]. Calls a bean makes on itself are not proxied, so they are included in the outer timer.
+ * Repository and Keycloak calls are also added to the db and keycloak phases of the Server-Timing header.
+ */
+@Aspect
+@Component
+public class MetricsAspect {
+
+    private static final String REPOSITORY_PACKAGE = "net.maritimecloud.identityregistry.repositories.";
+
+    @Autowired
+    private MetricsUtil metricsUtil;
+
+    // Repository proxies are generated classes, so the name of the repository interface is looked up once per class
+    private final Map<Class<?>, String> repositoryNames = new ConcurrentHashMap<>();
+
+    @Around("within(@org.springframework.web.bind.annotation.RestController *)")
+    public Object timeController(ProceedingJoinPoint pjp) throws Throwable {
+        return time("controller." + pjp.getTarget().getClass().getSimpleName() + "." + pjp.getSignature().getName(), null, pjp);
+    }
+
+    @Around("this(org.springframework.data.repository.Repository)")
+    public Object timeRepository(ProceedingJoinPoint pjp) throws Throwable {
+        String repository = repositoryNames.computeIfAbsent(pjp.getThis().getClass(), MetricsAspect::getRepositoryName);
+        return time("repository." + repository + "." + pjp.getSignature().getName(), "db", pjp);
+    }
+
+    @Around("execution(public * net.maritimecloud.identityregistry.utils.KeycloakAdminUtil.*(..))")
+    public Object timeKeycloak(ProceedingJoinPoint pjp) throws Throwable {
+        return time("keycloak." + pjp.getSignature().getName(), "keycloak", pjp);
+    }
+
+    @Around("execution(public * net.maritimecloud.identityregistry.utils.CertificateUtil.*(..))")
+    public Object timeCrypto(ProceedingJoinPoint pjp) throws Throwable {
+        return time("crypto." + pjp.getSignature().getName(), null, pjp);
+    }
+
+    private Object time(String name, String phase, ProceedingJoinPoint pjp) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return pjp.proceed();
+        } finally {
+            metricsUtil.recordTime(name, start);
+            if (phase != null) {
+                RequestTimings.record(phase, start);
+            }
+        }
+    }
+
+    private static String getRepositoryName(Class<?> proxyClass) {
+        for (Class<?> iface : proxyClass.getInterfaces()) {
+            if (Repository.class.isAssignableFrom(iface) && iface.getName().startsWith(REPOSITORY_PACKAGE)) {
+                return iface.getSimpleName();
+            }
+        }
+        return proxyClass.getSimpleName();
+    }
+}
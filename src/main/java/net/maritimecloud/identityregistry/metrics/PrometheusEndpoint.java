@@ -0,0 +1,69 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.Endpoint;
+import org.springframework.boot.actuate.endpoint.mvc.MvcEndpoint;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Actuator endpoint at /prometheus that exposes the Dropwizard metrics, including the ones shown at /metrics,
+ * in the Prometheus text format. Timers are exported as summaries with quantiles.
+ */
+@Component
+public class PrometheusEndpoint implements MvcEndpoint {
+
+    private final CollectorRegistry collectorRegistry = new CollectorRegistry();
+
+    @Autowired
+    public PrometheusEndpoint(MetricRegistry metricRegistry) {
+        new DropwizardExports(metricRegistry).register(collectorRegistry);
+    }
+
+    @RequestMapping(method = RequestMethod.GET, produces = TextFormat.CONTENT_TYPE_004)
+    @ResponseBody
+    public String metrics() throws IOException {
+        StringWriter writer = new StringWriter();
+        TextFormat.write004(writer, collectorRegistry.metricFamilySamples());
+        return writer.toString();
+    }
+
+    @Override
+    public String getPath() {
+        return "/prometheus";
+    }
+
+    @Override
+    public boolean isSensitive() {
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Class<? extends Endpoint> getEndpointType() {
+        return null;
+    }
+}
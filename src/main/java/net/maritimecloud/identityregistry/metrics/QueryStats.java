@@ -0,0 +1,118 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the SQL statements, entity loads and collection fetches of the current request. It is fed by Hibernate,
+ * through QueryStatsSessionListener, QueryStatsStatementInspector and the listeners registered by
+ * HibernateStatistics, and the counting is started and ended by QueryStatsFilter. Statements slower than the
+ * threshold are logged whether or not a request is being counted.
+ */
+public final class QueryStats {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryStats.class);
+
+    private static final ThreadLocal<QueryStats> CURRENT = new ThreadLocal<>();
+
+    // The SQL of the statement being executed on this thread, used in the slow query log
+    private static final ThreadLocal<String> CURRENT_SQL = new ThreadLocal<>();
+
+    private static volatile boolean enabled;
+
+    private static volatile long slowQueryThresholdNanos = Long.MAX_VALUE;
+
+    private long statements;
+    private long statementNanos;
+    private long entityLoads;
+    private long collectionFetches;
+
+    private QueryStats() {
+    }
+
+    static void configure(boolean enabled, long slowQueryThresholdMillis) {
+        QueryStats.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis);
+        QueryStats.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void begin() {
+        CURRENT.set(new QueryStats());
+    }
+
+    static QueryStats end() {
+        QueryStats stats = CURRENT.get();
+        CURRENT.remove();
+        CURRENT_SQL.remove();
+        return stats;
+    }
+
+    static void statementPrepared(String sql) {
+        if (enabled) {
+            CURRENT_SQL.set(sql);
+        }
+    }
+
+    static void statementExecuted(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        QueryStats stats = CURRENT.get();
+        if (stats != null) {
+            stats.statements++;
+            stats.statementNanos += nanos;
+        }
+        if (nanos >= slowQueryThresholdNanos) {
+            logger.warn("Slow query (" + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms): " + CURRENT_SQL.get());
+        }
+    }
+
+    static void entityLoaded() {
+        QueryStats stats = CURRENT.get();
+        if (stats != null) {
+            stats.entityLoads++;
+        }
+    }
+
+    static void collectionFetched() {
+        QueryStats stats = CURRENT.get();
+        if (stats != null) {
+            stats.collectionFetches++;
+        }
+    }
+
+    public long getStatements() {
+        return statements;
+    }
+
+    public long getStatementNanos() {
+        return statementNanos;
+    }
+
+    public long getEntityLoads() {
+        return entityLoads;
+    }
+
+    public long getCollectionFetches() {
+        return collectionFetches;
+    }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import net.maritimecloud.identityregistry.utils.RequestTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When enabled, records the phases of each request with RequestTimings and returns them in a Server-Timing
+ * header, e.g. "auth;dur=4.2, org;dur=0.8, db;dur=3.1;desc=\"4 calls\", serialize;dur=0.3, total;dur=9.6".
+ * The response body is buffered, so the header can include the serialization of the response. A sample of
+ * the requests slower than the threshold is logged with the same breakdown. Responses of asynchronous requests,
+ * like server-sent events, are not buffered and get no header.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerTimingFilter.class);
+
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    @Value("${net.maritimecloud.idreg.server-timing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${net.maritimecloud.idreg.server-timing.slow-request-threshold:1000}")
+    private long slowRequestThreshold;
+
+    @Value("${net.maritimecloud.idreg.server-timing.slow-request-sample-rate:0.1}")
+    private double slowRequestSampleRate;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Streamed responses can't be buffered
+        String accept = request.getHeader("Accept");
+        return !enabled || isAsyncDispatch(request) || (accept != null && accept.contains("text/event-stream"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        ContentCachingResponseWrapper wrapper = new AsyncAwareResponseWrapper(request, response);
+        long start = System.nanoTime();
+        RequestTimings.begin();
+        try {
+            filterChain.doFilter(request, wrapper);
+        } finally {
+            Map<String, long[]> phases = RequestTimings.end();
+            // Async responses are written directly by the async processing and are not complete yet
+            if (!request.isAsyncStarted()) {
+                finish(request, wrapper, phases, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void finish(HttpServletRequest request, ContentCachingResponseWrapper wrapper, Map<String, long[]> phases, long total) throws IOException {
+        String timings = format(phases, total);
+        if (!wrapper.isCommitted()) {
+            wrapper.setHeader(SERVER_TIMING_HEADER, timings);
+        }
+        wrapper.copyBodyToResponse();
+        if (total / 1000000 >= slowRequestThreshold && ThreadLocalRandom.current().nextDouble() < slowRequestSampleRate) {
+            logger.warn("Slow request: " + request.getMethod() + " " + request.getRequestURI() + " returned "
+                    + wrapper.getStatus() + " after " + (total / 1000000) + " ms: " + timings);
+        }
+    }
+
+    /**
+     * Buffers the response until asynchronous processing is started, and then writes directly to the response,
+     * so e.g. events sent by an SseEmitter are not held back in the buffer.
+     */
+    private static class AsyncAwareResponseWrapper extends ContentCachingResponseWrapper {
+        private final HttpServletRequest request;
+
+        AsyncAwareResponseWrapper(HttpServletRequest request, HttpServletResponse response) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            return request.isAsyncStarted() ? getResponse().getOutputStream() : super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            return request.isAsyncStarted() ? getResponse().getWriter() : super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (request.isAsyncStarted()) {
+                getResponse().flushBuffer();
+            } else {
+                super.flushBuffer();
+            }
+        }
+    }
+
+    private static String format(Map<String, long[]> phases, long total) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            sb.append(String.format(Locale.ROOT, "%s;dur=%.1f", phase.getKey(), phase.getValue()[0] / 1e6));
+            if (phase.getValue()[1] > 1) {
+                sb.append(";desc=\"").append(phase.getValue()[1]).append(" calls\"");
+            }
+            sb.append(", ");
+        }
+        sb.append(String.format(Locale.ROOT, "total;dur=%.1f", total / 1e6));
+        return sb.toString();
+    }
+}
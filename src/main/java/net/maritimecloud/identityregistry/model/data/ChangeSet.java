@@ -0,0 +1,56 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.data;
+
+import net.maritimecloud.identityregistry.model.JsonSerializable;
+import net.maritimecloud.identityregistry.model.database.Tombstone;
+
+import java.util.List;
+
+/**
+ * A page of entity changes: the entities created or updated and the tombstones of those deleted since the
+ * cursor the client sent. The client sends the returned cursor to get the next page, and should keep going
+ * while more is true.
+ */
+public class ChangeSet<T> implements JsonSerializable {
+
+    private List<T> changed;
+    private List<Tombstone> deleted;
+    private String cursor;
+    private boolean more;
+
+    public ChangeSet(List<T> changed, List<Tombstone> deleted, String cursor, boolean more) {
+        this.changed = changed;
+        this.deleted = deleted;
+        this.cursor = cursor;
+        this.more = more;
+    }
+
+    public List<T> getChanged() {
+        return changed;
+    }
+
+    public List<Tombstone> getDeleted() {
+        return deleted;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+}
@@ -0,0 +1,26 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.data;
+
+/**
+ * Whether an entity exists and belongs to an organization, used to pick the error when an entity isn't found
+ * in the organization given in the request
+ */
+public enum EntityOwnership {
+    ORGANIZATION_NOT_FOUND,
+    ENTITY_NOT_FOUND,
+    OTHER_ORGANIZATION,
+    OWNED
+}
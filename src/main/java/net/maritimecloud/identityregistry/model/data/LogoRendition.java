@@ -0,0 +1,50 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.data;
+
+/**
+ * The precomputed sizes of an organization logo
+ */
+public enum LogoRendition {
+    THUMBNAIL(100, 75),
+    LIST(200, 150),
+    FULL(800, 600);
+
+    private final int maxWidth;
+    private final int maxHeight;
+
+    LogoRendition(int maxWidth, int maxHeight) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /** Returns the rendition with the given name, or null if there is none */
+    public static LogoRendition fromName(String name) {
+        for (LogoRendition rendition : values()) {
+            if (rendition.name().equalsIgnoreCase(name)) {
+                return rendition;
+            }
+        }
+        return null;
+    }
+}
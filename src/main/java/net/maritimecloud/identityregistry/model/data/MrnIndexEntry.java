@@ -0,0 +1,53 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import net.maritimecloud.identityregistry.model.JsonSerializable;
+
+/**
+ * An entry in the in-memory MRN index
+ */
+public class MrnIndexEntry implements JsonSerializable {
+
+    private String mrn;
+    private String type;
+    private Long id;
+    @JsonIgnore
+    private Long idOrganization;
+
+    public MrnIndexEntry(String mrn, String type, Long id, Long idOrganization) {
+        this.mrn = mrn;
+        this.type = type;
+        this.id = id;
+        this.idOrganization = idOrganization;
+    }
+
+    public String getMrn() {
+        return mrn;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getIdOrganization() {
+        return idOrganization;
+    }
+}
@@ -0,0 +1,43 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.data;
+
+/**
+ * A reply that has been serialized ahead of time, as json and gzipped json, with its version
+ */
+public class PrecomputedReply {
+
+    private final byte[] json;
+    private final byte[] gzippedJson;
+    private final ResourceVersion version;
+
+    public PrecomputedReply(byte[] json, byte[] gzippedJson, ResourceVersion version) {
+        this.json = json;
+        this.gzippedJson = gzippedJson;
+        this.version = version;
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    public byte[] getGzippedJson() {
+        return gzippedJson;
+    }
+
+    public ResourceVersion getVersion() {
+        return version;
+    }
+}
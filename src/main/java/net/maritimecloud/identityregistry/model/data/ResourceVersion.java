@@ -0,0 +1,67 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.data;
+
+import java.util.Date;
+
+/**
+ * The version of a resource, used to answer conditional GET requests without loading the resource. The ETag
+ * is weak, since the same version can be serialized differently, and includes the view of the caller, since
+ * sensitive fields are cleared for some callers. A date can't tell views apart, so only the public view, which
+ * is the same for every caller, has a last modified date.
+ */
+public class ResourceVersion {
+
+    public static final String PUBLIC_VIEW = "public";
+
+    private final Long idOrganization;
+    private final String eTag;
+    private final Date lastModified;
+
+    public ResourceVersion(Long idOrganization, String eTag, Date lastModified) {
+        this.idOrganization = idOrganization;
+        this.eTag = "W/\"" + eTag + "\"";
+        this.lastModified = lastModified;
+    }
+
+    public ResourceVersion(Long idOrganization, String eTag, String view, Date lastModified) {
+        this(idOrganization, eTag + "-" + view, PUBLIC_VIEW.equals(view) ? lastModified : null);
+    }
+
+    /* The organization the resource belongs to */
+    public Long getIdOrganization() {
+        return idOrganization;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    /* Can be null if not known */
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    /* Returns the latest of the dates, ignoring nulls */
+    public static Date latest(Date... dates) {
+        Date latest = null;
+        for (Date date : dates) {
+            if (date != null && (latest == null || date.after(latest))) {
+                latest = date;
+            }
+        }
+        return latest;
+    }
+}
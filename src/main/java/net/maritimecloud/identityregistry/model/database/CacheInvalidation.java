@@ -0,0 +1,70 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.database;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * Model object representing a change published on the invalidation bus. Rows are written in the same
+ * transaction as the change, read by the other nodes and deleted after a while.
+ */
+
+@Entity
+@Table(name = "cache_invalidation")
+public class CacheInvalidation extends TimestampModel {
+
+    public CacheInvalidation() {
+    }
+
+    @Column(name = "cache_name")
+    private String cacheName;
+
+    // Null when the whole cache should be invalidated
+    @Column(name = "cache_key")
+    private String cacheKey;
+
+    // The node that published the change
+    @Column(name = "node")
+    private String node;
+
+    /******************************/
+    /** Getters and setters      **/
+    /******************************/
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public void setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public void setNode(String node) {
+        this.node = node;
+    }
+}
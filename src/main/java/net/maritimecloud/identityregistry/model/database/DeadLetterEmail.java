@@ -0,0 +1,94 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.database;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * Model object representing an email that could not be sent within the allowed number of attempts.
+ */
+
+@Entity
+@Table(name = "email_dead_letters")
+public class DeadLetterEmail extends TimestampModel {
+
+    public DeadLetterEmail() {
+    }
+
+    public DeadLetterEmail(QueuedEmail email) {
+        this.recipient = email.getRecipient();
+        this.sender = email.getSender();
+        this.subject = email.getSubject();
+        this.text = email.getText();
+        this.attempts = email.getAttempts();
+        this.lastError = email.getLastError();
+        this.queuedAt = email.getCreatedAt();
+    }
+
+    @Column(name = "recipient")
+    private String recipient;
+
+    @Column(name = "sender")
+    private String sender;
+
+    @Column(name = "subject")
+    private String subject;
+
+    @Column(name = "text", columnDefinition = "MEDIUMTEXT")
+    private String text;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Column(name = "last_error", length = 2000)
+    private String lastError;
+
+    @Column(name = "queued_at")
+    private Date queuedAt;
+
+    /******************************/
+    /** Getters and setters      **/
+    /******************************/
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public Date getQueuedAt() {
+        return queuedAt;
+    }
+}
@@ -0,0 +1,145 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.database;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * Model object representing a pending keycloak operation. Entries are written in the same
+ * transaction as the change that caused them, and delivered to keycloak in the background.
+ * An instance claims an entry until claimedUntil before delivering it, so it is only delivered
+ * by one instance at a time.
+ */
+
+@Entity
+@Table(name = "keycloak_outbox")
+public class KeycloakOutboxEntry extends TimestampModel {
+
+    // Operations
+    public static final String CREATE_USER = "create-user";
+    public static final String UPDATE_USER = "update-user";
+    public static final String DELETE_USER = "delete-user";
+    public static final String CREATE_CLIENT = "create-client";
+    public static final String UPDATE_CLIENT = "update-client";
+    public static final String DELETE_CLIENT = "delete-client";
+    public static final String CREATE_IDP = "create-idp";
+    public static final String DELETE_IDP = "delete-idp";
+
+    // Status
+    public static final String STATUS_PENDING = "pending";
+    public static final String STATUS_FAILED = "failed";
+
+    public KeycloakOutboxEntry() {
+    }
+
+    @Column(name = "operation")
+    private String operation;
+
+    // The user, client or idp the operation is about. Operations on the same target are delivered in order.
+    @Column(name = "target")
+    private String target;
+
+    // Arguments of the operation as json. Passwords are encrypted.
+    @JsonIgnore
+    @Column(name = "payload", columnDefinition = "MEDIUMTEXT")
+    private String payload;
+
+    @Column(name = "status")
+    private String status;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Column(name = "next_attempt_at")
+    private Date nextAttemptAt;
+
+    @Column(name = "last_error", length = 2000)
+    private String lastError;
+
+    @Column(name = "claimed_until")
+    private Date claimedUntil;
+
+    /******************************/
+    /** Getters and setters      **/
+    /******************************/
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Date nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(Date claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+}
@@ -1,67 +0,0 @@
-/* Copyright 2016 Danish Maritime Authority.
- *
- *  Licensed under the Apache License, Version 2.0 (the "License");
- *  you may not use this file except in compliance with the License.
- *  You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *  See the License for the specific language governing permissions and
- *  limitations under the License.
- */
-package net.maritimecloud.identityregistry.model.database;
-
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import io.swagger.annotations.ApiModelProperty;
-
-import javax.persistence.Column;
-import javax.persistence.Entity;
-import javax.persistence.OneToOne;
-import javax.persistence.Table;
-import java.util.Objects;
-
-@Entity
-@Table(name="logos")
-public class Logo extends TimestampModel {
-
-    public Logo() {
-    }
-
-    @Column(name = "image")
-    private byte[] image;
-
-    @JsonIgnore
-    @OneToOne(mappedBy="logo")
-    private Organization organization;
-
-    /** Copies this user into the other */
-    public Logo copyTo(Logo logo) {
-        Objects.requireNonNull(logo);
-        logo.setId(id);
-        logo.setOrganization(organization);
-        logo.setImage(image);
-        return logo;
-    }
-
-    /******************************/
-    /** Getters and setters      **/
-    /******************************/
-    public byte[] getImage() {
-        return image;
-    }
-
-    public void setImage(byte[] image) {
-        this.image = image;
-    }
-
-    public Organization getOrganization() {
-        return organization;
-    }
-
-    public void setOrganization(Organization organization) {
-        this.organization = organization;
-    }
-}
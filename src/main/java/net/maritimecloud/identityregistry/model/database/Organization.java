@@ -14,8 +14,11 @@
  */
 package net.maritimecloud.identityregistry.model.database;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.annotations.ApiModelProperty;
+import net.maritimecloud.identityregistry.security.SensitiveFieldFilter;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.Length;
 import org.hibernate.validator.constraints.NotBlank;
@@ -23,6 +26,7 @@ import org.hibernate.validator.constraints.URL;
 
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import javax.persistence.*;
@@ -34,6 +38,9 @@ import javax.validation.Valid;
 
 @Entity
 @Table(name = "organizations")
+@JsonFilter(SensitiveFieldFilter.FILTER_ID)
+// Used when the organization is returned, lookups that only need the id or the name don't load the attributes
+@NamedEntityGraph(name = "Organization.details", attributeNodes = @NamedAttributeNode("identityProviderAttributes"))
 public class Organization extends CertificateModel {
 
     @ApiModelProperty(value = "The name of the organization", required = true)
@@ -77,18 +84,45 @@ public class Organization extends CertificateModel {
     @Column(name = "approved")
     private boolean approved;
 
+    // Blob store keys (content hashes) of the logo renditions. Only written by OrganizationRepository.setLogoKeys,
+    // so saving an old copy of the organization can't point it back to blobs that may have been removed.
     @JsonIgnore
-    @OneToOne(cascade = CascadeType.ALL)
-    @JoinColumn(name="id_logo")
-    private Logo logo;
+    @Column(name = "logo_full", insertable = false, updatable = false)
+    private String logoFull;
+
+    @JsonIgnore
+    @Column(name = "logo_list", insertable = false, updatable = false)
+    private String logoList;
+
+    @JsonIgnore
+    @Column(name = "logo_thumbnail", insertable = false, updatable = false)
+    private String logoThumbnail;
+
+    // Bumped for each logo upload or removal, so a slower, older upload can't overwrite a newer logo
+    @JsonIgnore
+    @Column(name = "logo_version", insertable = false, updatable = false, columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+    private long logoVersion;
+
+    // Bumped when the organization or its certificates change, and used for ETags. Only written by
+    // OrganizationRepository.bumpDataVersion, so saving an old copy of the organization can't move it backwards.
+    @JsonIgnore
+    @Column(name = "data_version", insertable = false, updatable = false, columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+    private long dataVersion;
+
+    @JsonIgnore
+    @Column(name = "data_updated_at", insertable = false, updatable = false)
+    private Date dataUpdatedAt;
 
     @ApiModelProperty(value = "Cannot be created/updated by editing in the model. Use the dedicate create and revoke calls.")
     @OneToMany(mappedBy = "organization")
+    // Loaded for up to 50 organizations at a time when a list of organizations is serialized
+    @BatchSize(size = 50)
     //@Where(clause="UTC_TIMESTAMP() BETWEEN start AND end")
     private List<Certificate> certificates;
 
     @Valid
-    @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL, mappedBy = "organization", orphanRemoval=true)
+    @SensitiveField
+    @OneToMany(cascade = CascadeType.ALL, mappedBy = "organization", orphanRemoval=true)
     private List<IdentityProviderAttribute> identityProviderAttributes;
 
     public Organization() {
@@ -101,7 +135,9 @@ public class Organization extends CertificateModel {
         org.setUrl(url);
         org.setAddress(address);
         org.setCountry(country);
-        org.setLogo(logo);
+        org.setLogoFull(logoFull);
+        org.setLogoList(logoList);
+        org.setLogoThumbnail(logoThumbnail);
         org.setType(type);
         org.setApproved(approved);
         org.getCertificates().clear();
@@ -148,16 +184,6 @@ public class Organization extends CertificateModel {
         return copyTo(new Organization());
     }
 
-    @Override
-    public boolean hasSensitiveFields() {
-        return true;
-    }
-
-    @Override
-    public void clearSensitiveFields() {
-        this.identityProviderAttributes.clear();
-    }
-
     /******************************/
     /** Getters and setters      **/
     /******************************/
@@ -237,11 +263,39 @@ public class Organization extends CertificateModel {
         this.identityProviderAttributes = identityProviderAttributes;
     }
 
-    public Logo getLogo() {
-        return logo;
+    public String getLogoFull() {
+        return logoFull;
+    }
+
+    public void setLogoFull(String logoFull) {
+        this.logoFull = logoFull;
+    }
+
+    public String getLogoList() {
+        return logoList;
+    }
+
+    public void setLogoList(String logoList) {
+        this.logoList = logoList;
+    }
+
+    public String getLogoThumbnail() {
+        return logoThumbnail;
+    }
+
+    public void setLogoThumbnail(String logoThumbnail) {
+        this.logoThumbnail = logoThumbnail;
+    }
+
+    public long getLogoVersion() {
+        return logoVersion;
+    }
+
+    public long getDataVersion() {
+        return dataVersion;
     }
 
-    public void setLogo(Logo logo) {
-        this.logo = logo;
+    public Date getDataUpdatedAt() {
+        return dataUpdatedAt;
     }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.database;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * Model object representing the revocation of a certificate. The id is the sequence number clients of the
+ * revocation stream resume from.
+ */
+
+@Entity
+@Table(name = "revocation_events")
+public class RevocationEvent extends TimestampModel {
+
+    public RevocationEvent() {
+    }
+
+    public RevocationEvent(Certificate certificate) {
+        this.serialNumber = certificate.getId();
+        this.revokedAt = certificate.getRevokedAt();
+        this.revokeReason = certificate.getRevokeReason();
+    }
+
+    // The serial number of a certificate is its id
+    @Column(name = "serial_number")
+    private Long serialNumber;
+
+    @Column(name = "revoked_at")
+    private Date revokedAt;
+
+    @Column(name = "revoke_reason")
+    private String revokeReason;
+
+    /******************************/
+    /** Getters and setters      **/
+    /******************************/
+    public Long getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(Long serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public Date getRevokedAt() {
+        return revokedAt;
+    }
+
+    public void setRevokedAt(Date revokedAt) {
+        this.revokedAt = revokedAt;
+    }
+
+    public String getRevokeReason() {
+        return revokeReason;
+    }
+
+    public void setRevokeReason(String revokeReason) {
+        this.revokeReason = revokeReason;
+    }
+}
@@ -52,6 +52,11 @@ public abstract class TimestampModel implements JsonSerializable {
         this.updatedAt = new Date();
     }
 
+    /** Marks the object as changed, also when only its child objects have changed */
+    public void touch() {
+        this.updatedAt = new Date();
+    }
+
     public Long getId() {
         return id;
     }
@@ -67,14 +72,4 @@ public abstract class TimestampModel implements JsonSerializable {
     public Date getUpdatedAt() {
         return updatedAt;
     }
-
-    // Override if needed - use to detect if blanking of sensitive fields are needed
-    public boolean hasSensitiveFields() {
-        return false;
-    }
-
-    // Override if needed - use when blanking sensitive fields so that users without privileges
-    // can see object with non-sensitive data.
-    public void clearSensitiveFields() {
-    }
 }
@@ -0,0 +1,87 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.database;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * Model object representing a deleted entity, so clients syncing changes can learn about the deletion.
+ * The time of deletion is the creation time of the tombstone.
+ */
+
+@Entity
+@Table(name = "tombstones")
+public class Tombstone extends TimestampModel {
+
+    public Tombstone() {
+    }
+
+    public Tombstone(String entityType, Long entityId, String mrn, Long idOrganization) {
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.mrn = mrn;
+        this.idOrganization = idOrganization;
+    }
+
+    // "vessel", "user", "device" or "service"
+    @Column(name = "entity_type")
+    private String entityType;
+
+    @Column(name = "entity_id")
+    private Long entityId;
+
+    @Column(name = "mrn")
+    private String mrn;
+
+    @Column(name = "id_organization")
+    private Long idOrganization;
+
+    /******************************/
+    /** Getters and setters      **/
+    /******************************/
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public Long getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(Long entityId) {
+        this.entityId = entityId;
+    }
+
+    public String getMrn() {
+        return mrn;
+    }
+
+    public void setMrn(String mrn) {
+        this.mrn = mrn;
+    }
+
+    public Long getIdOrganization() {
+        return idOrganization;
+    }
+
+    public void setIdOrganization(Long idOrganization) {
+        this.idOrganization = idOrganization;
+    }
+}
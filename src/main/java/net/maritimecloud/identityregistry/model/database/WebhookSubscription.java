@@ -0,0 +1,125 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.model.database;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+import org.hibernate.validator.constraints.NotBlank;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+
+/**
+ * Model object representing a webhook that an organization has registered to be told about changes
+ */
+
+@Entity
+@Table(name = "webhook_subscriptions")
+public class WebhookSubscription extends TimestampModel {
+
+    public WebhookSubscription() {
+    }
+
+    @ApiModelProperty(required = true, value = "The url events are posted to")
+    @Column(name = "url", nullable = false)
+    @NotBlank
+    @Pattern(regexp = "^https?://.+", flags = Pattern.Flag.CASE_INSENSITIVE)
+    private String url;
+
+    @ApiModelProperty(required = true, value = "Secret used to sign the events with HMAC-SHA256, the signature is sent in the X-MC-Signature header")
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    @Column(name = "secret", nullable = false)
+    @NotBlank
+    @Size(min = 16, max = 255)
+    private String secret;
+
+    @ApiModelProperty(value = "Comma separated list of events to send, e.g. \"vessel.*,certificate.revoked\". All events are sent if empty")
+    @Column(name = "events")
+    private String events;
+
+    @ApiModelProperty(value = "Max number of requests sent to the url at the same time, defaults to 1")
+    @Column(name = "max_concurrency")
+    @Min(1)
+    @Max(10)
+    private Integer maxConcurrency;
+
+    @JsonIgnore
+    @Column(name = "id_organization")
+    private Long idOrganization;
+
+    /** Returns true if the event should be sent to this webhook */
+    public boolean matches(String event) {
+        if (events == null || events.trim().isEmpty()) {
+            return true;
+        }
+        for (String pattern : events.split(",")) {
+            pattern = pattern.trim();
+            if (pattern.equals("*") || pattern.equals(event)
+                    || (pattern.endsWith(".*") && event.startsWith(pattern.substring(0, pattern.length() - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /******************************/
+    /** Getters and setters      **/
+    /******************************/
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public void setSecret(String secret) {
+        this.secret = secret;
+    }
+
+    public String getEvents() {
+        return events;
+    }
+
+    public void setEvents(String events) {
+        this.events = events;
+    }
+
+    public Integer getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(Integer maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public Long getIdOrganization() {
+        return idOrganization;
+    }
+
+    public void setIdOrganization(Long idOrganization) {
+        this.idOrganization = idOrganization;
+    }
+}
@@ -23,6 +23,7 @@ import javax.persistence.Table;
 
 import io.swagger.annotations.ApiModelProperty;
 import net.maritimecloud.identityregistry.model.database.Certificate;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.validator.constraints.NotBlank;
 
 /**
@@ -37,6 +38,7 @@ public class Device extends NonHumanEntityModel {
     }
 
     @OneToMany(mappedBy = "device")
+    @BatchSize(size = 50)
     @ApiModelProperty(value = "Cannot be created/updated by editing in the model. Use the dedicate create and revoke calls.")
     //@Where(clause="UTC_TIMESTAMP() BETWEEN start AND end")
     private List<Certificate> certificates;
@@ -21,9 +21,13 @@ import javax.persistence.Entity;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.annotations.ApiModelProperty;
 import net.maritimecloud.identityregistry.model.database.Certificate;
+import org.hibernate.annotations.BatchSize;
+import net.maritimecloud.identityregistry.model.database.SensitiveField;
+import net.maritimecloud.identityregistry.security.SensitiveFieldFilter;
 import net.maritimecloud.identityregistry.validators.InPredefinedList;
 import org.hibernate.validator.constraints.NotBlank;
 import org.hibernate.validator.constraints.URL;
@@ -34,25 +38,30 @@ import org.hibernate.validator.constraints.URL;
 
 @Entity
 @Table(name = "services")
+@JsonFilter(SensitiveFieldFilter.FILTER_ID)
 public class Service extends NonHumanEntityModel {
 
     public Service() {
     }
 
     @ApiModelProperty(value = "Access type of the OpenId Connect client", allowableValues = "public, bearer-only, confidential")
+    @SensitiveField
     @Column(name = "oidc_access_type")
     @InPredefinedList(acceptedValues = {"public", "bearer-only", "confidential"})
     private String oidcAccessType;
 
     @ApiModelProperty(value = "The client id of the service in Maritime Cloud. Will be generated.", readOnly = true)
+    @SensitiveField
     @Column(name = "oidc_client_id")
     private String oidcClientId;
 
     @ApiModelProperty(value = "The client secret of the service in Maritime Cloud. Will be generated.", readOnly = true)
+    @SensitiveField
     @Column(name = "oidc_client_secret")
     private String oidcClientSecret;
 
     @ApiModelProperty(value = "The OpenId Connect redirect uri of service.")
+    @SensitiveField
     @Column(name = "oidc_redirect_uri")
     @URL
     private String oidcRedirectUri;
@@ -63,6 +72,7 @@ public class Service extends NonHumanEntityModel {
 
     @ApiModelProperty(value = "Cannot be created/updated by editing in the model. Use the dedicate create and revoke calls.")
     @OneToMany(mappedBy = "service")
+    @BatchSize(size = 50)
     //@Where(clause="UTC_TIMESTAMP() BETWEEN start AND end")
     private List<Certificate> certificates;
 
@@ -95,17 +105,6 @@ public class Service extends NonHumanEntityModel {
         cert.setService(this);
     }
 
-    public boolean hasSensitiveFields() {
-        return true;
-    }
-
-    public void clearSensitiveFields() {
-        this.setOidcAccessType(null);
-        this.setOidcClientId(null);
-        this.setOidcClientSecret(null);
-        this.setOidcRedirectUri(null);
-    }
-
     /******************************/
     /** Getters and setters      **/
     /******************************/
@@ -25,6 +25,7 @@ import javax.persistence.Table;
 import javax.validation.constraints.Pattern;
 
 import net.maritimecloud.identityregistry.model.database.Certificate;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.NotBlank;
 
@@ -57,6 +58,7 @@ public class User extends EntityModel {
 
     @ApiModelProperty(value = "Cannot be created/updated by editing in the model. Use the dedicate create and revoke calls.")
     @OneToMany(mappedBy = "user")
+    @BatchSize(size = 50)
     //@Where(clause="UTC_TIMESTAMP() BETWEEN start AND end")
     private List<Certificate> certificates;
 
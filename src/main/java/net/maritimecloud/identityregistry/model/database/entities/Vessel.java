@@ -26,6 +26,7 @@ import javax.persistence.Table;
 
 import io.swagger.annotations.ApiModelProperty;
 import net.maritimecloud.identityregistry.model.database.Certificate;
+import org.hibernate.annotations.BatchSize;
 
 /**
  * Model object representing a vessel
@@ -39,10 +40,12 @@ public class Vessel extends NonHumanEntityModel {
     }
 
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "vessel", orphanRemoval=true)
+    @BatchSize(size = 50)
     private List<VesselAttribute> attributes;
 
     @ApiModelProperty(value = "Cannot be created/updated by editing in the model. Use the dedicate create and revoke calls.")
     @OneToMany(mappedBy = "vessel", orphanRemoval=false)
+    @BatchSize(size = 50)
     //@Where(clause="UTC_TIMESTAMP() BETWEEN start AND end")
     private List<Certificate> certificates;
 
@@ -14,16 +14,82 @@
  */
 package net.maritimecloud.identityregistry.repositories;
 
+import net.maritimecloud.identityregistry.model.database.Certificate;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.NoRepositoryBean;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 @NoRepositoryBean
 public interface EntityRepository<T> extends CrudRepository<T, Long> {
     List<T> findByidOrganization(Long orgId);
 
+    // With the certificates, for listing the entities of an organization. Distinct, since the fetch join gives a
+    // row per certificate. Other collections, like vessel attributes, are batch fetched.
+    @EntityGraph(attributePaths = "certificates")
+    List<T> findDistinctByidOrganization(Long orgId);
+
     void deleteByidOrganization(Long orgId);
 
     T getByMrn(String mrn);
+
+    List<T> findByMrnIn(Collection<String> mrns);
+
+    // Rows of id, mrn and idOrganization, used to build the MRN index without loading whole entities
+    @Query("select e.id, e.mrn, e.idOrganization from #{#entityName} e")
+    List<Object[]> findAllMrns();
+
+    // The entity if it belongs to the approved organization, so it is found and checked in one query
+    @Query("select e from #{#entityName} e, Organization o where e.mrn = ?1 and o.mrn = ?2 and o.approved = true " +
+            "and e.idOrganization = o.id")
+    T findByMrnInOrg(String mrn, String orgMrn);
+
+    // Same as findByMrnInOrg with the certificates, for returning the entity
+    @EntityGraph(attributePaths = "certificates")
+    @Query("select e from #{#entityName} e, Organization o where e.mrn = ?1 and o.mrn = ?2 and o.approved = true " +
+            "and e.idOrganization = o.id")
+    T findDetailedByMrnInOrg(String mrn, String orgMrn);
+
+    // Rows of id, idOrganization and updatedAt, if the entity belongs to the approved organization. Used to answer
+    // conditional requests without loading the entity.
+    @Query("select e.id, e.idOrganization, e.updatedAt from #{#entityName} e, Organization o " +
+            "where e.mrn = ?1 and o.mrn = ?2 and o.approved = true and e.idOrganization = o.id")
+    List<Object[]> findVersionByMrnInOrg(String mrn, String orgMrn);
+
+    // Row of count, max id, sum of id and max updatedAt of the entities of the organization
+    @Query("select count(e), max(e.id), sum(e.id), max(e.updatedAt) from #{#entityName} e where e.idOrganization = ?1")
+    List<Object[]> findListVersion(Long orgId);
+
+    // The id of the approved organization, empty if it doesn't exist
+    @Query("select o.id from Organization o where o.mrn = ?1 and o.approved = true")
+    List<Long> findApprovedOrganizationId(String orgMrn);
+
+    // The idOrganization of the entity, empty if it doesn't exist
+    @Query("select e.idOrganization from #{#entityName} e where e.mrn = ?1")
+    List<Long> findIdOrganizationByMrn(String mrn);
+
+    // The certificate if it was issued to the entity and the entity belongs to the approved organization
+    @Query("select c from #{#entityName} e join e.certificates c, Organization o where c.id = ?1 and e.mrn = ?2 " +
+            "and o.mrn = ?3 and o.approved = true and e.idOrganization = o.id")
+    Certificate findCertificateInOrg(Long certId, String mrn, String orgMrn);
+
+    // Entities changed after the position (updatedAt, id) and no later than until, in that order
+    @Query("select e from #{#entityName} e where e.updatedAt <= ?3 " +
+            "and (e.updatedAt > ?1 or (e.updatedAt = ?1 and e.id > ?2)) order by e.updatedAt, e.id")
+    List<T> findChangedSince(Date updatedAt, Long id, Date until, Pageable pageable);
+
+    @Query("select e from #{#entityName} e where e.idOrganization = ?4 and e.updatedAt <= ?3 " +
+            "and (e.updatedAt > ?1 or (e.updatedAt = ?1 and e.id > ?2)) order by e.updatedAt, e.id")
+    List<T> findChangedSinceInOrg(Date updatedAt, Long id, Date until, Long orgId, Pageable pageable);
+
+    // Marks the entity as changed without loading it, e.g. when one of its certificates is issued or revoked
+    @Modifying
+    @Query("update #{#entityName} e set e.updatedAt = ?2 where e.id = ?1")
+    int touch(Long id, Date now);
 }
@@ -14,7 +14,11 @@
  */
 package net.maritimecloud.identityregistry.repositories;
 
+import java.util.Date;
 import java.util.List;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import net.maritimecloud.identityregistry.model.database.Organization;
 
@@ -29,4 +33,51 @@ public interface OrganizationRepository extends CrudRepository<Organization, Lon
 
     List<Organization> findByApprovedTrue();
 
+    // With the identity provider attributes, for returning the organization. The certificates are batch fetched.
+    @EntityGraph("Organization.details")
+    @Query("select distinct o from Organization o where o.mrn = ?1 and o.approved = true")
+    Organization findDetailedByMrnAndApprovedTrue(String mrn);
+
+    @EntityGraph("Organization.details")
+    @Query("select distinct o from Organization o where o.approved = true")
+    List<Organization> findDetailedByApprovedTrue();
+
+    // Blob store keys of the logo renditions, read without loading the organization
+    @Query("select o.logoFull from Organization o where o.mrn = ?1 and o.approved = true")
+    String getLogoFullByMrn(String mrn);
+
+    @Query("select o.logoList from Organization o where o.mrn = ?1 and o.approved = true")
+    String getLogoListByMrn(String mrn);
+
+    @Query("select o.logoThumbnail from Organization o where o.mrn = ?1 and o.approved = true")
+    String getLogoThumbnailByMrn(String mrn);
+
+    long countByLogoFullOrLogoListOrLogoThumbnail(String logoFull, String logoList, String logoThumbnail);
+
+    @Modifying
+    @Query("update Organization o set o.logoVersion = o.logoVersion + 1 where o.mrn = ?1 and o.approved = true")
+    int bumpLogoVersion(String mrn);
+
+    @Query("select o.logoVersion from Organization o where o.mrn = ?1 and o.approved = true")
+    Long getLogoVersionByMrn(String mrn);
+
+    // Only sets the keys if no other logo has been uploaded or removed since the given version was taken
+    @Modifying
+    @Query("update Organization o set o.logoFull = ?3, o.logoList = ?4, o.logoThumbnail = ?5, o.updatedAt = ?6 " +
+            "where o.mrn = ?1 and o.logoVersion = ?2")
+    int setLogoKeys(String mrn, long logoVersion, String logoFull, String logoList, String logoThumbnail, Date now);
+
+    // Rows of id, updatedAt, dataVersion and dataUpdatedAt, used to answer conditional requests without loading the organization
+    @Query("select o.id, o.updatedAt, o.dataVersion, o.dataUpdatedAt from Organization o where o.mrn = ?1 and o.approved = true")
+    List<Object[]> findVersionByMrn(String mrn);
+
+    // Row of count, max id, sum of id, sum of dataVersion, max updatedAt and max dataUpdatedAt of the approved organizations
+    @Query("select count(o), max(o.id), sum(o.id), sum(o.dataVersion), max(o.updatedAt), max(o.dataUpdatedAt) " +
+            "from Organization o where o.approved = true")
+    List<Object[]> findListVersion();
+
+    @Modifying
+    @Query("update Organization o set o.dataVersion = o.dataVersion + 1, o.dataUpdatedAt = ?2 where o.id = ?1")
+    int bumpDataVersion(Long id, Date now);
+
 }
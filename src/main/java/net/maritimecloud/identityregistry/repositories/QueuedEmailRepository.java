@@ -0,0 +1,37 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.repositories;
+
+import net.maritimecloud.identityregistry.model.database.QueuedEmail;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+public interface QueuedEmailRepository extends CrudRepository<QueuedEmail, Long> {
+    @Query("select e from QueuedEmail e where e.nextAttemptAt <= ?1 and (e.claimedUntil is null or e.claimedUntil < ?1) order by e.id")
+    List<QueuedEmail> findDue(Date now, Pageable pageable);
+
+    /* Claims an email that is due and not claimed by another instance. Returns 1 if it was claimed. */
+    @Transactional
+    @Modifying
+    @Query("update QueuedEmail e set e.claimedUntil = ?2 where e.id = ?1 and e.nextAttemptAt <= ?3 " +
+            "and (e.claimedUntil is null or e.claimedUntil < ?3)")
+    int claim(Long id, Date claimedUntil, Date now);
+}
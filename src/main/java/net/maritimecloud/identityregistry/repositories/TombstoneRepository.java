@@ -0,0 +1,39 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.repositories;
+
+import net.maritimecloud.identityregistry.model.database.Tombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.Date;
+import java.util.List;
+
+public interface TombstoneRepository extends CrudRepository<Tombstone, Long> {
+    // Tombstones after the position (updatedAt, id) and no later than until, in that order
+    @Query("select t from Tombstone t where t.entityType = ?1 and t.updatedAt <= ?4 " +
+            "and (t.updatedAt > ?2 or (t.updatedAt = ?2 and t.id > ?3)) order by t.updatedAt, t.id")
+    List<Tombstone> findDeletedSince(String entityType, Date updatedAt, Long id, Date until, Pageable pageable);
+
+    @Query("select t from Tombstone t where t.entityType = ?1 and t.idOrganization = ?5 and t.updatedAt <= ?4 " +
+            "and (t.updatedAt > ?2 or (t.updatedAt = ?2 and t.id > ?3)) order by t.updatedAt, t.id")
+    List<Tombstone> findDeletedSinceInOrg(String entityType, Date updatedAt, Long id, Date until, Long orgId, Pageable pageable);
+
+    @Modifying
+    @Query("delete from Tombstone t where t.createdAt < ?1")
+    int deleteOlderThan(Date date);
+}
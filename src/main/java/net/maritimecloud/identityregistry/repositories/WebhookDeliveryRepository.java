@@ -0,0 +1,48 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.repositories;
+
+import net.maritimecloud.identityregistry.model.database.WebhookDelivery;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+public interface WebhookDeliveryRepository extends CrudRepository<WebhookDelivery, Long> {
+    @Query("select d from WebhookDelivery d where d.status = 'pending' and d.nextAttemptAt <= ?1 " +
+            "and (d.claimedUntil is null or d.claimedUntil < ?1) and d.idSubscription not in ?2 order by d.id")
+    List<WebhookDelivery> findDue(Date now, Collection<Long> skippedSubscriptions, Pageable pageable);
+
+    /* Claims a delivery that is due and not claimed by another instance. Returns 1 if it was claimed. */
+    @Transactional
+    @Modifying
+    @Query("update WebhookDelivery d set d.claimedUntil = ?2 where d.id = ?1 and d.status = 'pending' " +
+            "and d.nextAttemptAt <= ?3 and (d.claimedUntil is null or d.claimedUntil < ?3)")
+    int claim(Long id, Date claimedUntil, Date now);
+
+    @Transactional
+    @Modifying
+    @Query("delete from WebhookDelivery d where d.status = 'failed' and d.updatedAt < ?1")
+    int deleteFailedOlderThan(Date date);
+
+    @Modifying
+    @Query("delete from WebhookDelivery d where d.idSubscription = ?1")
+    int deleteBySubscription(Long idSubscription);
+}
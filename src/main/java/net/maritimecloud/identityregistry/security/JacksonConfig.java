@@ -0,0 +1,32 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.security;
+
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import net.maritimecloud.identityregistry.utils.AccessControlUtil;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JacksonConfig {
+
+    /* Makes the ObjectMapper used for replies hide sensitive fields from callers that may not see them */
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer sensitiveFieldCustomizer(AccessControlUtil accessControlUtil) {
+        return builder -> builder.filters(new SimpleFilterProvider()
+                .addFilter(SensitiveFieldFilter.FILTER_ID, new SensitiveFieldFilter(accessControlUtil)));
+    }
+}
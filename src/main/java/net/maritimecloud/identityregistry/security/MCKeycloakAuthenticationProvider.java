@@ -20,6 +20,7 @@ import net.maritimecloud.identityregistry.model.database.Role;
 import net.maritimecloud.identityregistry.services.OrganizationService;
 import net.maritimecloud.identityregistry.services.RoleService;
 import net.maritimecloud.identityregistry.utils.AccessControlUtil;
+import net.maritimecloud.identityregistry.utils.RequestTimings;
 import org.keycloak.KeycloakSecurityContext;
 import org.keycloak.adapters.springsecurity.account.KeycloakRole;
 import org.keycloak.adapters.springsecurity.authentication.KeycloakAuthenticationProvider;
@@ -55,6 +56,15 @@ public class MCKeycloakAuthenticationProvider extends KeycloakAuthenticationProv
 
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        long start = RequestTimings.start();
+        try {
+            return mapAuthentication(authentication);
+        } finally {
+            RequestTimings.record("auth", start);
+        }
+    }
+
+    private Authentication mapAuthentication(Authentication authentication) {
         List<GrantedAuthority> grantedAuthorities = new ArrayList<GrantedAuthority>();
         KeycloakAuthenticationToken token = (KeycloakAuthenticationToken) authentication;
         KeycloakSecurityContext ksc = (KeycloakSecurityContext)token.getCredentials();
@@ -64,7 +74,7 @@ public class MCKeycloakAuthenticationProvider extends KeycloakAuthenticationProv
         if (otherClaims.containsKey(AccessControlUtil.ORG_PROPERTY_NAME)) {
             String orgMrn = (String) otherClaims.get(AccessControlUtil.ORG_PROPERTY_NAME);
             logger.debug("Found org mrn: " + orgMrn);
-            org = organizationService.getOrganizationByMrnNoFilter(orgMrn);
+            org = organizationService.getOrganizationByMrn(orgMrn);
 
             if (org != null) {
                 if (otherClaims.containsKey(AccessControlUtil.PERMISSIONS_PROPERTY_NAME)) {
@@ -101,8 +101,10 @@ public class MultiSecurityConfig {
                     // Some general filters for access, more specific ones are set at each method
                     .antMatchers(HttpMethod.POST, "/oidc/api/org/apply").permitAll()
                     .antMatchers(HttpMethod.GET, "/oidc/api/certificates/crl").permitAll()
+                    .antMatchers(HttpMethod.GET, "/oidc/api/certificates/revocations").permitAll()
                     .antMatchers(HttpMethod.GET, "/oidc/api/certificates/ocsp").permitAll()
                     .antMatchers(HttpMethod.POST, "/oidc/api/certificates/ocsp").permitAll()
+                    .antMatchers(HttpMethod.POST, "/oidc/api/org/*/mrn/exists").hasRole("USER")
                     .antMatchers(HttpMethod.POST, "/oidc/api/**").hasRole("ORG_ADMIN")
                     .antMatchers(HttpMethod.PUT, "/oidc/api/**").hasRole("ORG_ADMIN")
                     .antMatchers(HttpMethod.DELETE, "/oidc/api/**").hasRole("ORG_ADMIN")
@@ -176,9 +178,12 @@ public class MultiSecurityConfig {
                     // Some general filters for access, more specific ones are set at each method
                     .antMatchers(HttpMethod.POST, "/x509/api/org/apply").permitAll()
                     .antMatchers(HttpMethod.GET, "/x509/api/certificates/crl").permitAll()
+                    .antMatchers(HttpMethod.GET, "/x509/api/certificates/revocations").permitAll()
                     .antMatchers(HttpMethod.GET, "/x509/api/certificates/ocsp").permitAll()
                     .antMatchers(HttpMethod.POST, "/x509/api/certificates/ocsp").permitAll()
                     .antMatchers(HttpMethod.POST, "/x509//api/org/**/user-sync/").authenticated()
+                    .antMatchers(HttpMethod.POST, "/x509/api/org/**/user-sync/batch").authenticated()
+                    .antMatchers(HttpMethod.POST, "/x509/api/org/*/mrn/exists").hasRole("USER")
                     .antMatchers(HttpMethod.POST, "/x509/api/**").hasRole("ORG_ADMIN")
                     .antMatchers(HttpMethod.PUT, "/x509/api/**").hasRole("ORG_ADMIN")
                     .antMatchers(HttpMethod.DELETE, "/x509/api/**").hasRole("ORG_ADMIN")
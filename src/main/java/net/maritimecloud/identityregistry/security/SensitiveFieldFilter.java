@@ -0,0 +1,96 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.security;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.model.database.SensitiveField;
+import net.maritimecloud.identityregistry.utils.AccessControlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Leaves out the fields marked with @SensitiveField when serializing for callers that may not see them, so the
+ * entities are never changed on the way out. Organization admins and site admins see the sensitive fields of
+ * entities, and of the organizations they have access to. Everybody else gets the lists empty and the other
+ * sensitive fields left out.
+ */
+public class SensitiveFieldFilter extends SimpleBeanPropertyFilter {
+    private static final Logger logger = LoggerFactory.getLogger(SensitiveFieldFilter.class);
+
+    public static final String FILTER_ID = "sensitiveFieldFilter";
+
+    private static final List<String> AUTHORIZED_ROLES = Arrays.asList("ORG_ADMIN", "SITE_ADMIN");
+
+    // Attribute of the serialization, so the roles are only looked up once per reply
+    private static final String AUTHORIZED_ATTRIBUTE = SensitiveFieldFilter.class.getName() + ".authorized";
+
+    private static final FilterProvider PUBLIC_FILTERS = new SimpleFilterProvider()
+            .addFilter(FILTER_ID, new SensitiveFieldFilter(null));
+
+    private final AccessControlUtil accessControlUtil;
+
+    /* If accessControlUtil is null sensitive fields are never shown */
+    public SensitiveFieldFilter(AccessControlUtil accessControlUtil) {
+        this.accessControlUtil = accessControlUtil;
+    }
+
+    /* Filters to use with ObjectWriter when serializing for callers without special rights, regardless of the caller */
+    public static FilterProvider publicFilters() {
+        return PUBLIC_FILTERS;
+    }
+
+    @Override
+    public void serializeAsField(Object pojo, JsonGenerator jgen, SerializerProvider provider, PropertyWriter writer) throws Exception {
+        if (writer.getAnnotation(SensitiveField.class) == null || canSee(pojo, provider)) {
+            writer.serializeAsField(pojo, jgen, provider);
+        } else if (writer.getType().isContainerType()) {
+            logger.debug("Hiding sensitive field " + writer.getName());
+            jgen.writeFieldName(writer.getName());
+            jgen.writeStartArray();
+            jgen.writeEndArray();
+        } else {
+            // Left out, like other fields without a value
+            logger.debug("Hiding sensitive field " + writer.getName());
+            writer.serializeAsOmittedField(pojo, jgen, provider);
+        }
+    }
+
+    private boolean canSee(Object pojo, SerializerProvider provider) {
+        if (accessControlUtil == null) {
+            return false;
+        }
+        Boolean authorized = (Boolean) provider.getAttribute(AUTHORIZED_ATTRIBUTE);
+        if (authorized == null) {
+            authorized = accessControlUtil.hasAnyRoles(AUTHORIZED_ROLES);
+            provider.setAttribute(AUTHORIZED_ATTRIBUTE, authorized);
+        }
+        if (!authorized) {
+            return false;
+        }
+        if (pojo instanceof Organization) {
+            return AccessControlUtil.hasAccessToOrg(((Organization) pojo).getMrn());
+        }
+        return true;
+    }
+}
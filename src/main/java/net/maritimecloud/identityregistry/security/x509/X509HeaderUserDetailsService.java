@@ -34,6 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.maritimecloud.identityregistry.utils.CertificateUtil;
+import net.maritimecloud.identityregistry.utils.RequestTimings;
 import org.springframework.security.ldap.userdetails.InetOrgPerson;
 import org.springframework.stereotype.Service;
 
@@ -51,6 +52,15 @@ public class X509HeaderUserDetailsService implements UserDetailsService {
 
     @Override
     public UserDetails loadUserByUsername(String certificateHeader) throws UsernameNotFoundException {
+        long start = RequestTimings.start();
+        try {
+            return loadUserFromCertificate(certificateHeader);
+        } finally {
+            RequestTimings.record("auth", start);
+        }
+    }
+
+    private UserDetails loadUserFromCertificate(String certificateHeader) throws UsernameNotFoundException {
         if (certificateHeader == null || certificateHeader.length() < 10) {
             logger.warn("No certificate header found");
             throw new UsernameNotFoundException("No certificate header found");
@@ -0,0 +1,76 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the listeners and of which node this is, shared by the invalidation bus implementations.
+ */
+public abstract class AbstractInvalidationBus implements InvalidationBus {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractInvalidationBus.class);
+
+    // Unique for each application context, so several nodes can run in the same JVM
+    protected final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String, List<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void subscribe(String cache, Consumer<String> listener) {
+        listeners.computeIfAbsent(cache, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /* Calls the listeners of the cache, unless the change was published by this node */
+    protected void deliver(String node, String cache, String key) {
+        if (nodeId.equals(node)) {
+            return;
+        }
+        List<Consumer<String>> cacheListeners = listeners.get(cache);
+        if (cacheListeners == null) {
+            return;
+        }
+        for (Consumer<String> listener : cacheListeners) {
+            try {
+                listener.accept(key);
+            } catch (RuntimeException e) {
+                logger.error("Invalidation of " + cache + " " + key + " failed", e);
+            }
+        }
+    }
+
+    /* Runs the task when the current transaction commits, or right away if there is none */
+    protected void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+}
@@ -23,6 +23,8 @@ public interface BaseService<T> {
 
     T save(T entity);
 
+    List<T> saveAll(List<T> entities);
+
     void delete(Long id);
 
     List<T> listAll();
@@ -15,11 +15,13 @@
 package net.maritimecloud.identityregistry.services;
 
 import com.google.common.collect.Lists;
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
 import net.maritimecloud.identityregistry.model.database.TimestampModel;
 import net.maritimecloud.identityregistry.utils.AccessControlUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.GenericTypeResolver;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Arrays;
@@ -34,32 +36,20 @@ public abstract class BaseServiceImpl<T extends TimestampModel> implements BaseS
     @Autowired
     protected AccessControlUtil accessControlUtil;
 
+    @Autowired
+    protected InvalidationBus invalidationBus;
+
+    // Name of the cache changes are published to on the invalidation bus, e.g. "vessel" for BaseServiceImpl<Vessel>
+    protected final String cacheName = GenericTypeResolver.resolveTypeArgument(getClass(), BaseServiceImpl.class)
+            .getSimpleName().toLowerCase();
+
     protected boolean isAuthorized() {
         return accessControlUtil.hasAnyRoles(authorizedRoles);
     }
 
-    protected T filterResult(T data) {
-        if (data != null && data.hasSensitiveFields()) {
-            // If not authorized to see all we clean the object for sensitive data.
-            if (!isAuthorized()) {
-                logger.debug("Clearing Sensitive Fields");
-                data.clearSensitiveFields();
-            }
-        }
-        return data;
-    }
-
-    protected List<T> filterResult(List<T> data) {
-        if (data != null && !data.isEmpty() && data.get(0).hasSensitiveFields()) {
-            // If not authorized to see all we clean the object for sensitive data.
-            if (!isAuthorized()) {
-                logger.debug("Clearing Sensitive Fields");
-                for (T entity : data) {
-                    entity.clearSensitiveFields();
-                }
-            }
-        }
-        return data;
+    /* Name of the view the caller gets of the data, part of ETags since sensitive fields are cleared for some callers */
+    protected String getView() {
+        return isAuthorized() ? "full" : ResourceVersion.PUBLIC_VIEW;
     }
 
     public List<T> listAll() {
@@ -67,19 +57,30 @@ public abstract class BaseServiceImpl<T extends TimestampModel> implements BaseS
     }
 
     public T getById(Long id) {
-        T ret = getRepository().findOne(id);
-        ret = filterResult(ret);
-        return ret;
+        return getRepository().findOne(id);
     }
 
     @Transactional
     public T save(T entity) {
         logger.debug("Just saved entity");
-        return getRepository().save(entity);
+        T ret = getRepository().save(entity);
+        invalidationBus.publish(cacheName, String.valueOf(ret.getId()));
+        return ret;
+    }
+
+    @Transactional
+    public List<T> saveAll(List<T> entities) {
+        logger.debug("Just saved " + entities.size() + " entities");
+        List<T> ret = Lists.newArrayList(getRepository().save(entities));
+        for (T entity : ret) {
+            invalidationBus.publish(cacheName, String.valueOf(entity.getId()));
+        }
+        return ret;
     }
 
     @Transactional
     public void delete(Long id) {
         getRepository().delete(id);
+        invalidationBus.publish(cacheName, String.valueOf(id));
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stores binary data keyed by the SHA-256 of its content, so identical data is only stored once.
+ */
+public interface BlobStore {
+    /* Stores the data if it is not already there and returns its key. Storing existing data again counts as a new store. */
+    String put(byte[] data) throws IOException;
+
+    boolean exists(String key);
+
+    /* Returns the size of the blob in bytes, or -1 if it doesn't exist */
+    long getSize(String key);
+
+    void writeTo(String key, WritableByteChannel target) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    /* Deletes the blob unless it has been stored after the given time in milliseconds. Returns true if it was deleted. */
+    boolean deleteIfStoredBefore(String key, long time) throws IOException;
+
+    /* Returns the blob as a local file if the store keeps it in one, otherwise null */
+    File getLocalFile(String key);
+}
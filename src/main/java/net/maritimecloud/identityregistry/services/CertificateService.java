@@ -26,6 +26,12 @@ public interface CertificateService {
 
     Certificate saveCertificate(Certificate certificate);
 
+    /* Saves the signed certificate and queues the certificate.issued webhook event in the same transaction */
+    Certificate issueCertificate(Certificate certificate);
+
+    /* Saves the revoked certificate and sends the revocation to the revocation streams */
+    Certificate revokeCertificate(Certificate certificate);
+
     void deleteCertificate(Long id);
 
     List<Certificate> listVesselCertificate(Vessel vessel);
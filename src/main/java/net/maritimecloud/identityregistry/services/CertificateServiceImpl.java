@@ -14,21 +14,67 @@
  */
 package net.maritimecloud.identityregistry.services;
 
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import net.maritimecloud.identityregistry.model.database.Certificate;
+import net.maritimecloud.identityregistry.model.database.RevocationEvent;
 import net.maritimecloud.identityregistry.model.database.entities.Device;
+import net.maritimecloud.identityregistry.model.database.entities.EntityModel;
 import net.maritimecloud.identityregistry.model.database.entities.Vessel;
 import net.maritimecloud.identityregistry.model.database.entities.User;
 import net.maritimecloud.identityregistry.repositories.CertificateRepository;
+import net.maritimecloud.identityregistry.repositories.DeviceRepository;
+import net.maritimecloud.identityregistry.repositories.RevocationEventRepository;
+import net.maritimecloud.identityregistry.repositories.ServiceRepository;
+import net.maritimecloud.identityregistry.repositories.UserRepository;
+import net.maritimecloud.identityregistry.repositories.VesselRepository;
 
 @Service
 public class CertificateServiceImpl implements CertificateService {
     private CertificateRepository CertificateRepository;
 
+    private RevocationEventRepository revocationEventRepository;
+
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    @Autowired
+    private RevocationStreamService revocationStreamService;
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @Autowired
+    private OrganizationService organizationService;
+
+    @Autowired
+    private OrganizationDirectoryService organizationDirectoryService;
+
+    // Used to touch the owner of a certificate
+    @Autowired
+    private VesselRepository vesselRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private ServiceRepository serviceRepository;
+
+    @Autowired
+    public void setRevocationEventRepository(RevocationEventRepository revocationEventRepository) {
+        this.revocationEventRepository = revocationEventRepository;
+    }
+
     @Autowired
     public void setDeviceRepository(CertificateRepository CertificateRepository) {
         this.CertificateRepository = CertificateRepository;
@@ -40,8 +86,87 @@ public class CertificateServiceImpl implements CertificateService {
     }
 
     @Override
+    @Transactional
     public Certificate saveCertificate(Certificate certificate) {
-        return CertificateRepository.save(certificate);
+        Certificate ret = CertificateRepository.save(certificate);
+        // Certificates are saved when issued and when revoked
+        invalidationBus.publish("certificate", String.valueOf(ret.getId()));
+        // The certificates are part of the json of their owner, and are synced with it through the change feed
+        if (ret.getOrganization() != null) {
+            organizationService.bumpDataVersion(ret.getOrganization().getId());
+            organizationDirectoryService.invalidate();
+        } else {
+            touchOwner(ret);
+        }
+        return ret;
+    }
+
+    @Override
+    @Transactional
+    public Certificate issueCertificate(Certificate certificate) {
+        Certificate ret = saveCertificate(certificate);
+        Map<String, Object> data = new HashMap<>();
+        data.put("serialNumber", ret.getId());
+        data.put("mrn", getOwnerMrn(ret));
+        data.put("start", ret.getStart());
+        data.put("end", ret.getEnd());
+        webhookService.publish(getOwnerOrgId(ret), "certificate.issued", data);
+        return ret;
+    }
+
+    @Override
+    @Transactional
+    public Certificate revokeCertificate(Certificate certificate) {
+        Certificate ret = saveCertificate(certificate);
+        revocationStreamService.revoked(revocationEventRepository.save(new RevocationEvent(ret)));
+        Map<String, Object> data = new HashMap<>();
+        data.put("serialNumber", ret.getId());
+        data.put("mrn", getOwnerMrn(ret));
+        data.put("revokedAt", ret.getRevokedAt());
+        data.put("revokeReason", ret.getRevokeReason());
+        webhookService.publish(getOwnerOrgId(ret), "certificate.revoked", data);
+        return ret;
+    }
+
+    /* Returns the id of the organization the certificate, or the entity it was issued to, belongs to */
+    private Long getOwnerOrgId(Certificate certificate) {
+        if (certificate.getOrganization() != null) {
+            return certificate.getOrganization().getId();
+        }
+        EntityModel owner = getOwner(certificate);
+        return owner != null ? owner.getIdOrganization() : null;
+    }
+
+    private String getOwnerMrn(Certificate certificate) {
+        if (certificate.getOrganization() != null) {
+            return certificate.getOrganization().getMrn();
+        }
+        EntityModel owner = getOwner(certificate);
+        return owner != null ? owner.getMrn() : null;
+    }
+
+    private void touchOwner(Certificate certificate) {
+        Date now = new Date();
+        if (certificate.getVessel() != null) {
+            vesselRepository.touch(certificate.getVessel().getId(), now);
+        } else if (certificate.getUser() != null) {
+            userRepository.touch(certificate.getUser().getId(), now);
+        } else if (certificate.getDevice() != null) {
+            deviceRepository.touch(certificate.getDevice().getId(), now);
+        } else if (certificate.getService() != null) {
+            serviceRepository.touch(certificate.getService().getId(), now);
+        }
+    }
+
+    private EntityModel getOwner(Certificate certificate) {
+        if (certificate.getVessel() != null) {
+            return certificate.getVessel();
+        } else if (certificate.getUser() != null) {
+            return certificate.getUser();
+        } else if (certificate.getDevice() != null) {
+            return certificate.getDevice();
+        }
+        return certificate.getService();
     }
 
     @Override
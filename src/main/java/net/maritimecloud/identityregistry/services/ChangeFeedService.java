@@ -0,0 +1,34 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
+import net.maritimecloud.identityregistry.model.database.entities.EntityModel;
+import net.maritimecloud.identityregistry.repositories.EntityRepository;
+import net.maritimecloud.identityregistry.utils.ChangeCursor;
+
+public interface ChangeFeedService {
+    /* Leaves a tombstone for the entity, call in the transaction deleting it */
+    void recordDeletion(String type, EntityModel entity);
+
+    /* Returns the changes to entities of the type since the cursor, in the organization or in all if orgId is null */
+    <T extends EntityModel> ChangeSet<T> getChanges(String type, EntityRepository<T> repository, Long orgId, ChangeCursor cursor, int limit);
+
+    /* True if tombstones the cursor has not seen yet may have been deleted, so the client must sync from the start */
+    boolean isExpired(ChangeCursor cursor);
+
+    /* Deletes tombstones older than the retention. Called by the scheduler. */
+    void deleteOldTombstones();
+}
@@ -0,0 +1,138 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
+import net.maritimecloud.identityregistry.model.database.TimestampModel;
+import net.maritimecloud.identityregistry.model.database.Tombstone;
+import net.maritimecloud.identityregistry.model.database.entities.EntityModel;
+import net.maritimecloud.identityregistry.repositories.EntityRepository;
+import net.maritimecloud.identityregistry.repositories.TombstoneRepository;
+import net.maritimecloud.identityregistry.utils.ChangeCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads changed entities and tombstones as two streams ordered by (updated_at, id) and merges them by time.
+ *
+ * Only changes older than the settle time are returned. updated_at is set before the transaction commits, so
+ * a row can become visible after rows with a later updated_at; the settle time leaves room for that, and for
+ * updated_at being stored with second precision.
+ */
+@Service
+@Transactional(readOnly = true)
+public class ChangeFeedServiceImpl implements ChangeFeedService {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeFeedServiceImpl.class);
+
+    @Value("${net.maritimecloud.idreg.change-feed.settle-time:5000}")
+    private long settleTime;
+
+    @Value("${net.maritimecloud.idreg.change-feed.tombstone-retention:7776000000}")
+    private long tombstoneRetention;
+
+    private TombstoneRepository tombstoneRepository;
+
+    @Autowired
+    public void setTombstoneRepository(TombstoneRepository tombstoneRepository) {
+        this.tombstoneRepository = tombstoneRepository;
+    }
+
+    @Override
+    @Transactional
+    public void recordDeletion(String type, EntityModel entity) {
+        tombstoneRepository.save(new Tombstone(type, entity.getId(), entity.getMrn(), entity.getIdOrganization()));
+    }
+
+    @Override
+    public <T extends EntityModel> ChangeSet<T> getChanges(String type, EntityRepository<T> repository, Long orgId, ChangeCursor cursor, int limit) {
+        Date until = new Date(System.currentTimeMillis() - settleTime);
+        // One more than asked for, to know if there are more
+        PageRequest page = new PageRequest(0, limit + 1);
+        List<T> changed;
+        List<Tombstone> deleted;
+        if (orgId == null) {
+            changed = repository.findChangedSince(cursor.getChangedAt(), cursor.getChangedId(), until, page);
+            deleted = tombstoneRepository.findDeletedSince(type, cursor.getDeletedAt(), cursor.getDeletedId(), until, page);
+        } else {
+            changed = repository.findChangedSinceInOrg(cursor.getChangedAt(), cursor.getChangedId(), until, orgId, page);
+            deleted = tombstoneRepository.findDeletedSinceInOrg(type, cursor.getDeletedAt(), cursor.getDeletedId(), until, orgId, page);
+        }
+
+        // Take the earliest of the two streams until the page is full
+        int changedCount = 0;
+        int deletedCount = 0;
+        while (changedCount + deletedCount < limit && (changedCount < changed.size() || deletedCount < deleted.size())) {
+            if (deletedCount >= deleted.size() || (changedCount < changed.size()
+                    && !changed.get(changedCount).getUpdatedAt().after(deleted.get(deletedCount).getUpdatedAt()))) {
+                changedCount++;
+            } else {
+                deletedCount++;
+            }
+        }
+        boolean moreChanged = changedCount < changed.size();
+        boolean moreDeleted = deletedCount < deleted.size();
+
+        // A stream that has been read to the end is moved up to until, so cursors don't go stale while nothing changes
+        Date changedAt = cursor.getChangedAt();
+        long changedId = cursor.getChangedId();
+        if (moreChanged && changedCount > 0) {
+            TimestampModel last = changed.get(changedCount - 1);
+            changedAt = last.getUpdatedAt();
+            changedId = last.getId();
+        } else if (!moreChanged && until.after(changedAt)) {
+            changedAt = until;
+            changedId = Long.MAX_VALUE;
+        }
+        Date deletedAt = cursor.getDeletedAt();
+        long deletedId = cursor.getDeletedId();
+        if (moreDeleted && deletedCount > 0) {
+            Tombstone last = deleted.get(deletedCount - 1);
+            deletedAt = last.getUpdatedAt();
+            deletedId = last.getId();
+        } else if (!moreDeleted && until.after(deletedAt)) {
+            deletedAt = until;
+            deletedId = Long.MAX_VALUE;
+        }
+
+        ChangeCursor next = new ChangeCursor(changedAt, changedId, deletedAt, deletedId);
+        return new ChangeSet<>(new ArrayList<>(changed.subList(0, changedCount)), new ArrayList<>(deleted.subList(0, deletedCount)),
+                next.toString(), moreChanged || moreDeleted);
+    }
+
+    @Override
+    public boolean isExpired(ChangeCursor cursor) {
+        return cursor != ChangeCursor.START && cursor.getDeletedAt().getTime() < System.currentTimeMillis() - tombstoneRetention;
+    }
+
+    @Override
+    @Transactional
+    @Scheduled(fixedDelayString = "${net.maritimecloud.idreg.change-feed.cleanup-interval:86400000}")
+    public void deleteOldTombstones() {
+        int deleted = tombstoneRepository.deleteOlderThan(new Date(System.currentTimeMillis() - tombstoneRetention));
+        if (deleted > 0) {
+            logger.info("Deleted " + deleted + " tombstones older than " + tombstoneRetention + " ms");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.CacheInvalidation;
+import net.maritimecloud.identityregistry.repositories.CacheInvalidationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Invalidation bus using a change-log table. Changes are inserted in the same transaction as the data, and every
+ * node polls for rows above its high-water mark, so caches converge within the poll interval.
+ *
+ * Ids are allocated when a row is inserted, not when it commits, so a row can show up below rows that have already
+ * been read. The high-water mark is therefore only moved past rows older than the grace period, and rows above it
+ * that have been delivered are remembered so they are not delivered twice. Each poll reads on past the mark until
+ * it runs out of rows, so only the mark waits for the grace period, not the delivery.
+ */
+@Service
+@ConditionalOnProperty(name = "net.maritimecloud.idreg.invalidation-bus.type", havingValue = "database", matchIfMissing = true)
+public class DatabaseInvalidationBus extends AbstractInvalidationBus {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseInvalidationBus.class);
+
+    @Value("${net.maritimecloud.idreg.invalidation-bus.batch-size:500}")
+    private int batchSize;
+
+    @Value("${net.maritimecloud.idreg.invalidation-bus.grace-period:30000}")
+    private long gracePeriod;
+
+    @Value("${net.maritimecloud.idreg.invalidation-bus.retention:3600000}")
+    private long retention;
+
+    private CacheInvalidationRepository invalidationRepository;
+
+    private long highWaterMark;
+
+    // Ids above the high-water mark that have already been delivered
+    private final Set<Long> delivered = new HashSet<>();
+
+    @Autowired
+    public void setInvalidationRepository(CacheInvalidationRepository invalidationRepository) {
+        this.invalidationRepository = invalidationRepository;
+    }
+
+    @PostConstruct
+    public void init() {
+        // Caches are loaded from scratch at startup, so older changes don't matter
+        Long maxId = invalidationRepository.findMaxId();
+        highWaterMark = maxId != null ? maxId : 0;
+    }
+
+    @Override
+    public void publish(String cache, String key) {
+        CacheInvalidation invalidation = new CacheInvalidation();
+        invalidation.setCacheName(cache);
+        invalidation.setCacheKey(key);
+        invalidation.setNode(nodeId);
+        invalidationRepository.save(invalidation);
+    }
+
+    @Scheduled(fixedDelayString = "${net.maritimecloud.idreg.invalidation-bus.poll-interval:1000}")
+    public synchronized void poll() {
+        Date settled = new Date(System.currentTimeMillis() - gracePeriod);
+        boolean advance = true;
+        // Pages are read after the last row read, not after the mark, so a burst of unsettled rows doesn't hide
+        // the rows after it
+        long readFrom = highWaterMark;
+        List<CacheInvalidation> invalidations;
+        do {
+            invalidations = invalidationRepository.findByIdGreaterThanOrderByIdAsc(readFrom, new PageRequest(0, batchSize));
+            for (CacheInvalidation invalidation : invalidations) {
+                if (delivered.add(invalidation.getId())) {
+                    deliver(invalidation.getNode(), invalidation.getCacheName(), invalidation.getCacheKey());
+                }
+                // Stop moving the mark at the first row that rows committed later could still be inserted below
+                advance = advance && invalidation.getCreatedAt().before(settled);
+                if (advance) {
+                    highWaterMark = invalidation.getId();
+                }
+                readFrom = invalidation.getId();
+            }
+        } while (invalidations.size() == batchSize);
+        delivered.removeIf(id -> id <= highWaterMark);
+    }
+
+    // The delete runs in the repository's own transaction, as a transactional bean would be proxied through the
+    // InvalidationBus interface and the scheduled methods, which are not on it, could not be called
+    @Scheduled(fixedDelayString = "${net.maritimecloud.idreg.invalidation-bus.retention:3600000}")
+    public void deleteOld() {
+        int deleted = invalidationRepository.deleteOlderThan(new Date(System.currentTimeMillis() - retention));
+        if (deleted > 0) {
+            logger.debug("Deleted " + deleted + " old cache invalidations");
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import org.springframework.mail.SimpleMailMessage;
+
+public interface EmailQueueService {
+    void enqueue(SimpleMailMessage msg);
+
+    /* Queues an email whose text contains QueuedEmail.SECRET_PLACEHOLDER, which is replaced by the secret when sent */
+    void enqueue(SimpleMailMessage msg, String secret);
+
+    long getQueueDepth();
+
+    /* Sends a batch of queued emails. Called by the scheduler. */
+    void sendPending();
+}
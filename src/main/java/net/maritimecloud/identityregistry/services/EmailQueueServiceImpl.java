@@ -0,0 +1,210 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.DeadLetterEmail;
+import net.maritimecloud.identityregistry.model.database.QueuedEmail;
+import net.maritimecloud.identityregistry.repositories.DeadLetterEmailRepository;
+import net.maritimecloud.identityregistry.repositories.QueuedEmailRepository;
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
+import net.maritimecloud.identityregistry.utils.SecretEncryptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class EmailQueueServiceImpl implements EmailQueueService {
+    private static final Logger logger = LoggerFactory.getLogger(EmailQueueServiceImpl.class);
+
+    @Value("${net.maritimecloud.idreg.email-queue.batch-size:20}")
+    private int batchSize;
+    @Value("${net.maritimecloud.idreg.email-queue.max-attempts:8}")
+    private int maxAttempts;
+    @Value("${net.maritimecloud.idreg.email-queue.initial-backoff:30000}")
+    private long initialBackoff;
+    @Value("${net.maritimecloud.idreg.email-queue.max-backoff:3600000}")
+    private long maxBackoff;
+    @Value("${net.maritimecloud.idreg.email-queue.claim-timeout:300000}")
+    private long claimTimeout;
+
+    private QueuedEmailRepository queuedEmailRepository;
+
+    private DeadLetterEmailRepository deadLetterEmailRepository;
+
+    @Autowired
+    private MailSender mailSender;
+
+    @Autowired
+    private MetricsUtil metricsUtil;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private SecretEncryptor secretEncryptor;
+
+    @Autowired
+    public void setQueuedEmailRepository(QueuedEmailRepository queuedEmailRepository) {
+        this.queuedEmailRepository = queuedEmailRepository;
+    }
+
+    @Autowired
+    public void setDeadLetterEmailRepository(DeadLetterEmailRepository deadLetterEmailRepository) {
+        this.deadLetterEmailRepository = deadLetterEmailRepository;
+    }
+
+    @Override
+    @Transactional
+    public void enqueue(SimpleMailMessage msg) {
+        enqueue(msg, null);
+    }
+
+    @Override
+    @Transactional
+    public void enqueue(SimpleMailMessage msg, String secret) {
+        QueuedEmail email = new QueuedEmail();
+        email.setRecipient(String.join(",", msg.getTo()));
+        email.setSender(msg.getFrom());
+        email.setSubject(msg.getSubject());
+        email.setText(msg.getText());
+        email.setSecret(secretEncryptor.encrypt(secret));
+        email.setAttempts(0);
+        email.setNextAttemptAt(new Date());
+        queuedEmailRepository.save(email);
+        metricsUtil.increment("email.queued");
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queuedEmailRepository.count();
+    }
+
+    /**
+     * Sends the emails that are due in one batch, so the SMTP connection is reused for the whole batch.
+     * Each email is claimed first, so it is only sent by one instance. Emails that fail are retried with
+     * exponential backoff, and moved to the dead letters, without their secret, when they run out of attempts.
+     */
+    @Override
+    @Scheduled(initialDelayString = "${net.maritimecloud.idreg.email-queue.poll-interval:5000}",
+            fixedDelayString = "${net.maritimecloud.idreg.email-queue.poll-interval:5000}")
+    public void sendPending() {
+        Date now = new Date();
+        List<QueuedEmail> emails = queuedEmailRepository.findDue(now, new PageRequest(0, batchSize));
+        Map<SimpleMailMessage, QueuedEmail> messages = new IdentityHashMap<>();
+        for (QueuedEmail email : emails) {
+            if (queuedEmailRepository.claim(email.getId(), new Date(now.getTime() + claimTimeout), now) == 0) {
+                continue;
+            }
+            SimpleMailMessage msg;
+            try {
+                msg = toMessage(email);
+            } catch (IllegalArgumentException e) {
+                handleFailure(email, e);
+                continue;
+            }
+            messages.put(msg, email);
+        }
+        if (!messages.isEmpty()) {
+            Map<Object, Exception> failed = Collections.emptyMap();
+            long start = System.nanoTime();
+            try {
+                mailSender.send(messages.keySet().toArray(new SimpleMailMessage[messages.size()]));
+            } catch (MailSendException e) {
+                // Only the messages listed as failed were not sent
+                failed = e.getFailedMessages();
+                if (failed.isEmpty()) {
+                    failed = failAll(messages, e);
+                }
+            } catch (MailException e) {
+                failed = failAll(messages, e);
+            } finally {
+                metricsUtil.recordTime("email.send", start);
+            }
+            long sentAt = System.currentTimeMillis();
+            for (Map.Entry<SimpleMailMessage, QueuedEmail> entry : messages.entrySet()) {
+                QueuedEmail email = entry.getValue();
+                Exception error = failed.get(entry.getKey());
+                if (error == null) {
+                    queuedEmailRepository.delete(email);
+                    metricsUtil.increment("email.sent");
+                    metricsUtil.recordValue("email.delivery-delay", sentAt - email.getCreatedAt().getTime());
+                } else {
+                    handleFailure(email, error);
+                }
+            }
+        }
+        gaugeService.submit("email.queue.depth", getQueueDepth());
+    }
+
+    /* Builds the message to send, with the secret put back in the text */
+    private SimpleMailMessage toMessage(QueuedEmail email) {
+        SimpleMailMessage msg = new SimpleMailMessage();
+        msg.setTo(email.getRecipient().split(","));
+        msg.setFrom(email.getSender());
+        msg.setSubject(email.getSubject());
+        String text = email.getText();
+        if (email.getSecret() != null && text != null) {
+            text = text.replace(QueuedEmail.SECRET_PLACEHOLDER, secretEncryptor.decrypt(email.getSecret()));
+        }
+        msg.setText(text);
+        return msg;
+    }
+
+    private Map<Object, Exception> failAll(Map<SimpleMailMessage, QueuedEmail> messages, Exception e) {
+        Map<Object, Exception> failed = new IdentityHashMap<>();
+        for (SimpleMailMessage msg : messages.keySet()) {
+            failed.put(msg, e);
+        }
+        return failed;
+    }
+
+    private void handleFailure(QueuedEmail email, Exception e) {
+        int attempts = email.getAttempts() + 1;
+        email.setAttempts(attempts);
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        email.setLastError(error.length() > 2000 ? error.substring(0, 2000) : error);
+        metricsUtil.increment("email.failed");
+        // Saving or deleting the email releases the claim
+        email.setClaimedUntil(null);
+        if (attempts >= maxAttempts) {
+            logger.error("Giving up on email to " + email.getRecipient() + " after " + attempts + " attempts", e);
+            deadLetterEmailRepository.save(new DeadLetterEmail(email));
+            queuedEmailRepository.delete(email);
+            metricsUtil.increment("email.dead-letter");
+        } else {
+            // Exponential backoff, capped at maxBackoff
+            long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempts - 1, 20));
+            email.setNextAttemptAt(new Date(System.currentTimeMillis() + backoff));
+            logger.warn("Sending email to " + email.getRecipient() + " failed, retrying in " + backoff + " ms: " + error);
+            queuedEmailRepository.save(email);
+        }
+    }
+}
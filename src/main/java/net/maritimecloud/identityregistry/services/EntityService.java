@@ -14,6 +14,14 @@
  */
 package net.maritimecloud.identityregistry.services;
 
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
+import net.maritimecloud.identityregistry.model.data.EntityOwnership;
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
+import net.maritimecloud.identityregistry.model.database.Certificate;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.utils.ChangeCursor;
+
+import java.util.Collection;
 import java.util.List;
 
 public interface EntityService<T> extends BaseService<T> {
@@ -22,4 +30,27 @@ public interface EntityService<T> extends BaseService<T> {
     void deleteByOrg(Long id);
 
     T getByMrn(String mrn);
+
+    /* Returns the entity if it belongs to the approved organization, otherwise null */
+    T getByMrnInOrg(String mrn, String orgMrn);
+
+    /* Same as getByMrnInOrg, with what is serialized loaded up front. Use when returning the entity. */
+    T getDetailedByMrnInOrg(String mrn, String orgMrn);
+
+    /* Returns whether the entity exists and belongs to the approved organization */
+    EntityOwnership getOwnership(String mrn, String orgMrn);
+
+    /* Returns the certificate if it was issued to the entity in the approved organization, otherwise null */
+    Certificate getCertificateInOrg(Long certId, String mrn, String orgMrn);
+
+    List<T> getByMrns(Collection<String> mrns);
+
+    /* Returns the entities changed and deleted since the cursor, in the organization or in all if orgId is null */
+    ChangeSet<T> getChanges(Long orgId, ChangeCursor cursor, int limit);
+
+    /* Returns the version of the entity without loading it, or null if it doesn't belong to the approved organization */
+    ResourceVersion getVersion(String orgMrn, String mrn);
+
+    /* Returns the version of the list of entities in the organization */
+    ResourceVersion getListVersion(Organization org);
 }
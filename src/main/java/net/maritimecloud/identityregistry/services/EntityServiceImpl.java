@@ -14,31 +14,169 @@
  */
 package net.maritimecloud.identityregistry.services;
 
-import net.maritimecloud.identityregistry.model.database.TimestampModel;
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
+import net.maritimecloud.identityregistry.model.data.EntityOwnership;
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
+import net.maritimecloud.identityregistry.model.database.Certificate;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.model.database.entities.EntityModel;
 import net.maritimecloud.identityregistry.repositories.EntityRepository;
+import net.maritimecloud.identityregistry.utils.ChangeCursor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public abstract class EntityServiceImpl<T extends TimestampModel> extends BaseServiceImpl<T> implements EntityService<T> {
+public abstract class EntityServiceImpl<T extends EntityModel> extends BaseServiceImpl<T> implements EntityService<T> {
+
+    // Max number of parameters put in a single IN (...) clause
+    private static final int MRN_LOOKUP_CHUNK_SIZE = 500;
 
     protected EntityRepository<T> repository;
 
+    @Autowired
+    private MrnIndexService mrnIndexService;
+
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
+    @Autowired
+    private WebhookService webhookService;
+
     public List<T> listFromOrg(Long id) {
-        return this.getRepository().findByidOrganization(id);
+        return this.getRepository().findDistinctByidOrganization(id);
+    }
+
+    @Override
+    @Transactional
+    public T save(T entity) {
+        boolean created = entity.getId() == null;
+        if (!created) {
+            // Make sure updated_at changes when only child objects like vessel attributes have changed
+            entity.touch();
+        }
+        T ret = super.save(entity);
+        mrnIndexService.put(cacheName, ret);
+        publishEvent(created ? "created" : "updated", ret);
+        return ret;
+    }
+
+    @Override
+    @Transactional
+    public List<T> saveAll(List<T> entities) {
+        List<Boolean> created = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            created.add(entity.getId() == null);
+        }
+        List<T> ret = super.saveAll(entities);
+        for (int i = 0; i < ret.size(); i++) {
+            mrnIndexService.put(cacheName, ret.get(i));
+            publishEvent(created.get(i) ? "created" : "updated", ret.get(i));
+        }
+        return ret;
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        T entity = getRepository().findOne(id);
+        if (entity != null) {
+            changeFeedService.recordDeletion(cacheName, entity);
+            publishEvent("deleted", entity);
+        }
+        super.delete(id);
+        mrnIndexService.remove(cacheName, id);
+    }
+
+    /* Queues a webhook event like "vessel.created" for the organization of the entity */
+    private void publishEvent(String action, T entity) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", entity.getId());
+        data.put("mrn", entity.getMrn());
+        webhookService.publish(entity.getIdOrganization(), cacheName + "." + action, data);
     }
 
     @Transactional
     public void deleteByOrg(Long id) {
+        for (T entity : this.getRepository().findByidOrganization(id)) {
+            changeFeedService.recordDeletion(cacheName, entity);
+        }
         this.getRepository().deleteByidOrganization(id);
+        mrnIndexService.removeByOrg(cacheName, id);
+        invalidationBus.publish(cacheName, null);
     }
 
     public EntityRepository<T> getRepository() {
         return this.repository;
     }
 
+    public ChangeSet<T> getChanges(Long orgId, ChangeCursor cursor, int limit) {
+        return changeFeedService.getChanges(cacheName, getRepository(), orgId, cursor, limit);
+    }
+
+    public ResourceVersion getVersion(String orgMrn, String mrn) {
+        List<Object[]> rows = this.getRepository().findVersionByMrnInOrg(mrn, orgMrn);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        // Issuing or revoking a certificate also changes updatedAt of the entity
+        Date updatedAt = (Date) row[2];
+        return new ResourceVersion((Long) row[1], cacheName + "-" + row[0] + "-" + time(updatedAt), getView(), updatedAt);
+    }
+
+    public ResourceVersion getListVersion(Organization org) {
+        Object[] row = this.getRepository().findListVersion(org.getId()).get(0);
+        // Adding or changing an entity moves one of the maximums, deleting one lowers the count
+        Date updatedAt = (Date) row[3];
+        return new ResourceVersion(org.getId(), cacheName + "s-" + org.getId() + "-" + row[0] + "-" + row[1] + "-" + row[2]
+                + "-" + time(updatedAt), getView(), updatedAt);
+    }
+
+    private static long time(Date date) {
+        return date != null ? date.getTime() : 0;
+    }
+
     public T getByMrn(String mrn) {
         return this.getRepository().getByMrn(mrn);
     }
 
+    public T getByMrnInOrg(String mrn, String orgMrn) {
+        return this.getRepository().findByMrnInOrg(mrn, orgMrn);
+    }
+
+    public T getDetailedByMrnInOrg(String mrn, String orgMrn) {
+        return this.getRepository().findDetailedByMrnInOrg(mrn, orgMrn);
+    }
+
+    public EntityOwnership getOwnership(String mrn, String orgMrn) {
+        List<Long> orgIds = this.getRepository().findApprovedOrganizationId(orgMrn);
+        if (orgIds.isEmpty()) {
+            return EntityOwnership.ORGANIZATION_NOT_FOUND;
+        }
+        List<Long> entityOrgIds = this.getRepository().findIdOrganizationByMrn(mrn);
+        if (entityOrgIds.isEmpty()) {
+            return EntityOwnership.ENTITY_NOT_FOUND;
+        }
+        return orgIds.get(0).equals(entityOrgIds.get(0)) ? EntityOwnership.OWNED : EntityOwnership.OTHER_ORGANIZATION;
+    }
+
+    public Certificate getCertificateInOrg(Long certId, String mrn, String orgMrn) {
+        return this.getRepository().findCertificateInOrg(certId, mrn, orgMrn);
+    }
+
+    public List<T> getByMrns(Collection<String> mrns) {
+        List<String> mrnList = new ArrayList<>(mrns);
+        List<T> ret = new ArrayList<>(mrnList.size());
+        for (int i = 0; i < mrnList.size(); i += MRN_LOOKUP_CHUNK_SIZE) {
+            ret.addAll(this.getRepository().findByMrnIn(mrnList.subList(i, Math.min(i + MRN_LOOKUP_CHUNK_SIZE, mrnList.size()))));
+        }
+        return ret;
+    }
+
 }
@@ -0,0 +1,168 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.xml.bind.DatatypeConverter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Blob store keeping each blob in a file under the configured directory. Files are spread over
+ * subdirectories named after the first characters of the key, e.g. ab/cd/abcd1234...
+ */
+@Service
+@ConditionalOnProperty(name = "net.maritimecloud.idreg.blob-store.type", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemBlobStore implements BlobStore {
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemBlobStore.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    @Value("${net.maritimecloud.idreg.blob-store.path:blobs}")
+    private String path;
+
+    private Path root;
+
+    // Makes checking if a blob is there and deleting it atomic with respect to storing it again
+    private final Object lock = new Object();
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(path).toAbsolutePath();
+        Files.createDirectories(root);
+        logger.info("Storing blobs in " + root);
+    }
+
+    @Override
+    public String put(byte[] data) throws IOException {
+        String key = sha256(data);
+        Path file = getPath(key);
+        synchronized (lock) {
+            if (Files.exists(file)) {
+                // Marks the blob as recently stored, see deleteIfStoredBefore
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                return key;
+            }
+        }
+        Files.createDirectories(file.getParent());
+        // Write to a temporary file first, so a blob is never seen half written
+        Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+        try {
+            Files.write(tmp, data);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Stored concurrently with the same content
+            logger.debug("Blob " + key + " already stored");
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return key;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return isValidKey(key) && Files.exists(getPath(key));
+    }
+
+    @Override
+    public long getSize(String key) {
+        if (!isValidKey(key)) {
+            return -1;
+        }
+        try {
+            return Files.size(getPath(key));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Copies the blob using FileChannel.transferTo, which lets the OS copy the file without passing
+     * the data through the heap when the target is a socket or file.
+     */
+    @Override
+    public void writeTo(String key, WritableByteChannel target) throws IOException {
+        if (!isValidKey(key)) {
+            throw new IOException("Invalid blob key: " + key);
+        }
+        try (FileChannel channel = FileChannel.open(getPath(key), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (isValidKey(key)) {
+            Files.deleteIfExists(getPath(key));
+        }
+    }
+
+    @Override
+    public boolean deleteIfStoredBefore(String key, long time) throws IOException {
+        if (!isValidKey(key)) {
+            return false;
+        }
+        Path file = getPath(key);
+        synchronized (lock) {
+            if (!Files.exists(file) || Files.getLastModifiedTime(file).toMillis() >= time) {
+                return false;
+            }
+            return Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public File getLocalFile(String key) {
+        return isValidKey(key) ? getPath(key).toFile() : null;
+    }
+
+    private Path getPath(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    private static boolean isValidKey(String key) {
+        return key != null && KEY_PATTERN.matcher(key).matches();
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-256").digest(data)).toLowerCase();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import java.util.function.Consumer;
+
+/**
+ * Tells the other registry nodes that cached data has changed, so their in-process caches don't go stale.
+ * A change published in a transaction is only sent if it commits.
+ *
+ * Listeners are called with the key that changed, or null if the whole cache should be reloaded. They are only
+ * called for changes published by other nodes, a node updates its own caches directly.
+ */
+public interface InvalidationBus {
+    void publish(String cache, String key);
+
+    void subscribe(String cache, Consumer<String> listener);
+}
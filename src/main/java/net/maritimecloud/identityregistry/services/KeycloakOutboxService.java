@@ -0,0 +1,40 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.IdentityProviderAttribute;
+
+import java.util.List;
+
+public interface KeycloakOutboxService {
+    void createUser(String userMrn, String password, String firstName, String lastName, String email, String orgMrn, String permissions, boolean enabled);
+
+    void updateUser(String userMrn, String firstName, String lastName, String email, String permissions, boolean enabled);
+
+    void deleteUser(String email);
+
+    void createClient(String clientId, String type, String redirectUri, String secret);
+
+    void updateClient(String clientId, String type, String redirectUri, String secret);
+
+    void deleteClient(String clientId);
+
+    void createIdentityProvider(String orgMrn, List<IdentityProviderAttribute> attributes);
+
+    void deleteIdentityProvider(String orgMrn);
+
+    /* Delivers a batch of pending operations to keycloak. Called by the scheduler. */
+    void dispatchPending();
+}
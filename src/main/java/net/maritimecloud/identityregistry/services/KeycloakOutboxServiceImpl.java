@@ -0,0 +1,297 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.maritimecloud.identityregistry.model.database.IdentityProviderAttribute;
+import net.maritimecloud.identityregistry.model.database.KeycloakOutboxEntry;
+import net.maritimecloud.identityregistry.repositories.KeycloakOutboxRepository;
+import net.maritimecloud.identityregistry.utils.KeycloakAdminUtil;
+import net.maritimecloud.identityregistry.utils.SecretEncryptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Service
+public class KeycloakOutboxServiceImpl implements KeycloakOutboxService {
+    private static final Logger logger = LoggerFactory.getLogger(KeycloakOutboxServiceImpl.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Value("${net.maritimecloud.idreg.keycloak-outbox.batch-size:50}")
+    private int batchSize;
+    @Value("${net.maritimecloud.idreg.keycloak-outbox.max-attempts:10}")
+    private int maxAttempts;
+    @Value("${net.maritimecloud.idreg.keycloak-outbox.initial-backoff:5000}")
+    private long initialBackoff;
+    @Value("${net.maritimecloud.idreg.keycloak-outbox.max-backoff:600000}")
+    private long maxBackoff;
+    @Value("${net.maritimecloud.idreg.keycloak-outbox.claim-timeout:300000}")
+    private long claimTimeout;
+
+    private KeycloakOutboxRepository outboxRepository;
+
+    @Autowired
+    private KeycloakAdminUtil keycloakAU;
+
+    @Autowired
+    private SecretEncryptor secretEncryptor;
+
+    @Autowired
+    public void setOutboxRepository(KeycloakOutboxRepository outboxRepository) {
+        this.outboxRepository = outboxRepository;
+    }
+
+    @Override
+    @Transactional
+    public void createUser(String userMrn, String password, String firstName, String lastName, String email, String orgMrn, String permissions, boolean enabled) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("userMrn", userMrn);
+        // Only the encrypted password is stored, and the entry is deleted when it has been delivered
+        args.put("password", secretEncryptor.encrypt(password));
+        args.put("firstName", firstName);
+        args.put("lastName", lastName);
+        args.put("email", email);
+        args.put("orgMrn", orgMrn);
+        args.put("permissions", permissions);
+        args.put("enabled", enabled);
+        enqueue(KeycloakOutboxEntry.CREATE_USER, "user:" + email, args);
+    }
+
+    @Override
+    @Transactional
+    public void updateUser(String userMrn, String firstName, String lastName, String email, String permissions, boolean enabled) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("userMrn", userMrn);
+        args.put("firstName", firstName);
+        args.put("lastName", lastName);
+        args.put("email", email);
+        args.put("permissions", permissions);
+        args.put("enabled", enabled);
+        enqueue(KeycloakOutboxEntry.UPDATE_USER, "user:" + email, args);
+    }
+
+    @Override
+    @Transactional
+    public void deleteUser(String email) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("email", email);
+        enqueue(KeycloakOutboxEntry.DELETE_USER, "user:" + email, args);
+    }
+
+    @Override
+    @Transactional
+    public void createClient(String clientId, String type, String redirectUri, String secret) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("clientId", clientId);
+        args.put("type", type);
+        args.put("redirectUri", redirectUri);
+        args.put("secret", secret);
+        enqueue(KeycloakOutboxEntry.CREATE_CLIENT, "client:" + clientId, args);
+    }
+
+    @Override
+    @Transactional
+    public void updateClient(String clientId, String type, String redirectUri, String secret) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("clientId", clientId);
+        args.put("type", type);
+        args.put("redirectUri", redirectUri);
+        args.put("secret", secret);
+        enqueue(KeycloakOutboxEntry.UPDATE_CLIENT, "client:" + clientId, args);
+    }
+
+    @Override
+    @Transactional
+    public void deleteClient(String clientId) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("clientId", clientId);
+        enqueue(KeycloakOutboxEntry.DELETE_CLIENT, "client:" + clientId, args);
+    }
+
+    @Override
+    @Transactional
+    public void createIdentityProvider(String orgMrn, List<IdentityProviderAttribute> attributes) {
+        List<Map<String, String>> attrs = new ArrayList<>();
+        for (IdentityProviderAttribute attribute : attributes) {
+            Map<String, String> attr = new HashMap<>();
+            attr.put("attributeName", attribute.getAttributeName());
+            attr.put("attributeValue", attribute.getAttributeValue());
+            attrs.add(attr);
+        }
+        Map<String, Object> args = new HashMap<>();
+        args.put("orgMrn", orgMrn);
+        args.put("attributes", attrs);
+        enqueue(KeycloakOutboxEntry.CREATE_IDP, "idp:" + orgMrn.toLowerCase(), args);
+    }
+
+    @Override
+    @Transactional
+    public void deleteIdentityProvider(String orgMrn) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("orgMrn", orgMrn);
+        enqueue(KeycloakOutboxEntry.DELETE_IDP, "idp:" + orgMrn.toLowerCase(), args);
+    }
+
+    private void enqueue(String operation, String target, Map<String, Object> args) {
+        KeycloakOutboxEntry entry = new KeycloakOutboxEntry();
+        entry.setOperation(operation);
+        entry.setTarget(target);
+        entry.setStatus(KeycloakOutboxEntry.STATUS_PENDING);
+        entry.setAttempts(0);
+        entry.setNextAttemptAt(new Date());
+        try {
+            entry.setPayload(mapper.writeValueAsString(args));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize keycloak operation", e);
+        }
+        outboxRepository.save(entry);
+        logger.debug("Queued keycloak operation " + operation + " for " + target);
+    }
+
+    /**
+     * Delivers pending operations in the order they were queued. If an operation fails, is waiting for a retry
+     * or is being delivered by another instance, later operations on the same target are held back so they are
+     * not applied out of order. Operations that have run out of attempts hold back the target until the failed
+     * entry is removed from the outbox.
+     */
+    @Override
+    @Scheduled(initialDelayString = "${net.maritimecloud.idreg.keycloak-outbox.poll-interval:2000}",
+            fixedDelayString = "${net.maritimecloud.idreg.keycloak-outbox.poll-interval:2000}")
+    public void dispatchPending() {
+        List<KeycloakOutboxEntry> entries = outboxRepository.findByStatusOrderByIdAsc(KeycloakOutboxEntry.STATUS_PENDING, new PageRequest(0, batchSize));
+        if (entries.isEmpty()) {
+            return;
+        }
+        Set<String> blockedTargets = new HashSet<>(outboxRepository.findTargetsByStatus(KeycloakOutboxEntry.STATUS_FAILED));
+        Set<Integer> initializedInstances = new HashSet<>();
+        for (KeycloakOutboxEntry entry : entries) {
+            if (blockedTargets.contains(entry.getTarget())) {
+                continue;
+            }
+            Date now = new Date();
+            if (outboxRepository.claim(entry.getId(), new Date(now.getTime() + claimTimeout), now) == 0) {
+                // Not due yet, or claimed by another instance
+                blockedTargets.add(entry.getTarget());
+                continue;
+            }
+            try {
+                deliver(entry, initializedInstances);
+                outboxRepository.delete(entry);
+                logger.debug("Delivered keycloak operation " + entry.getOperation() + " for " + entry.getTarget());
+            } catch (Exception e) {
+                blockedTargets.add(entry.getTarget());
+                handleFailure(entry, e);
+            }
+        }
+    }
+
+    private void handleFailure(KeycloakOutboxEntry entry, Exception e) {
+        int attempts = entry.getAttempts() + 1;
+        entry.setAttempts(attempts);
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        entry.setLastError(error.length() > 2000 ? error.substring(0, 2000) : error);
+        // Saving the entry releases the claim
+        entry.setClaimedUntil(null);
+        if (attempts >= maxAttempts) {
+            logger.error("Giving up on keycloak operation " + entry.getOperation() + " for " + entry.getTarget() + " after " + attempts
+                    + " attempts, later operations for it are held back until the entry is removed", e);
+            entry.setStatus(KeycloakOutboxEntry.STATUS_FAILED);
+            // The payload can contain credentials, no need to keep them around
+            entry.setPayload(null);
+        } else {
+            // Exponential backoff, capped at maxBackoff
+            long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempts - 1, 20));
+            entry.setNextAttemptAt(new Date(System.currentTimeMillis() + backoff));
+            logger.warn("Keycloak operation " + entry.getOperation() + " for " + entry.getTarget() + " failed, retrying in " + backoff + " ms: " + error);
+        }
+        outboxRepository.save(entry);
+    }
+
+    private void initInstance(int type, Set<Integer> initializedInstances) {
+        // Only log into keycloak once per batch
+        if (initializedInstances.add(type)) {
+            keycloakAU.init(type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(KeycloakOutboxEntry entry, Set<Integer> initializedInstances) throws IOException {
+        Map<String, Object> args = mapper.readValue(entry.getPayload(), Map.class);
+        switch (entry.getOperation()) {
+            case KeycloakOutboxEntry.CREATE_USER:
+                initInstance(KeycloakAdminUtil.USER_INSTANCE, initializedInstances);
+                keycloakAU.createUser((String) args.get("userMrn"), secretEncryptor.decrypt((String) args.get("password")), (String) args.get("firstName"),
+                        (String) args.get("lastName"), (String) args.get("email"), (String) args.get("orgMrn"),
+                        (String) args.get("permissions"), (Boolean) args.get("enabled"));
+                break;
+            case KeycloakOutboxEntry.UPDATE_USER:
+                initInstance(KeycloakAdminUtil.USER_INSTANCE, initializedInstances);
+                keycloakAU.updateUser((String) args.get("userMrn"), (String) args.get("firstName"), (String) args.get("lastName"),
+                        (String) args.get("email"), (String) args.get("permissions"), (Boolean) args.get("enabled"));
+                break;
+            case KeycloakOutboxEntry.DELETE_USER:
+                initInstance(KeycloakAdminUtil.USER_INSTANCE, initializedInstances);
+                keycloakAU.deleteUser((String) args.get("email"));
+                break;
+            case KeycloakOutboxEntry.CREATE_CLIENT:
+                initInstance(KeycloakAdminUtil.BROKER_INSTANCE, initializedInstances);
+                keycloakAU.createClient((String) args.get("clientId"), (String) args.get("type"), (String) args.get("redirectUri"),
+                        (String) args.get("secret"));
+                break;
+            case KeycloakOutboxEntry.UPDATE_CLIENT:
+                initInstance(KeycloakAdminUtil.BROKER_INSTANCE, initializedInstances);
+                keycloakAU.updateClient((String) args.get("clientId"), (String) args.get("type"), (String) args.get("redirectUri"),
+                        (String) args.get("secret"));
+                break;
+            case KeycloakOutboxEntry.DELETE_CLIENT:
+                initInstance(KeycloakAdminUtil.BROKER_INSTANCE, initializedInstances);
+                keycloakAU.deleteClient((String) args.get("clientId"));
+                break;
+            case KeycloakOutboxEntry.CREATE_IDP:
+                initInstance(KeycloakAdminUtil.BROKER_INSTANCE, initializedInstances);
+                List<IdentityProviderAttribute> attributes = new ArrayList<>();
+                for (Map<String, String> attr : (List<Map<String, String>>) args.get("attributes")) {
+                    IdentityProviderAttribute attribute = new IdentityProviderAttribute();
+                    attribute.setAttributeName(attr.get("attributeName"));
+                    attribute.setAttributeValue(attr.get("attributeValue"));
+                    attributes.add(attribute);
+                }
+                keycloakAU.createIdentityProvider((String) args.get("orgMrn"), attributes);
+                break;
+            case KeycloakOutboxEntry.DELETE_IDP:
+                initInstance(KeycloakAdminUtil.BROKER_INSTANCE, initializedInstances);
+                keycloakAU.deleteIdentityProvider((String) args.get("orgMrn"));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown keycloak operation: " + entry.getOperation());
+        }
+    }
+}
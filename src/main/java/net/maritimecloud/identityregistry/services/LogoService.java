@@ -0,0 +1,27 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.LogoRendition;
+
+public interface LogoService {
+    /* Decodes the image and stores its renditions in the background */
+    void processLogo(String orgMrn, byte[] image);
+
+    void deleteLogo(String orgMrn);
+
+    /* Returns the blob store key of the logo rendition, or null if the organization has no logo */
+    String getLogoKey(String orgMrn, LogoRendition rendition);
+}
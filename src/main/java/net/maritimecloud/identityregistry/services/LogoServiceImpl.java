@@ -0,0 +1,208 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.datasource.ReadWriteRoutingDataSource;
+import net.maritimecloud.identityregistry.model.data.LogoRendition;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.repositories.OrganizationRepository;
+import net.maritimecloud.identityregistry.utils.ImageUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class LogoServiceImpl implements LogoService {
+    private static final Logger logger = LoggerFactory.getLogger(LogoServiceImpl.class);
+
+    @Value("${net.maritimecloud.idreg.logo-processing.threads:2}")
+    private int threads;
+    @Value("${net.maritimecloud.idreg.logo-processing.queue-capacity:20}")
+    private int queueCapacity;
+    @Value("${net.maritimecloud.idreg.logo-processing.gc-grace-period:60000}")
+    private long gcGracePeriod;
+
+    private ThreadPoolExecutor executor;
+
+    // Removes blobs that are no longer used, a grace period after they stopped being used
+    private ScheduledExecutorService gcExecutor;
+
+    private TransactionTemplate transactionTemplate;
+
+    private OrganizationRepository organizationRepository;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    public void setOrganizationRepository(OrganizationRepository organizationRepository) {
+        this.organizationRepository = organizationRepository;
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void initExecutor() {
+        // Bounded queue, so a burst of uploads can't pile up images in memory
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("logo-processing-"));
+        gcExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("logo-gc-"));
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        executor.shutdown();
+        // Blobs waiting to be removed are left behind, which only costs disk space
+        gcExecutor.shutdownNow();
+    }
+
+    /**
+     * Queues the image for processing. Throws a RejectedExecutionException if the queue is full.
+     */
+    @Override
+    public void processLogo(String orgMrn, byte[] image) {
+        // Taken before queueing, so an upload that finishes after a newer upload or removal is ignored
+        Long version = nextLogoVersion(orgMrn);
+        if (version == null) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                storeRenditions(orgMrn, version, image);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not process logo for " + orgMrn, e);
+            } finally {
+                ReadWriteRoutingDataSource.clearRequest();
+            }
+        });
+    }
+
+    private void storeRenditions(String orgMrn, long version, byte[] image) throws IOException {
+        BufferedImage inputImage = ImageUtil.read(image, LogoRendition.FULL.getMaxWidth(), LogoRendition.FULL.getMaxHeight());
+        String full = blobStore.put(ImageUtil.resize(inputImage, LogoRendition.FULL.getMaxWidth(), LogoRendition.FULL.getMaxHeight()));
+        String list = blobStore.put(ImageUtil.resize(inputImage, LogoRendition.LIST.getMaxWidth(), LogoRendition.LIST.getMaxHeight()));
+        String thumbnail = blobStore.put(ImageUtil.resize(inputImage, LogoRendition.THUMBNAIL.getMaxWidth(), LogoRendition.THUMBNAIL.getMaxHeight()));
+        if (setLogoKeys(orgMrn, version, full, list, thumbnail)) {
+            logger.debug("Stored logo renditions for " + orgMrn);
+        } else {
+            logger.debug("Discarded logo renditions for " + orgMrn + ", a newer logo has been uploaded or removed");
+        }
+    }
+
+    @Override
+    public void deleteLogo(String orgMrn) {
+        Long version = nextLogoVersion(orgMrn);
+        if (version != null) {
+            setLogoKeys(orgMrn, version, null, null, null);
+        }
+    }
+
+    /* Bumps and returns the logo version of the organization, or null if it doesn't exist */
+    private Long nextLogoVersion(String orgMrn) {
+        return transactionTemplate.execute(status -> {
+            if (organizationRepository.bumpLogoVersion(orgMrn) == 0) {
+                return null;
+            }
+            return organizationRepository.getLogoVersionByMrn(orgMrn);
+        });
+    }
+
+    /**
+     * Points the organization to the given blobs, unless the logo version has changed since it was taken. The blobs
+     * that are no longer used, the old ones or the given ones if they were not used, are removed after a grace period.
+     * Returns true if the keys were set.
+     */
+    private boolean setLogoKeys(String orgMrn, long version, String full, String list, String thumbnail) {
+        List<String> newKeys = Arrays.asList(full, list, thumbnail);
+        List<String> oldKeys = transactionTemplate.execute(status -> {
+            Organization org = organizationRepository.findByMrnAndApprovedTrue(orgMrn);
+            if (org == null || organizationRepository.setLogoKeys(orgMrn, version, full, list, thumbnail, new Date()) == 0) {
+                return null;
+            }
+            return Arrays.asList(org.getLogoFull(), org.getLogoList(), org.getLogoThumbnail());
+        });
+        Set<String> unusedKeys = new HashSet<>(oldKeys != null ? oldKeys : newKeys);
+        if (oldKeys != null) {
+            unusedKeys.removeAll(newKeys);
+        }
+        unusedKeys.remove(null);
+        if (!unusedKeys.isEmpty()) {
+            long unusedSince = System.currentTimeMillis();
+            gcExecutor.schedule(() -> {
+                try {
+                    deleteUnusedBlobs(unusedKeys, unusedSince);
+                } finally {
+                    ReadWriteRoutingDataSource.clearRequest();
+                }
+            }, gcGracePeriod, TimeUnit.MILLISECONDS);
+        }
+        return oldKeys != null;
+    }
+
+    /**
+     * Deletes the blobs that no organization uses. Identical images are stored once, so a blob can be shared by
+     * several organizations. A blob that has been stored again since it stopped being used is kept, as an upload
+     * that hasn't committed yet may be about to use it.
+     */
+    private void deleteUnusedBlobs(Collection<String> keys, long unusedSince) {
+        for (String key : keys) {
+            try {
+                // Counted in a read-write transaction, so it is not answered by a read replica that may lag behind
+                Long users = transactionTemplate.execute(status -> organizationRepository.countByLogoFullOrLogoListOrLogoThumbnail(key, key, key));
+                if (users == 0 && blobStore.deleteIfStoredBefore(key, unusedSince)) {
+                    logger.debug("Deleted unused logo blob " + key);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not delete unused logo blob " + key, e);
+            }
+        }
+    }
+
+    @Override
+    public String getLogoKey(String orgMrn, LogoRendition rendition) {
+        switch (rendition) {
+            case THUMBNAIL:
+                return organizationRepository.getLogoThumbnailByMrn(orgMrn);
+            case LIST:
+                return organizationRepository.getLogoListByMrn(orgMrn);
+            default:
+                return organizationRepository.getLogoFullByMrn(orgMrn);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.MrnIndexEntry;
+import net.maritimecloud.identityregistry.model.database.entities.EntityModel;
+
+import java.util.List;
+
+public interface MrnIndexService {
+    /* Reloads the index from the database. Also called by the scheduler. */
+    void rebuild();
+
+    void put(String type, EntityModel entity);
+
+    void remove(String type, Long id);
+
+    void removeByOrg(String type, Long orgId);
+
+    /* Returns entries of the organization with an MRN starting with the prefix (case insensitive), sorted by MRN */
+    List<MrnIndexEntry> search(String prefix, Long orgId, int limit);
+
+    MrnIndexEntry get(String mrn);
+}
@@ -0,0 +1,234 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.MrnIndexEntry;
+import net.maritimecloud.identityregistry.model.database.entities.EntityModel;
+import net.maritimecloud.identityregistry.repositories.DeviceRepository;
+import net.maritimecloud.identityregistry.repositories.EntityRepository;
+import net.maritimecloud.identityregistry.repositories.ServiceRepository;
+import net.maritimecloud.identityregistry.repositories.UserRepository;
+import net.maritimecloud.identityregistry.repositories.VesselRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the MRNs of all users, devices, vessels and services in a sorted in-memory map, so prefix
+ * searches and existence checks don't have to go to the database. The index is built at startup,
+ * updated when entities are saved or deleted, here or on other instances through the invalidation bus,
+ * and rebuilt periodically in case a change was missed.
+ */
+@Service
+public class MrnIndexServiceImpl implements MrnIndexService {
+    private static final Logger logger = LoggerFactory.getLogger(MrnIndexServiceImpl.class);
+
+    private final Map<String, EntityRepository<? extends EntityModel>> repositories = new LinkedHashMap<>();
+
+    private final Object lock = new Object();
+
+    private volatile Index index = new Index();
+
+    // Changes made while the index is being rebuilt, replayed on the new index before it is used
+    private List<Consumer<Index>> pendingChanges;
+
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    @Autowired
+    public void setUserRepository(UserRepository userRepository) {
+        repositories.put("user", userRepository);
+    }
+
+    @Autowired
+    public void setDeviceRepository(DeviceRepository deviceRepository) {
+        repositories.put("device", deviceRepository);
+    }
+
+    @Autowired
+    public void setVesselRepository(VesselRepository vesselRepository) {
+        repositories.put("vessel", vesselRepository);
+    }
+
+    @Autowired
+    public void setServiceRepository(ServiceRepository serviceRepository) {
+        repositories.put("service", serviceRepository);
+    }
+
+    @PostConstruct
+    public void init() {
+        for (String type : repositories.keySet()) {
+            invalidationBus.subscribe(type, key -> reload(type, key));
+        }
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            logger.error("Could not build the MRN index, it will be retried by the next rebuild", e);
+        }
+    }
+
+    @Override
+    @Scheduled(initialDelayString = "${net.maritimecloud.idreg.mrn-index.rebuild-interval:600000}",
+            fixedDelayString = "${net.maritimecloud.idreg.mrn-index.rebuild-interval:600000}")
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        synchronized (lock) {
+            pendingChanges = new ArrayList<>();
+        }
+        Index newIndex = new Index();
+        try {
+            for (Map.Entry<String, EntityRepository<? extends EntityModel>> repository : repositories.entrySet()) {
+                for (Object[] row : repository.getValue().findAllMrns()) {
+                    newIndex.put(new MrnIndexEntry((String) row[1], repository.getKey(), (Long) row[0], (Long) row[2]));
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                for (Consumer<Index> change : pendingChanges) {
+                    change.accept(newIndex);
+                }
+                pendingChanges = null;
+            }
+        }
+        synchronized (lock) {
+            index = newIndex;
+        }
+        logger.info("Built MRN index with " + newIndex.byMrn.size() + " entries in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    @Override
+    public void put(String type, EntityModel entity) {
+        if (entity.getMrn() == null) {
+            return;
+        }
+        MrnIndexEntry entry = new MrnIndexEntry(entity.getMrn(), type, entity.getId(), entity.getIdOrganization());
+        apply(index -> index.put(entry));
+    }
+
+    @Override
+    public void remove(String type, Long id) {
+        apply(index -> index.remove(type, id));
+    }
+
+    @Override
+    public void removeByOrg(String type, Long orgId) {
+        apply(index -> index.removeByOrg(type, orgId));
+    }
+
+    /* Reloads an entity changed on another instance, or the whole index if the key is null */
+    private void reload(String type, String key) {
+        if (key == null) {
+            rebuild();
+            return;
+        }
+        Long id = Long.valueOf(key);
+        EntityModel entity = repositories.get(type).findOne(id);
+        if (entity != null) {
+            put(type, entity);
+        } else {
+            remove(type, id);
+        }
+    }
+
+    /* Applies the change when the current transaction commits, or right away if there is none */
+    private void apply(Consumer<Index> change) {
+        Runnable update = () -> {
+            synchronized (lock) {
+                change.accept(index);
+                if (pendingChanges != null) {
+                    pendingChanges.add(change);
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+
+    @Override
+    public List<MrnIndexEntry> search(String prefix, Long orgId, int limit) {
+        String key = prefix.toLowerCase();
+        List<MrnIndexEntry> ret = new ArrayList<>();
+        for (Map.Entry<String, MrnIndexEntry> entry : index.byMrn.tailMap(key).entrySet()) {
+            if (ret.size() >= limit || !entry.getKey().startsWith(key)) {
+                break;
+            }
+            if (orgId.equals(entry.getValue().getIdOrganization())) {
+                ret.add(entry.getValue());
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public MrnIndexEntry get(String mrn) {
+        return mrn != null ? index.byMrn.get(mrn.toLowerCase()) : null;
+    }
+
+    private static class Index {
+        // Keyed by lowercased MRN
+        private final ConcurrentSkipListMap<String, MrnIndexEntry> byMrn = new ConcurrentSkipListMap<>();
+        // Lowercased MRN keyed by "<type>:<id>", used when the MRN of an entity changes or it is deleted
+        private final Map<String, String> mrnByTypeAndId = new ConcurrentHashMap<>();
+
+        private void put(MrnIndexEntry entry) {
+            String key = entry.getMrn().toLowerCase();
+            String oldKey = mrnByTypeAndId.put(entry.getType() + ":" + entry.getId(), key);
+            if (oldKey != null && !oldKey.equals(key)) {
+                byMrn.remove(oldKey);
+            }
+            byMrn.put(key, entry);
+        }
+
+        private void remove(String type, Long id) {
+            String key = mrnByTypeAndId.remove(type + ":" + id);
+            if (key != null) {
+                byMrn.remove(key);
+            }
+        }
+
+        private void removeByOrg(String type, Long orgId) {
+            Iterator<MrnIndexEntry> it = byMrn.values().iterator();
+            while (it.hasNext()) {
+                MrnIndexEntry entry = it.next();
+                if (entry.getType().equals(type) && orgId.equals(entry.getIdOrganization())) {
+                    it.remove();
+                    mrnByTypeAndId.remove(type + ":" + entry.getId());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+/**
+ * Invalidation bus sending each change as a UDP multicast packet when the transaction commits, for deployments
+ * where the nodes share a network that allows multicast. Delivery is immediate, but packets can be lost, so caches
+ * should still be reloaded periodically (like the MRN index is).
+ */
+@Service
+@ConditionalOnProperty(name = "net.maritimecloud.idreg.invalidation-bus.type", havingValue = "multicast")
+public class MulticastInvalidationBus extends AbstractInvalidationBus {
+    private static final Logger logger = LoggerFactory.getLogger(MulticastInvalidationBus.class);
+
+    private static final int MAX_PACKET_SIZE = 1024;
+
+    @Value("${net.maritimecloud.idreg.invalidation-bus.multicast-group:239.255.42.99}")
+    private String group;
+
+    @Value("${net.maritimecloud.idreg.invalidation-bus.multicast-port:45588}")
+    private int port;
+
+    @Value("${net.maritimecloud.idreg.invalidation-bus.multicast-ttl:1}")
+    private int ttl;
+
+    private InetAddress groupAddress;
+
+    private MulticastSocket socket;
+
+    private Thread receiver;
+
+    @PostConstruct
+    public void init() throws IOException {
+        groupAddress = InetAddress.getByName(group);
+        socket = new MulticastSocket(port);
+        socket.setTimeToLive(ttl);
+        socket.joinGroup(groupAddress);
+        receiver = new Thread(this::receive, "invalidation-bus-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        logger.info("Listening for cache invalidations on " + group + ":" + port);
+    }
+
+    @PreDestroy
+    public void close() {
+        socket.close();
+    }
+
+    @Override
+    public void publish(String cache, String key) {
+        byte[] message = encode(cache, key);
+        afterCommit(() -> {
+            try {
+                socket.send(new DatagramPacket(message, message.length, groupAddress, port));
+            } catch (IOException e) {
+                logger.warn("Could not send invalidation of " + cache + " " + key, e);
+            }
+        });
+    }
+
+    private byte[] encode(String cache, String key) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(nodeId);
+            out.writeUTF(cache);
+            out.writeBoolean(key != null);
+            if (key != null) {
+                out.writeUTF(key);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (bytes.size() > MAX_PACKET_SIZE) {
+            throw new IllegalArgumentException("Invalidation of " + cache + " is too large for a packet");
+        }
+        return bytes.toByteArray();
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength()));
+                String node = in.readUTF();
+                String cache = in.readUTF();
+                String key = in.readBoolean() ? in.readUTF() : null;
+                deliver(node, cache, key);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    logger.warn("Could not read cache invalidation", e);
+                }
+            }
+        }
+    }
+}
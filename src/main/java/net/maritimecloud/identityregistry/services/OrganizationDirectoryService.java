@@ -0,0 +1,25 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.PrecomputedReply;
+
+public interface OrganizationDirectoryService {
+    /* Returns the approved organizations without their sensitive fields, as served to callers without special rights */
+    PrecomputedReply getPublicDirectory();
+
+    /* Marks the directory as changed, it is rebuilt on the next request after the current transaction commits */
+    void invalidate();
+}
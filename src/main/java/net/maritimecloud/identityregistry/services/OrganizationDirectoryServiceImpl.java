@@ -0,0 +1,165 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import net.maritimecloud.identityregistry.model.data.PrecomputedReply;
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.repositories.OrganizationRepository;
+import net.maritimecloud.identityregistry.security.SensitiveFieldFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the public list of organizations serialized and gzipped, so /api/orgs doesn't have to load, filter and
+ * serialize all organizations for every caller. The directory is rebuilt on the first request after an organization
+ * or one of its certificates has changed, here or on other instances through the invalidation bus, and after max-age
+ * in case a change was missed.
+ */
+@Service
+public class OrganizationDirectoryServiceImpl implements OrganizationDirectoryService {
+    private static final Logger logger = LoggerFactory.getLogger(OrganizationDirectoryServiceImpl.class);
+
+    @Value("${net.maritimecloud.idreg.org-directory.max-age:300000}")
+    private long maxAge;
+
+    private OrganizationRepository organizationRepository;
+
+    private TransactionTemplate transactionTemplate;
+
+    // The mapper used for the other replies, so the directory is serialized the same way
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    // Incremented on every change, a snapshot built from an older generation is stale
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public void setOrganizationRepository(OrganizationRepository organizationRepository) {
+        this.organizationRepository = organizationRepository;
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @PostConstruct
+    public void subscribeToChanges() {
+        invalidationBus.subscribe("organization", key -> generation.incrementAndGet());
+        invalidationBus.subscribe("certificate", key -> generation.incrementAndGet());
+    }
+
+    @Override
+    public PrecomputedReply getPublicDirectory() {
+        Snapshot current = snapshot;
+        if (isFresh(current)) {
+            return current.reply;
+        }
+        // Only one thread rebuilds, the others wait for it instead of all loading the organizations
+        synchronized (this) {
+            current = snapshot;
+            if (!isFresh(current)) {
+                current = build();
+                snapshot = current;
+            }
+            return current.reply;
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    generation.incrementAndGet();
+                }
+            });
+        } else {
+            generation.incrementAndGet();
+        }
+    }
+
+    private boolean isFresh(Snapshot current) {
+        return current != null && current.generation == generation.get()
+                && System.currentTimeMillis() - current.builtAt < maxAge;
+    }
+
+    private Snapshot build() {
+        long start = System.currentTimeMillis();
+        // Read before loading, so a change while building makes the snapshot stale right away
+        long buildGeneration = generation.get();
+        Date[] lastModified = new Date[1];
+        byte[] json = transactionTemplate.execute(status -> {
+            List<Organization> orgs = organizationRepository.findByApprovedTrue();
+            for (Organization org : orgs) {
+                lastModified[0] = ResourceVersion.latest(lastModified[0], org.getUpdatedAt(), org.getDataUpdatedAt());
+            }
+            try {
+                // Serialized as for a caller without special rights, whoever triggered the rebuild
+                return objectMapper.writer(SensitiveFieldFilter.publicFilters()).writeValueAsBytes(orgs);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Could not serialize the organization directory", e);
+            }
+        });
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ResourceVersion version = new ResourceVersion(null, "orgs-" + Hashing.sha256().hashBytes(json).toString().substring(0, 32), lastModified[0]);
+        logger.debug("Built organization directory of " + json.length + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+        return new Snapshot(new PrecomputedReply(json, gzipped.toByteArray(), version), buildGeneration, start);
+    }
+
+    private static class Snapshot {
+        final PrecomputedReply reply;
+        final long generation;
+        final long builtAt;
+
+        Snapshot(PrecomputedReply reply, long generation, long builtAt) {
+            this.reply = reply;
+            this.generation = generation;
+            this.builtAt = builtAt;
+        }
+    }
+}
@@ -14,6 +14,7 @@
  */
 package net.maritimecloud.identityregistry.services;
 
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
 import net.maritimecloud.identityregistry.model.database.Organization;
 
 import java.util.List;
@@ -21,9 +22,22 @@ import java.util.List;
 public interface OrganizationService extends BaseService<Organization>{
     Organization getOrganizationByMrn(String mrn);
 
+    /* Same as getOrganizationByMrn, with what is serialized loaded up front. Use when returning the organization. */
+    Organization getOrganizationDetailsByMrn(String mrn);
+
     Organization getOrganizationByMrnDisregardApproved(String mrn);
-    /* Does not filter sensitive data from the result! */
-    Organization getOrganizationByMrnNoFilter(String mrn);
 
     List<Organization> getUnapprovedOrganizations();
+
+    /* Returns the version of the approved organization without loading it, or null if it doesn't exist */
+    ResourceVersion getVersionByMrn(String mrn);
+
+    /* Returns the version of the list of approved organizations */
+    ResourceVersion getListVersion();
+
+    /* Returns false if the caller gets every organization without sensitive fields, the public directory */
+    boolean canSeeSensitiveFields();
+
+    /* Marks that the organization or its certificates have changed */
+    void bumpDataVersion(Long id);
 }
\ No newline at end of file
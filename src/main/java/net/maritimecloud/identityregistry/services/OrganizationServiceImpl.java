@@ -14,16 +14,20 @@
  */
 package net.maritimecloud.identityregistry.services;
 
-import com.google.common.collect.Lists;
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
 import net.maritimecloud.identityregistry.utils.AccessControlUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import net.maritimecloud.identityregistry.model.database.Organization;
 import net.maritimecloud.identityregistry.repositories.OrganizationRepository;
 
+import java.util.Date;
 import java.util.List;
 
 @Service
@@ -32,6 +36,9 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
 
     private OrganizationRepository organizationRepository;
 
+    @Autowired
+    private OrganizationDirectoryService organizationDirectoryService;
+
     @Autowired
     public void setOrganizationRepository(OrganizationRepository OrganizationRepository) {
         this.organizationRepository = OrganizationRepository;
@@ -39,23 +46,23 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
 
     @Override
     public Organization getOrganizationByMrn(String mrn) {
-        return this.filterResult(organizationRepository.findByMrnAndApprovedTrue(mrn));
+        return organizationRepository.findByMrnAndApprovedTrue(mrn);
     }
 
     @Override
-    public Organization getOrganizationByMrnDisregardApproved(String mrn) {
-        return this.filterResult(organizationRepository.findByMrn(mrn));
+    public Organization getOrganizationDetailsByMrn(String mrn) {
+        return organizationRepository.findDetailedByMrnAndApprovedTrue(mrn);
     }
 
-    /* Does not filter sensitive data from the result! */
-    public Organization getOrganizationByMrnNoFilter(String mrn) {
-        return organizationRepository.findByMrnAndApprovedTrue(mrn);
+    @Override
+    public Organization getOrganizationByMrnDisregardApproved(String mrn) {
+        return organizationRepository.findByMrn(mrn);
     }
 
     /* This only shows approved organizations */
     @Override
     public List<Organization> listAll() {
-        return this.filterResult(Lists.newArrayList(getRepository().findByApprovedTrue()));
+        return getRepository().findDetailedByApprovedTrue();
     }
 
     @Override
@@ -63,34 +70,70 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
         return this.organizationRepository;
     }
 
+    public List<Organization> getUnapprovedOrganizations() {
+        return getRepository().findByApprovedFalse();
+    }
+
+    @Override
+    @Transactional
+    public Organization save(Organization org) {
+        Organization ret = super.save(org);
+        bumpDataVersion(ret.getId());
+        organizationDirectoryService.invalidate();
+        return ret;
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        super.delete(id);
+        organizationDirectoryService.invalidate();
+    }
+
+    @Override
+    public boolean canSeeSensitiveFields() {
+        return isAuthorized();
+    }
+
     @Override
-    protected Organization filterResult(Organization data) {
-        if (data != null && data.hasSensitiveFields()) {
-            // If not authorized to see all we clean the object for sensitive data.
-            if (!isAuthorized() || !AccessControlUtil.hasAccessToOrg(data.getMrn())) {
-                logger.debug("Clearing Sensitive Fields");
-                data.clearSensitiveFields();
-            }
+    @Transactional
+    public void bumpDataVersion(Long id) {
+        if (id != null) {
+            getRepository().bumpDataVersion(id, new Date());
         }
-        return data;
     }
 
     @Override
-    protected List<Organization> filterResult(List<Organization> data) {
-        if (data != null && !data.isEmpty() && data.get(0).hasSensitiveFields() && !accessControlUtil.hasRole("SITE_ADMIN")) {
-            // If not authorized to see all we clean the object for sensitive data.
-            boolean isAuthorized = isAuthorized();
-            for (Organization org : data) {
-                if (!isAuthorized || !AccessControlUtil.hasAccessToOrg(org.getMrn())) {
-                    logger.debug("Clearing Sensitive Fields");
-                    org.clearSensitiveFields();
-                }
-            }
+    public ResourceVersion getVersionByMrn(String mrn) {
+        List<Object[]> rows = getRepository().findVersionByMrn(mrn);
+        if (rows.isEmpty()) {
+            return null;
         }
-        return data;
+        Object[] row = rows.get(0);
+        // Same rule as SensitiveFieldFilter
+        String view = isAuthorized() && AccessControlUtil.hasAccessToOrg(mrn) ? "full" : ResourceVersion.PUBLIC_VIEW;
+        return new ResourceVersion((Long) row[0], "org-" + row[0] + "-" + row[2], view,
+                ResourceVersion.latest((Date) row[1], (Date) row[3]));
     }
 
-    public List<Organization> getUnapprovedOrganizations() {
-        return getRepository().findByApprovedFalse();
+    @Override
+    public ResourceVersion getListVersion() {
+        Object[] row = getRepository().findListVersion().get(0);
+        // Same rule as SensitiveFieldFilter, an organization admin sees the sensitive fields of their own organization
+        String view = ResourceVersion.PUBLIC_VIEW;
+        if (accessControlUtil.hasRole("SITE_ADMIN")) {
+            view = "full";
+        } else if (isAuthorized()) {
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            view = "own-" + Integer.toHexString(auth.getName().hashCode());
+        }
+        // Approving, updating or adding an organization moves one of the maximums, deleting one lowers the count
+        String eTag = "orgs-" + row[0] + "-" + row[1] + "-" + row[2] + "-" + row[3] + "-" + time((Date) row[4])
+                + "-" + time((Date) row[5]);
+        return new ResourceVersion(null, eTag, view, ResourceVersion.latest((Date) row[4], (Date) row[5]));
+    }
+
+    private static long time(Date date) {
+        return date != null ? date.getTime() : 0;
     }
 }
\ No newline at end of file
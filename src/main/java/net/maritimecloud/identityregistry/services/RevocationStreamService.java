@@ -0,0 +1,34 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.RevocationEvent;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Pushes certificate revocations to relying parties as server-sent events.
+ */
+public interface RevocationStreamService {
+    /**
+     * Opens a stream of revocations with a sequence number above since, or of new revocations if since is null.
+     * Throws a RejectedExecutionException if there are too many streams open.
+     */
+    SseEmitter subscribe(Long since) throws RejectedExecutionException;
+
+    /* Sends the revocation to the open streams when the current transaction commits */
+    void revoked(RevocationEvent event);
+}
@@ -0,0 +1,358 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.RevocationEvent;
+import net.maritimecloud.identityregistry.repositories.RevocationEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the most recent revocations in memory, and for each open stream a bounded queue of events waiting to be sent
+ * and a cursor (the last sequence number queued). New revocations are queued for the streams that are up to date. A
+ * stream that is behind, e.g. because it resumed from an old sequence number, is filled one batch at a time from the
+ * events kept in memory, or from the database if it is further behind than that.
+ *
+ * Streams are sent to by a small thread pool. A stream whose queue overflows, or whose client has not accepted an
+ * event within send-timeout, is dropped, so a slow client neither holds events in memory nor keeps the pool from
+ * serving the others. The client should resume from the last sequence number it got. Sending and completing an
+ * emitter lock it, so a stream that is stuck sending is only completed by the thread sending to it, once the
+ * container gives up on the write.
+ *
+ * Sequence numbers are allocated before commit, so a revocation can arrive after one with a higher number has
+ * been queued. It is then queued with the sequence number the stream is already at.
+ *
+ * Revocations made on other instances arrive through the invalidation bus.
+ */
+@Service
+public class RevocationStreamServiceImpl implements RevocationStreamService {
+    private static final Logger logger = LoggerFactory.getLogger(RevocationStreamServiceImpl.class);
+
+    private static final String CACHE_NAME = "revocation";
+
+    @Value("${net.maritimecloud.idreg.revocation-stream.threads:2}")
+    private int threads;
+
+    @Value("${net.maritimecloud.idreg.revocation-stream.buffer-size:1000}")
+    private int bufferSize;
+
+    @Value("${net.maritimecloud.idreg.revocation-stream.batch-size:100}")
+    private int batchSize;
+
+    @Value("${net.maritimecloud.idreg.revocation-stream.queue-size:1000}")
+    private int queueSize;
+
+    @Value("${net.maritimecloud.idreg.revocation-stream.send-timeout:10000}")
+    private long sendTimeout;
+
+    @Value("${net.maritimecloud.idreg.revocation-stream.max-subscribers:1000}")
+    private int maxSubscribers;
+
+    @Value("${net.maritimecloud.idreg.revocation-stream.timeout:1800000}")
+    private long timeout;
+
+    private RevocationEventRepository revocationEventRepository;
+
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    private ExecutorService executor;
+
+    // The most recent events by sequence number. All events above bufferStart are in it.
+    private final ConcurrentSkipListMap<Long, RevocationEvent> buffer = new ConcurrentSkipListMap<>();
+
+    private volatile long bufferStart;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public void setRevocationEventRepository(RevocationEventRepository revocationEventRepository) {
+        this.revocationEventRepository = revocationEventRepository;
+    }
+
+    @PostConstruct
+    public void init() {
+        Long maxId = revocationEventRepository.findMaxId();
+        bufferStart = maxId != null ? maxId : 0;
+        executor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("revocation-stream-"));
+        invalidationBus.subscribe(CACHE_NAME, key -> {
+            RevocationEvent event = key != null ? revocationEventRepository.findOne(Long.valueOf(key)) : null;
+            if (event != null) {
+                add(event);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        for (Subscriber subscriber : subscribers) {
+            close(subscriber);
+        }
+    }
+
+    @Override
+    public SseEmitter subscribe(Long since) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new RejectedExecutionException("Too many revocation streams");
+        }
+        SseEmitter emitter = createEmitter();
+        // A whole batch must fit when the stream is filled
+        Subscriber subscriber = new Subscriber(emitter, Math.max(queueSize, batchSize));
+        emitter.onCompletion(() -> drop(subscriber));
+        emitter.onTimeout(() -> drop(subscriber));
+        synchronized (this) {
+            subscriber.cursor = since != null ? since : latest();
+            subscribers.add(subscriber);
+        }
+        schedule(subscriber);
+        return emitter;
+    }
+
+    SseEmitter createEmitter() {
+        return new SseEmitter(timeout);
+    }
+
+    @Override
+    public void revoked(RevocationEvent event) {
+        invalidationBus.publish(CACHE_NAME, String.valueOf(event.getId()));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    add(event);
+                }
+            });
+        } else {
+            add(event);
+        }
+    }
+
+    /**
+     * Sends a comment to each idle stream, so connections closed by the client are noticed and proxies don't time out.
+     */
+    @Scheduled(fixedDelayString = "${net.maritimecloud.idreg.revocation-stream.heartbeat-interval:30000}")
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeatDue = true;
+            schedule(subscriber);
+        }
+    }
+
+    /**
+     * Drops the streams whose client has not accepted an event within send-timeout.
+     */
+    @Scheduled(fixedDelayString = "${net.maritimecloud.idreg.revocation-stream.send-timeout:10000}")
+    public void dropStalled() {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            long sendStarted = subscriber.sendStarted;
+            if (sendStarted != 0 && now - sendStarted > sendTimeout) {
+                logger.debug("Dropping revocation stream, the client has not accepted an event for " + (now - sendStarted) + "ms");
+                drop(subscriber);
+            }
+        }
+    }
+
+    synchronized void add(RevocationEvent event) {
+        long previous = latest();
+        buffer.put(event.getId(), event);
+        while (buffer.size() > bufferSize) {
+            // Move the start first, so readers never see a gap
+            bufferStart = buffer.firstKey();
+            buffer.remove(bufferStart);
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (event.getId() <= subscriber.cursor) {
+                // An event that committed after a later one the stream has already been given
+                enqueue(subscriber, toSse(event, subscriber.cursor));
+            } else if (subscriber.cursor >= previous) {
+                enqueue(subscriber, toSse(event, event.getId()));
+                subscriber.cursor = event.getId();
+            }
+            // Otherwise the stream is behind, and is given the event when it is filled
+            schedule(subscriber);
+        }
+    }
+
+    private long latest() {
+        Map.Entry<Long, RevocationEvent> last = buffer.lastEntry();
+        return last != null ? last.getKey() : bufferStart;
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> drain(subscriber));
+            } catch (RejectedExecutionException e) {
+                subscriber.scheduled.set(false);
+            }
+        }
+    }
+
+    /* Sends up to a batch of queued events to the stream, and schedules itself again if there are more */
+    private void drain(Subscriber subscriber) {
+        try {
+            if (subscriber.pending.isEmpty() && !subscriber.closed) {
+                fill(subscriber);
+            }
+            int sent = 0;
+            SseEmitter.SseEventBuilder event;
+            while (sent < batchSize && !subscriber.closed && (event = subscriber.pending.poll()) != null) {
+                if (!send(subscriber, event)) {
+                    return;
+                }
+                sent++;
+            }
+            if (sent == 0 && subscriber.heartbeatDue && !subscriber.closed && !send(subscriber, SseEmitter.event().comment(""))) {
+                return;
+            }
+            subscriber.heartbeatDue = false;
+        } catch (RuntimeException e) {
+            logger.error("Could not send revocations", e);
+            close(subscriber);
+            return;
+        } finally {
+            subscriber.scheduled.set(false);
+        }
+        if (subscriber.closed) {
+            complete(subscriber);
+        } else if (!subscriber.pending.isEmpty() || latest() > subscriber.cursor) {
+            schedule(subscriber);
+        }
+    }
+
+    /* Queues the next batch of events after the cursor of a stream that is behind */
+    private void fill(Subscriber subscriber) {
+        if (subscriber.cursor >= bufferStart) {
+            synchronized (this) {
+                for (RevocationEvent event : buffer.tailMap(subscriber.cursor, false).values()) {
+                    if (subscriber.pending.size() >= batchSize) {
+                        break;
+                    }
+                    enqueue(subscriber, toSse(event, event.getId()));
+                    subscriber.cursor = event.getId();
+                }
+            }
+            return;
+        }
+        List<RevocationEvent> events = revocationEventRepository.findByIdGreaterThanOrderByIdAsc(subscriber.cursor, new PageRequest(0, batchSize));
+        synchronized (this) {
+            for (RevocationEvent event : events) {
+                if (event.getId() > subscriber.cursor) {
+                    enqueue(subscriber, toSse(event, event.getId()));
+                    subscriber.cursor = event.getId();
+                }
+            }
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        if (!subscriber.closed && !subscriber.pending.offer(event)) {
+            logger.debug("Dropping revocation stream, the client is too far behind");
+            drop(subscriber);
+            // The emitter is completed by the thread sending to it
+            schedule(subscriber);
+        }
+    }
+
+    /* The id is what the client resumes from, so it must never go back */
+    private SseEmitter.SseEventBuilder toSse(RevocationEvent event, long id) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("serialNumber", event.getSerialNumber());
+        data.put("revokedAt", event.getRevokedAt());
+        data.put("reason", event.getRevokeReason());
+        return SseEmitter.event().id(String.valueOf(id)).name("revocation").data(data, MediaType.APPLICATION_JSON);
+    }
+
+    private boolean send(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        subscriber.sendStarted = System.currentTimeMillis();
+        try {
+            subscriber.emitter.send(event);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // The client went away
+            close(subscriber);
+            return false;
+        } finally {
+            subscriber.sendStarted = 0;
+        }
+    }
+
+    /* Stops sending to the stream, without touching the emitter, which may be locked by a send */
+    private void drop(Subscriber subscriber) {
+        subscriber.closed = true;
+        subscribers.remove(subscriber);
+        subscriber.pending.clear();
+    }
+
+    private void close(Subscriber subscriber) {
+        drop(subscriber);
+        complete(subscriber);
+    }
+
+    private void complete(Subscriber subscriber) {
+        try {
+            subscriber.emitter.complete();
+        } catch (IllegalStateException e) {
+            // Already completed
+        }
+    }
+
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        // Events waiting to be sent
+        private final BlockingQueue<SseEmitter.SseEventBuilder> pending;
+        // The sequence number of the last event queued, changed while holding the service's lock
+        private volatile long cursor;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+        private volatile boolean heartbeatDue;
+        // When the send in progress started, or 0
+        private volatile long sendStarted;
+
+        Subscriber(SseEmitter emitter, int capacity) {
+            this.emitter = emitter;
+            this.pending = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
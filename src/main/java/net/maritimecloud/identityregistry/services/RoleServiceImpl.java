@@ -44,6 +44,7 @@ public class RoleServiceImpl extends BaseServiceImpl<Role> implements RoleServic
     @Transactional
     public void deleteByOrg(Long id) {
         this.getRepository().deleteByidOrganization(id);
+        invalidationBus.publish(cacheName, null);
     }
 
     public RoleRepository getRepository() {
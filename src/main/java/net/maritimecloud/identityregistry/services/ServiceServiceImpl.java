@@ -19,8 +19,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import net.maritimecloud.identityregistry.model.database.entities.Service;
 import net.maritimecloud.identityregistry.repositories.ServiceRepository;
 
-import java.util.List;
-
 @org.springframework.stereotype.Service
 public class ServiceServiceImpl extends EntityServiceImpl<Service> implements EntityService<Service> {
 
@@ -28,12 +26,5 @@ public class ServiceServiceImpl extends EntityServiceImpl<Service> implements En
     public void setServiceRepository(ServiceRepository ServiceRepository) {
         this.repository = ServiceRepository;
     }
-
-    @Override
-    public List<Service> listFromOrg(Long orgId) {
-        List<Service> ret = repository.findByidOrganization(orgId);
-        ret = this.filterResult(ret);
-        return ret;
-    }
 }
 
@@ -0,0 +1,258 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.datasource.ReadWriteRoutingDataSource;
+import net.maritimecloud.identityregistry.model.database.WebhookDelivery;
+import net.maritimecloud.identityregistry.model.database.WebhookSubscription;
+import net.maritimecloud.identityregistry.repositories.WebhookDeliveryRepository;
+import net.maritimecloud.identityregistry.repositories.WebhookSubscriptionRepository;
+import net.maritimecloud.identityregistry.utils.WebhookSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts queued webhook events in the background. Events for the same webhook are sent in batches, and each
+ * webhook has its own limit of concurrent requests on each instance, so a slow webhook only delays its own events.
+ * Each event is claimed in the database before it is posted, so it is only posted by one instance at a time.
+ */
+@Service
+public class WebhookDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookDispatcher.class);
+
+    @Value("${net.maritimecloud.idreg.webhooks.threads:4}")
+    private int threads;
+    @Value("${net.maritimecloud.idreg.webhooks.queue-capacity:100}")
+    private int queueCapacity;
+    @Value("${net.maritimecloud.idreg.webhooks.poll-size:500}")
+    private int pollSize;
+    @Value("${net.maritimecloud.idreg.webhooks.batch-size:20}")
+    private int batchSize;
+    @Value("${net.maritimecloud.idreg.webhooks.max-attempts:10}")
+    private int maxAttempts;
+    @Value("${net.maritimecloud.idreg.webhooks.initial-backoff:10000}")
+    private long initialBackoff;
+    @Value("${net.maritimecloud.idreg.webhooks.max-backoff:3600000}")
+    private long maxBackoff;
+    @Value("${net.maritimecloud.idreg.webhooks.claim-timeout:300000}")
+    private long claimTimeout;
+    @Value("${net.maritimecloud.idreg.webhooks.failed-retention:604800000}")
+    private long failedRetention;
+
+    private WebhookSubscriptionRepository subscriptionRepository;
+
+    private WebhookDeliveryRepository deliveryRepository;
+
+    @Autowired
+    private WebhookSender webhookSender;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<Long, ConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    @Autowired
+    public void setSubscriptionRepository(WebhookSubscriptionRepository subscriptionRepository) {
+        this.subscriptionRepository = subscriptionRepository;
+    }
+
+    @Autowired
+    public void setDeliveryRepository(WebhookDeliveryRepository deliveryRepository) {
+        this.deliveryRepository = deliveryRepository;
+    }
+
+    @PostConstruct
+    public void initExecutor() {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("webhook-"));
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Scheduled(initialDelayString = "${net.maritimecloud.idreg.webhooks.poll-interval:1000}",
+            fixedDelayString = "${net.maritimecloud.idreg.webhooks.poll-interval:1000}")
+    public void dispatchPending() {
+        // Skip the webhooks that are already busy, so a long backlog for one of them doesn't hide the events of the others
+        Set<Long> busy = new HashSet<>();
+        // An empty "not in" list is not valid sql
+        busy.add(-1L);
+        limits.forEach((id, limit) -> {
+            if (limit.semaphore.availablePermits() == 0) {
+                busy.add(id);
+            }
+        });
+        List<WebhookDelivery> deliveries = deliveryRepository.findDue(new Date(), busy, new PageRequest(0, pollSize));
+        if (deliveries.isEmpty()) {
+            return;
+        }
+        Map<Long, List<WebhookDelivery>> bySubscription = new LinkedHashMap<>();
+        for (WebhookDelivery delivery : deliveries) {
+            bySubscription.computeIfAbsent(delivery.getIdSubscription(), id -> new ArrayList<>()).add(delivery);
+        }
+        for (Map.Entry<Long, List<WebhookDelivery>> entry : bySubscription.entrySet()) {
+            WebhookSubscription subscription = subscriptionRepository.findOne(entry.getKey());
+            if (subscription == null) {
+                // The webhook has been deleted since the events were queued
+                deliveryRepository.delete(entry.getValue());
+                limits.remove(entry.getKey());
+                continue;
+            }
+            Semaphore permits = getLimit(subscription);
+            List<WebhookDelivery> pending = entry.getValue();
+            for (int i = 0; i < pending.size(); i += batchSize) {
+                if (!permits.tryAcquire()) {
+                    // Busy with earlier batches, the rest is sent when they are done
+                    break;
+                }
+                List<WebhookDelivery> batch = claim(pending.subList(i, Math.min(i + batchSize, pending.size())));
+                if (batch.isEmpty()) {
+                    permits.release();
+                } else if (!submit(subscription, batch, permits)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /* Returns the deliveries that could be claimed, the others are being posted by another instance */
+    private List<WebhookDelivery> claim(List<WebhookDelivery> deliveries) {
+        Date now = new Date();
+        Date claimedUntil = new Date(now.getTime() + claimTimeout);
+        List<WebhookDelivery> claimed = new ArrayList<>();
+        for (WebhookDelivery delivery : deliveries) {
+            if (deliveryRepository.claim(delivery.getId(), claimedUntil, now) > 0) {
+                claimed.add(delivery);
+            }
+        }
+        return claimed;
+    }
+
+    private boolean submit(WebhookSubscription subscription, List<WebhookDelivery> batch, Semaphore permits) {
+        try {
+            executor.execute(() -> {
+                try {
+                    send(subscription, batch);
+                } finally {
+                    permits.release();
+                    ReadWriteRoutingDataSource.clearRequest();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // All threads are busy, release the claims and try again on the next poll
+            permits.release();
+            for (WebhookDelivery delivery : batch) {
+                delivery.setClaimedUntil(null);
+            }
+            deliveryRepository.save(batch);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the events that could not be delivered after they have been kept for failed-retention.
+     */
+    @Scheduled(fixedDelayString = "${net.maritimecloud.idreg.webhooks.cleanup-interval:3600000}")
+    public void deleteOldFailures() {
+        int deleted = deliveryRepository.deleteFailedOlderThan(new Date(System.currentTimeMillis() - failedRetention));
+        if (deleted > 0) {
+            logger.info("Deleted " + deleted + " webhook events that could not be delivered");
+        }
+    }
+
+    private void send(WebhookSubscription subscription, List<WebhookDelivery> batch) {
+        StringBuilder body = new StringBuilder("[");
+        for (WebhookDelivery delivery : batch) {
+            if (body.length() > 1) {
+                body.append(',');
+            }
+            body.append(delivery.getPayload());
+        }
+        body.append(']');
+        try {
+            webhookSender.send(subscription.getUrl(), subscription.getSecret(), body.toString(), batch.size());
+            deliveryRepository.delete(batch);
+            logger.debug("Delivered " + batch.size() + " events to webhook " + subscription.getId());
+        } catch (Exception e) {
+            handleFailure(subscription, batch, e);
+        }
+    }
+
+    private void handleFailure(WebhookSubscription subscription, List<WebhookDelivery> batch, Exception e) {
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        error = error.length() > 2000 ? error.substring(0, 2000) : error;
+        Set<String> outcomes = new HashSet<>();
+        for (WebhookDelivery delivery : batch) {
+            // Saving releases the claim
+            delivery.setClaimedUntil(null);
+            int attempts = delivery.getAttempts() + 1;
+            delivery.setAttempts(attempts);
+            delivery.setLastError(error);
+            if (attempts >= maxAttempts) {
+                delivery.setStatus(WebhookDelivery.STATUS_FAILED);
+                outcomes.add("giving up after " + attempts + " attempts");
+            } else {
+                // Exponential backoff, capped at maxBackoff
+                long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempts - 1, 20));
+                delivery.setNextAttemptAt(new Date(System.currentTimeMillis() + backoff));
+                outcomes.add("retrying in " + backoff + " ms");
+            }
+        }
+        logger.warn("Could not deliver " + batch.size() + " events to webhook " + subscription.getId() + ", "
+                + String.join(", ", outcomes) + ": " + error);
+        deliveryRepository.save(batch);
+    }
+
+    /* Returns the semaphore limiting the concurrent requests to the webhook, replaced if the limit has changed */
+    private Semaphore getLimit(WebhookSubscription subscription) {
+        int max = subscription.getMaxConcurrency() != null ? Math.max(1, subscription.getMaxConcurrency()) : 1;
+        return limits.compute(subscription.getId(), (id, limit) ->
+                limit != null && limit.max == max ? limit : new ConcurrencyLimit(max)).semaphore;
+    }
+
+    private static class ConcurrencyLimit {
+        final int max;
+        final Semaphore semaphore;
+
+        ConcurrencyLimit(int max) {
+            this.max = max;
+            this.semaphore = new Semaphore(max);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.WebhookSubscription;
+
+import java.util.List;
+import java.util.Map;
+
+public interface WebhookService extends BaseService<WebhookSubscription> {
+
+    List<WebhookSubscription> listFromOrg(Long id);
+
+    void deleteByOrg(Long id);
+
+    /**
+     * Queues the event for the webhooks of the organization that want it. The event is queued in the
+     * current transaction, so it is only sent if the change it is about is committed.
+     *
+     * @param orgId     The organization the event is about
+     * @param event     The event, e.g. "vessel.created"
+     * @param data      Details of the event, must be serializable to json
+     */
+    void publish(Long orgId, String event, Map<String, Object> data);
+}
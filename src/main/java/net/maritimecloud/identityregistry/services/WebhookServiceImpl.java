@@ -0,0 +1,138 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.maritimecloud.identityregistry.model.database.WebhookDelivery;
+import net.maritimecloud.identityregistry.model.database.WebhookSubscription;
+import net.maritimecloud.identityregistry.repositories.WebhookDeliveryRepository;
+import net.maritimecloud.identityregistry.repositories.WebhookSubscriptionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class WebhookServiceImpl extends BaseServiceImpl<WebhookSubscription> implements WebhookService {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookServiceImpl.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    protected WebhookSubscriptionRepository repository;
+
+    private WebhookDeliveryRepository deliveryRepository;
+
+    // Subscriptions of each organization, so publishing an event doesn't cost a query when nobody listens
+    private final Map<Long, List<WebhookSubscription>> subscriptionsByOrg = new ConcurrentHashMap<>();
+
+    @Autowired
+    public void setWebhookSubscriptionRepository(WebhookSubscriptionRepository repository) {
+        this.repository = repository;
+    }
+
+    @Autowired
+    public void setWebhookDeliveryRepository(WebhookDeliveryRepository deliveryRepository) {
+        this.deliveryRepository = deliveryRepository;
+    }
+
+    @PostConstruct
+    public void subscribeToChanges() {
+        // Subscriptions are few, so any change made by another instance clears the whole cache
+        invalidationBus.subscribe(cacheName, key -> subscriptionsByOrg.clear());
+    }
+
+    public List<WebhookSubscription> listFromOrg(Long id) {
+        return this.getRepository().findByidOrganization(id);
+    }
+
+    @Override
+    @Transactional
+    public WebhookSubscription save(WebhookSubscription subscription) {
+        WebhookSubscription ret = super.save(subscription);
+        subscriptionsByOrg.remove(ret.getIdOrganization());
+        return ret;
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        deliveryRepository.deleteBySubscription(id);
+        super.delete(id);
+        subscriptionsByOrg.clear();
+    }
+
+    @Transactional
+    public void deleteByOrg(Long id) {
+        for (WebhookSubscription subscription : listFromOrg(id)) {
+            deliveryRepository.deleteBySubscription(subscription.getId());
+        }
+        this.getRepository().deleteByidOrganization(id);
+        subscriptionsByOrg.remove(id);
+        invalidationBus.publish(cacheName, null);
+    }
+
+    @Override
+    @Transactional
+    public void publish(Long orgId, String event, Map<String, Object> data) {
+        if (orgId == null) {
+            return;
+        }
+        List<WebhookSubscription> subscriptions = subscriptionsByOrg.computeIfAbsent(orgId, this::listFromOrg);
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        Map<String, Object> payload = new LinkedHashMap<>();
+        // Deliveries are retried, so receivers should use the id to skip events they have already seen
+        payload.put("id", UUID.randomUUID().toString());
+        payload.put("event", event);
+        payload.put("createdAt", now.getTime());
+        payload.put("data", data);
+        String json;
+        try {
+            json = mapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize webhook event", e);
+        }
+        for (WebhookSubscription subscription : subscriptions) {
+            if (!subscription.matches(event)) {
+                continue;
+            }
+            WebhookDelivery delivery = new WebhookDelivery();
+            delivery.setIdSubscription(subscription.getId());
+            delivery.setEvent(event);
+            delivery.setPayload(json);
+            delivery.setStatus(WebhookDelivery.STATUS_PENDING);
+            delivery.setAttempts(0);
+            delivery.setNextAttemptAt(now);
+            deliveryRepository.save(delivery);
+            logger.debug("Queued " + event + " for webhook " + subscription.getId());
+        }
+    }
+
+    public WebhookSubscriptionRepository getRepository() {
+        return this.repository;
+    }
+}
@@ -0,0 +1,78 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import java.util.Date;
+
+/**
+ * Where a client syncing entity changes has got to. Changed entities and tombstones are read as two streams
+ * ordered by (updated_at, id), so the cursor holds a position in each. It is passed to clients as an opaque
+ * string of the form "changedAt-changedId-deletedAt-deletedId", with the times in milliseconds.
+ */
+public final class ChangeCursor {
+    public static final ChangeCursor START = new ChangeCursor(new Date(0), 0, new Date(0), 0);
+
+    private final Date changedAt;
+    private final long changedId;
+    private final Date deletedAt;
+    private final long deletedId;
+
+    public ChangeCursor(Date changedAt, long changedId, Date deletedAt, long deletedId) {
+        this.changedAt = changedAt;
+        this.changedId = changedId;
+        this.deletedAt = deletedAt;
+        this.deletedId = deletedId;
+    }
+
+    /**
+     * Parses a cursor, or returns START if there is none. Throws an IllegalArgumentException if it is malformed.
+     */
+    public static ChangeCursor parse(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return START;
+        }
+        String[] parts = cursor.split("-");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Malformed change cursor: " + cursor);
+        }
+        try {
+            return new ChangeCursor(new Date(Long.parseLong(parts[0])), Long.parseLong(parts[1]),
+                    new Date(Long.parseLong(parts[2])), Long.parseLong(parts[3]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed change cursor: " + cursor, e);
+        }
+    }
+
+    public Date getChangedAt() {
+        return changedAt;
+    }
+
+    public long getChangedId() {
+        return changedId;
+    }
+
+    public Date getDeletedAt() {
+        return deletedAt;
+    }
+
+    public long getDeletedId() {
+        return deletedId;
+    }
+
+    @Override
+    public String toString() {
+        return changedAt.getTime() + "-" + changedId + "-" + deletedAt.getTime() + "-" + deletedId;
+    }
+}
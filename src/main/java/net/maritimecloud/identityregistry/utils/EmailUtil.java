@@ -14,10 +14,10 @@
  */
 package net.maritimecloud.identityregistry.utils;
 
+import net.maritimecloud.identityregistry.model.database.QueuedEmail;
+import net.maritimecloud.identityregistry.services.EmailQueueService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.MailException;
-import org.springframework.mail.MailSender;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.stereotype.Component;
 
@@ -50,10 +50,11 @@ public class EmailUtil {
     @Value("${net.maritimecloud.idreg.email.created-user-text}")
     private String createdUserText;
 
+    // Emails are queued and sent in the background, so a slow mail server does not hold up requests
     @Autowired
-    private MailSender mailSender;
+    private EmailQueueService emailQueueService;
 
-    public void sendOrgAwaitingApprovalEmail(String sendTo, String orgName) throws MailException {
+    public void sendOrgAwaitingApprovalEmail(String sendTo, String orgName) {
         if (sendTo == null || sendTo.trim().isEmpty()) {
             throw new IllegalArgumentException("No email address!");
         }
@@ -62,19 +63,19 @@ public class EmailUtil {
         msg.setFrom(from);
         msg.setSubject(String.format(orgAwaitingApprovalSubject, orgName));
         msg.setText(String.format(orgAwaitingApprovalText, orgName));
-        this.mailSender.send(msg);
+        this.emailQueueService.enqueue(msg);
     }
 
-    public void sendAdminOrgAwaitingApprovalEmail(String orgName) throws MailException {
+    public void sendAdminOrgAwaitingApprovalEmail(String orgName) {
         SimpleMailMessage msg = new SimpleMailMessage();
         msg.setTo(adminEmail);
         msg.setFrom(from);
         msg.setSubject(String.format(orgAwaitingApprovalSubject, orgName));
         msg.setText(String.format(adminOrgAwaitingApprovalText, orgName));
-        this.mailSender.send(msg);
+        this.emailQueueService.enqueue(msg);
     }
 
-    public void sendUserCreatedEmail(String sendTo, String userName, String loginName, String loginPassword) throws MailException {
+    public void sendUserCreatedEmail(String sendTo, String userName, String loginName, String loginPassword) {
         if (sendTo == null || sendTo.trim().isEmpty()) {
             throw new IllegalArgumentException("No email address!");
         }
@@ -82,8 +83,9 @@ public class EmailUtil {
         msg.setTo(sendTo);
         msg.setFrom(from);
         msg.setSubject(createdUserSubject);
-        msg.setText(String.format(createdUserText, userName, loginName, loginPassword, portalUrl, projectIDPName));
-        this.mailSender.send(msg);
+        // The password is kept out of the queued text, and only put in when the email is sent
+        msg.setText(String.format(createdUserText, userName, loginName, QueuedEmail.SECRET_PLACEHOLDER, portalUrl, projectIDPName));
+        this.emailQueueService.enqueue(msg, loginPassword);
     }
 
 }
@@ -0,0 +1,104 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Helpers for conditional GET requests, using If-None-Match and If-Modified-Since
+ */
+public class HttpCacheUtil {
+
+    private HttpCacheUtil() {
+    }
+
+    /**
+     * Returns true if the client already has the version. If-None-Match takes precedence over If-Modified-Since.
+     */
+    public static boolean isNotModified(HttpServletRequest request, ResourceVersion version) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, version.getETag());
+        }
+        if (version.getLastModified() == null) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // Http dates only have second precision
+        return ifModifiedSince >= 0 && version.getLastModified().getTime() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Returns true if the If-None-Match header value contains the ETag, using the weak comparison
+     */
+    public static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = stripWeak(eTag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || stripWeak(candidate).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    /**
+     * Returns a 304 reply with the validators of the version
+     */
+    public static <T> ResponseEntity<T> notModified(ResourceVersion version) {
+        return withValidators(ResponseEntity.status(HttpStatus.NOT_MODIFIED), version).body(null);
+    }
+
+    /**
+     * Returns a 200 reply with the body and the validators of the version
+     */
+    public static <T> ResponseEntity<T> ok(T body, ResourceVersion version) {
+        return withValidators(ResponseEntity.status(HttpStatus.OK), version).body(body);
+    }
+
+    /**
+     * Returns a builder for a 200 reply with the validators of the version, for replies that need more headers
+     */
+    public static ResponseEntity.BodyBuilder okBuilder(ResourceVersion version) {
+        return withValidators(ResponseEntity.status(HttpStatus.OK), version);
+    }
+
+    private static ResponseEntity.BodyBuilder withValidators(ResponseEntity.BodyBuilder builder, ResourceVersion version) {
+        // The reply depends on who is asking, so it must not be stored by shared caches
+        builder.eTag(version.getETag()).cacheControl(CacheControl.noCache().cachePrivate());
+        if (version.getLastModified() != null) {
+            builder.lastModified(version.getLastModified().getTime());
+        }
+        return builder;
+    }
+}
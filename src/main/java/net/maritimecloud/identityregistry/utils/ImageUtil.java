@@ -15,11 +15,16 @@
 package net.maritimecloud.identityregistry.utils;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
 
 /*
   Util to scale images.
@@ -27,44 +32,133 @@ import java.io.InputStream;
   System.setProperty("java.awt.headless", "true");
   or this:
   -Djava.awt.headless=true
+
+  Images are never decoded at full resolution. The dimensions are read from the header first, and
+  large images are subsampled while decoding, so the memory used only depends on the target size.
  */
 public class ImageUtil {
 
-    public static final int MAX_HEIGHT = 600;
-    public static final int MAX_WIDTH = 800;
     public static final String OUTPUT_FORMAT = "png";
 
-    public static ByteArrayOutputStream resize(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream outputImageStream = new ByteArrayOutputStream();
-        BufferedImage inputImage = ImageIO.read(inputStream);
-        if (inputImage == null) {
+    // Limits for uploaded images
+    public static final int MAX_BYTES = 5 * 1024 * 1024;
+    public static final long MAX_PIXELS = 50L * 1000 * 1000;
+
+    /**
+     * Reads the stream into a byte array, failing as soon as it is longer than maxBytes.
+     */
+    public static byte[] readLimited(InputStream inputStream, int maxBytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int total = 0;
+        int read;
+        try {
+            while ((read = inputStream.read(buffer)) != -1) {
+                total += read;
+                if (total > maxBytes) {
+                    throw new IOException("Image is larger than " + maxBytes + " bytes!");
+                }
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Reads the dimensions of the image from its header, without decoding it. Fails if the format
+     * can't be read or the image has more than MAX_PIXELS pixels.
+     */
+    public static Dimension readDimensions(byte[] image) throws IOException {
+        if (image == null || image.length == 0 || image.length > MAX_BYTES) {
+            throw new IOException("Image is empty or larger than " + MAX_BYTES + " bytes!");
+        }
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            ImageReader reader = getReader(iis);
+            try {
+                return checkDimensions(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes the image, subsampling it so that the result is no more than about twice the size
+     * needed to fit within maxWidth and maxHeight.
+     */
+    public static BufferedImage read(byte[] image, int maxWidth, int maxHeight) throws IOException {
+        if (image == null || image.length == 0 || image.length > MAX_BYTES) {
+            throw new IOException("Image is empty or larger than " + MAX_BYTES + " bytes!");
+        }
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            ImageReader reader = getReader(iis);
+            try {
+                Dimension dimension = checkDimensions(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = (int) Math.max(1, Math.floor(Math.max(
+                        (double) dimension.width / maxWidth, (double) dimension.height / maxHeight)));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage inputImage = reader.read(0, param);
+                if (inputImage == null) {
+                    throw new IOException("Could not read input image!");
+                }
+                return inputImage;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader getReader(ImageInputStream iis) throws IOException {
+        if (iis == null) {
             throw new IOException("Could not read input image!");
         }
-        inputStream.close();
-        // If needed, find a new size for the image, so that it fits within MAX_HEIGHT and MAX_WIDTH
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext()) {
+            throw new IOException("Could not read input image!");
+        }
+        ImageReader reader = readers.next();
+        // Only the first image is read, no need to look for more or keep metadata
+        reader.setInput(iis, true, true);
+        return reader;
+    }
+
+    private static Dimension checkDimensions(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid image dimensions!");
+        }
+        if ((long) width * height > MAX_PIXELS) {
+            throw new IOException("Image has more than " + MAX_PIXELS + " pixels!");
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Scales the image so that it fits within maxWidth and maxHeight, and encodes it in the output format.
+     */
+    public static byte[] resize(BufferedImage inputImage, int maxWidth, int maxHeight) throws IOException {
+        // If needed, find a new size for the image, so that it fits within maxHeight and maxWidth
         int scaledHeight = inputImage.getHeight();
         int scaledWidth = inputImage.getWidth();
-        if (scaledHeight > MAX_HEIGHT || scaledWidth > MAX_WIDTH) {
-            float scaleByHeight = MAX_HEIGHT / scaledHeight;
-            float scaleByWidth = MAX_WIDTH / scaledWidth;
-            if (scaleByHeight < scaleByWidth) {
-                scaledHeight = (int) Math.round(Math.floor(scaledHeight * scaleByHeight));
-                scaledWidth = (int) Math.round(Math.floor(scaledWidth * scaleByHeight));
-            } else {
-                scaledHeight = (int) Math.round(Math.floor(scaledHeight * scaleByWidth));
-                scaledWidth = (int) Math.round(Math.floor(scaledWidth * scaleByWidth));
-            }
+        if (scaledHeight > maxHeight || scaledWidth > maxWidth) {
+            double scale = Math.min((double) maxHeight / scaledHeight, (double) maxWidth / scaledWidth);
+            scaledHeight = Math.max(1, (int) Math.floor(scaledHeight * scale));
+            scaledWidth = Math.max(1, (int) Math.floor(scaledWidth * scale));
         }
         // Create output image
         BufferedImage outputImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
 
         // Scale the input image to the output image
         Graphics2D g2d = outputImage.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
         g2d.drawImage(inputImage, 0, 0, scaledWidth, scaledHeight, null);
         g2d.dispose();
 
         // write to outputstream
+        ByteArrayOutputStream outputImageStream = new ByteArrayOutputStream();
         ImageIO.write(outputImage, OUTPUT_FORMAT, outputImageStream);
-        return outputImageStream;
+        return outputImageStream.toByteArray();
     }
 }
@@ -16,10 +16,14 @@ package net.maritimecloud.identityregistry.utils;
 
 import net.maritimecloud.identityregistry.model.database.IdentityProviderAttribute;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.resource.IdentityProviderResource;
 import org.keycloak.admin.client.resource.RealmResource;
@@ -31,11 +35,13 @@ import org.keycloak.representations.idm.UserRepresentation;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.core.Response;
 
@@ -72,6 +78,20 @@ public class KeycloakAdminUtil {
     @Value("${net.maritimecloud.idreg.keycloak-client-template}")
     private String keycloakClientTemplate;
 
+    // Setup of the pooled http client used when calling the keycloak api directly
+    @Value("${net.maritimecloud.idreg.keycloak-http.max-connections:20}")
+    private int httpMaxConnections;
+    @Value("${net.maritimecloud.idreg.keycloak-http.connect-timeout:5000}")
+    private int httpConnectTimeout;
+    @Value("${net.maritimecloud.idreg.keycloak-http.socket-timeout:10000}")
+    private int httpSocketTimeout;
+    @Value("${net.maritimecloud.idreg.keycloak-http.connection-request-timeout:5000}")
+    private int httpConnectionRequestTimeout;
+    @Value("${net.maritimecloud.idreg.keycloak-http.keep-alive:30000}")
+    private long httpKeepAlive;
+    @Value("${net.maritimecloud.idreg.keycloak-http.time-to-live:-1}")
+    private long httpTimeToLive;
+
     // Type of user
     public static final int NORMAL_USER = 0;
     public static final int ADMIN_USER = 1;
@@ -83,6 +103,10 @@ public class KeycloakAdminUtil {
     private Keycloak keycloakBrokerInstance = null;
     private Keycloak keycloakUserInstance = null;
 
+    // Shared pooled client used for the raw keycloak api calls, see getFromKeycloak
+    private CloseableHttpClient httpClient;
+    private PoolingHttpClientConnectionManager connectionManager;
+
     // Used in createIdpMapper
     private static final Map<String, String> oidcDefaultMappers = new HashMap<String, String>();
     static {
@@ -117,6 +141,46 @@ public class KeycloakAdminUtil {
     public KeycloakAdminUtil() {
     }
 
+    /**
+     * Sets up the pooled http client. Connections are kept alive and reused across calls. An idle connection is
+     * kept for the keep-alive time, or less if the server asks for it, while the time-to-live limits the total
+     * lifetime of a connection, which is unlimited if not positive.
+     */
+    @PostConstruct
+    public void initHttpClient() {
+        connectionManager = new PoolingHttpClientConnectionManager(httpTimeToLive, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(httpMaxConnections);
+        connectionManager.setDefaultMaxPerRoute(httpMaxConnections);
+        // Check connections that have been idle for a while before reusing them
+        connectionManager.setValidateAfterInactivity(2000);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(httpConnectTimeout)
+                .setSocketTimeout(httpSocketTimeout)
+                .setConnectionRequestTimeout(httpConnectionRequestTimeout)
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, httpKeepAlive) : httpKeepAlive;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(httpKeepAlive, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @PreDestroy
+    public void closeHttpClient() {
+        try {
+            if (httpClient != null) {
+                httpClient.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not close http client", e);
+        }
+    }
+
     /**
      * Init the keycloak instance. Will only initialize the instance defined by the type
      * 
@@ -481,6 +545,20 @@ public class KeycloakAdminUtil {
      * @throws IOException
      */
     public String createClient(String clientId, String type, String redirectUri) throws IOException {
+        return createClient(clientId, type, redirectUri, null);
+    }
+
+    /**
+     * Creates an OpenId Connect client in keycloak
+     *
+     * @param clientId       The client id
+     * @param type           The client type, can be public, bearer-only or confidential
+     * @param redirectUri    The redirect uri
+     * @param secret         The client secret to use. If null keycloak generates one.
+     * @return               Returns the client secret, unless the type is public, in which case an empty string is returned.
+     * @throws IOException
+     */
+    public String createClient(String clientId, String type, String redirectUri, String secret) throws IOException {
         ClientRepresentation client = new ClientRepresentation();
         client.setClientId(clientId);
         client.setClientAuthenticatorType("client-secret");
@@ -491,6 +569,9 @@ public class KeycloakAdminUtil {
         client.setEnabled(true);
         client.setConsentRequired(false);
         client.setClientTemplate(keycloakClientTemplate); // the template includes the mappers needed
+        if (secret != null && !"public".equals(type)) {
+            client.setSecret(secret);
+        }
         if ("public".equals(type)) {
             client.setBearerOnly(false);
             client.setPublicClient(true);
@@ -507,8 +588,7 @@ public class KeycloakAdminUtil {
         if (!"public".equals(type)) {
             // The client secret can't be retrived by the ClientRepresentation (bug?), so we need to use the ClientResource
             ClientRepresentation createdClient = getBrokerRealm().clients().findByClientId(clientId).get(0);
-            String secret = getBrokerRealm().clients().get(createdClient.getId()).getSecret().getValue();
-            return secret;
+            return getBrokerRealm().clients().get(createdClient.getId()).getSecret().getValue();
         } else {
             return "";
         }
@@ -523,9 +603,25 @@ public class KeycloakAdminUtil {
      * @return               Returns the generated client secret, unless the type is public, in which case an empty string is returned.
      */
     public String updateClient(String clientId, String type, String redirectUri) {
+        return updateClient(clientId, type, redirectUri, null);
+    }
+
+    /**
+     * Updates an OpenId Connect client in keycloak
+     *
+     * @param clientId
+     * @param type
+     * @param redirectUri
+     * @param secret         The client secret to use. If null the current secret is kept.
+     * @return               Returns the client secret, unless the type is public, in which case an empty string is returned.
+     */
+    public String updateClient(String clientId, String type, String redirectUri, String secret) {
         ClientRepresentation client = getBrokerRealm().clients().findByClientId(clientId).get(0);
         client.setClientAuthenticatorType(type);
         client.setRedirectUris(Arrays.asList(redirectUri));
+        if (secret != null && !"public".equals(type)) {
+            client.setSecret(secret);
+        }
         if ("public".equals(type)) {
             client.setBearerOnly(false);
             client.setPublicClient(true);
@@ -540,8 +636,7 @@ public class KeycloakAdminUtil {
         getBrokerRealm().clients().get(client.getId()).update(client);
         if (!type.equals("public")) {
             // The client secret can't be retrived by the ClientRepresentation (bug?), so we need to use the ClientResource
-            String secret = getBrokerRealm().clients().get(client.getId()).getSecret().getValue();
-            return secret;
+            return getBrokerRealm().clients().get(client.getId()).getSecret().getValue();
         } else {
             return "";
         }
@@ -591,29 +686,20 @@ public class KeycloakAdminUtil {
      * @return Returns a string representation of the result
      */
     private String getFromKeycloak(String url, String token) {
-        CloseableHttpClient client = HttpClientBuilder.create().build();
-        try {
-            logger.debug("get url: " + url);
-            HttpGet get = new HttpGet(url);
-            get.addHeader("Authorization", "Bearer " + token);
-            try {
-                HttpResponse response = client.execute(get);
-                if (response.getStatusLine().getStatusCode() != 200) {
-                    logger.debug("" + response.getStatusLine().getStatusCode());
-                    return null;
-                }
-                String content = getContent(response.getEntity());
-                return content;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        } finally {
-            try {
-                client.close();
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+        logger.debug("get url: " + url);
+        HttpGet get = new HttpGet(url);
+        get.addHeader("Authorization", "Bearer " + token);
+        // Closing the response releases the connection back to the pool
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() != 200) {
+                logger.debug("" + response.getStatusLine().getStatusCode());
+                EntityUtils.consume(entity);
+                return null;
             }
+            return getContent(entity);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -626,21 +712,6 @@ public class KeycloakAdminUtil {
      */
     private static String getContent(HttpEntity entity) throws IOException {
         if (entity == null) return null;
-        InputStream is = entity.getContent();
-        try {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            int c;
-            while ((c = is.read()) != -1) {
-                os.write(c);
-            }
-            byte[] bytes = os.toByteArray();
-            String data = new String(bytes);
-            return data;
-        } finally {
-            try {
-                is.close();
-            } catch (IOException ignored) {
-            }
-        }
+        return EntityUtils.toString(entity, StandardCharsets.UTF_8);
     }
 }
@@ -8,6 +8,7 @@ public class MCIdRegConstants {
     public static final String DEVICE_NOT_FOUND = "The device could not be found.";
     public static final String ENTITY_NOT_FOUND = "The entity could not be found.";
     public static final String ROLE_NOT_FOUND = "The role could not be found.";
+    public static final String WEBHOOK_NOT_FOUND = "The webhook could not be found.";
     public static final String URL_DATA_MISMATCH = "There is a mismatch between the url arguments and the data provided!";
     public static final String INVALID_REVOCATION_REASON = "The revocation reason is invalid!";
     public static final String INVALID_REVOCATION_DATE = "The revocation date must be set!";
@@ -20,4 +21,12 @@ public class MCIdRegConstants {
     public static final String ENTITY_ORG_ID_MISSING = "The organizational id of the entity is missing!";
     public static final String WRONG_ENTITY_ORG_ID_FORMAT = "The organizational id of the entity must be in lowercase and prefixed with the lowercase organization shortname follow by a dot!";
     public static final String INVALID_IMAGE = "Could not read the image format!";
+    public static final String INVALID_LOGO_SIZE = "Unknown logo size, must be one of thumbnail, list or full!";
+    public static final String LOGO_QUEUE_FULL = "Too many logos are being processed, please try again later!";
+    public static final String TOO_MANY_MRNS = "Too many MRNs in a single request, the maximum is 1000!";
+    public static final String TOO_MANY_REVOCATION_STREAMS = "Too many revocation streams are open, please try again later!";
+    public static final String INVALID_CHANGE_CURSOR = "The change cursor is malformed!";
+    public static final String CHANGE_CURSOR_EXPIRED = "The change cursor is too old, please sync again without a cursor!";
+    public static final String INVALID_WEBHOOK_URL = "The webhook URL must be http or https and point to a public address!";
+    public static final String INVALID_MRN_PREFIX = "A prefix of at least 1 character must be given!";
 }
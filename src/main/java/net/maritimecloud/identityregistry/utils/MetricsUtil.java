@@ -0,0 +1,67 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records timings and counts through the actuator metric services. With Dropwizard metrics on the classpath
+ * names starting with "timer." and "histogram." are kept as Dropwizard timers and histograms, so percentiles
+ * are available, see MetricsAspect and PrometheusEndpoint. Timings go straight to the Dropwizard timer in
+ * nanoseconds, as the gauge service only takes whole milliseconds, which would round sub-millisecond timings
+ * like connection acquisition down to zero.
+ */
+@Component
+public class MetricsUtil {
+
+    @Autowired
+    private CounterService counterService;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    /**
+     * Records the time since the given System.nanoTime() in the timer with the given name
+     *
+     * @param name the name of the timer, without the "timer." prefix
+     * @param startNanos the value of System.nanoTime() when the operation started
+     */
+    public void recordTime(String name, long startNanos) {
+        metricRegistry.timer("timer." + name).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a value, e.g. a size, in the histogram with the given name
+     *
+     * @param name the name of the histogram, without the "histogram." prefix
+     * @param value the value
+     */
+    public void recordValue(String name, long value) {
+        gaugeService.submit("histogram." + name, value);
+    }
+
+    public void increment(String name) {
+        counterService.increment(name);
+    }
+}
@@ -56,25 +56,7 @@ public class MrnUtil {
 
     public static String getOrgShortNameFromEntityMrn(String entityMrn) {
         // An entity MRN looks like this: urn:mrn:mcl:user:<org-shortname>:<user-id>
-        int tmpIdx = entityMrn.indexOf(":user:");
-        int startIdx = tmpIdx + 6;
-        if (tmpIdx < 0) {
-            tmpIdx = entityMrn.indexOf(":device:");
-            startIdx = tmpIdx + 8;
-        }
-        if (tmpIdx < 0) {
-            tmpIdx = entityMrn.indexOf(":vessel:");
-            startIdx = tmpIdx + 8;
-        }
-        if (tmpIdx < 0) {
-            tmpIdx = entityMrn.indexOf(":service:instance:");
-            startIdx = tmpIdx + 18;
-        }
-        if (tmpIdx < 0) {
-            throw new IllegalArgumentException("MRN is not a valid entity MRN!");
-        }
-        int endIdx = entityMrn.indexOf(":", startIdx);
-        return entityMrn.substring(startIdx, endIdx);
+        return ParsedMrn.parse(entityMrn).getOrgShortName();
     }
 
     public static String getEntityIdFromMrn(String entityMrn) {
@@ -83,12 +65,7 @@ public class MrnUtil {
     }
 
     public static String getServiceTypeFromMrn(String serviceMrn) {
-        if (!serviceMrn.contains(":instance:") || !serviceMrn.contains(":service:")) {
-            throw new IllegalArgumentException("The MRN must belong to a service instance!");
-        }
-        int startIdx = serviceMrn.indexOf(":service:instance:") + 18;
-        int endIdx = serviceMrn.indexOf(":", startIdx);
-        return serviceMrn.substring(startIdx, endIdx);
+        return ParsedMrn.parse(serviceMrn).getServiceType();
     }
 
     public static String generateMrnForEntity(String orgMrn, String type, String entityId) {
@@ -107,22 +84,8 @@ public class MrnUtil {
     }
 
     public static boolean validateMrn(String mrn) {
-        if (mrn == null || mrn.trim().isEmpty()) {
-            throw new IllegalArgumentException("MRN is empty");
-        }
-        if (!MRN_PATTERN.matcher(mrn).matches()) {
-            throw new IllegalArgumentException("MRN is not in a valid format");
-        }
-        // validate mrn based on the entity type
-        if (mrn.contains(":service:") && !MRN_SERVICE_INSTANCE_PATTERN.matcher(mrn).matches()) {
-            throw new IllegalArgumentException("MRN is not in a valid format for a service instances");
-        } else if (mrn.contains(":user:") && !MRN_USER_PATTERN.matcher(mrn).matches()) {
-            throw new IllegalArgumentException("MRN is not in a valid format for a user");
-        } else if (mrn.contains(":vessel:") && !MRN_VESSEL_PATTERN.matcher(mrn).matches()) {
-            throw new IllegalArgumentException("MRN is not in a valid format for a vessel");
-        } else if (mrn.contains(":device:") && !MRN_DEVICE_PATTERN.matcher(mrn).matches()) {
-            throw new IllegalArgumentException("MRN is not in a valid format for a device");
-        }
+        // Gives the same result as matching MRN_PATTERN and the entity specific patterns, in a single pass
+        ParsedMrn.parse(mrn).validate();
         return true;
     }
 
@@ -132,10 +95,11 @@ public class MrnUtil {
      * @return
      */
     public static String generateClientName(String serviceMrn) {
-        String orgShortName = getOrgShortNameFromEntityMrn(serviceMrn);
+        ParsedMrn parsedMrn = ParsedMrn.parse(serviceMrn);
+        String orgShortName = parsedMrn.getOrgShortName();
         String orgValidator = getOrgValidatorFromOrgShortname(orgShortName);
-        String serviceName = getEntityIdFromMrn(serviceMrn);
-        String serviceType = getServiceTypeFromMrn(serviceMrn);
+        String serviceName = parsedMrn.getEntityId();
+        String serviceType = parsedMrn.getServiceType();
         String clientName = orgValidator + "_" + orgShortName + "_" + serviceType + "_" + serviceName;
         return clientName;
     }
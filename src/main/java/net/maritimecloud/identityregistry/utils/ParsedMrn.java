@@ -0,0 +1,209 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+/**
+ * A parsed view of an MRN, made in a single pass over the string without regular expressions.
+ * Only offsets into the original string are kept while parsing, substrings are made when a part
+ * is asked for. Validation gives the same result as the patterns in MrnUtil.
+ */
+public final class ParsedMrn {
+
+    private static final String PREFIX = "urn:mrn:";
+
+    // Markers of the entity types, in the order they are looked for when finding the org shortname
+    private static final String[] MARKERS = {":user:", ":device:", ":vessel:", ":service:instance:", ":service:", ":instance:", ":org:"};
+    private static final int USER = 0;
+    private static final int DEVICE = 1;
+    private static final int VESSEL = 2;
+    private static final int SERVICE_INSTANCE = 3;
+    private static final int SERVICE = 4;
+    private static final int INSTANCE = 5;
+    private static final int ORG = 6;
+    private static final String[] ENTITY_TYPES = {"user", "device", "vessel", "service"};
+
+    // Characters allowed in the namespace specific string of an URN, besides %-escapes
+    private static final boolean[] ALLOWED = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ALLOWED[c] = true;
+            ALLOWED[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ALLOWED[c] = true;
+        }
+        for (char c : "()+,-.:=@;$_!*'".toCharArray()) {
+            ALLOWED[c] = true;
+        }
+    }
+
+    private final String mrn;
+    private String error;
+    private boolean hasPrefix;
+    private int ownerEnd = -1;
+    private int lastColon = -1;
+    // First case sensitive occurrence of each marker, and the colon ending the segment following it
+    private final int[] markerAt = {-1, -1, -1, -1, -1, -1, -1};
+    private final int[] segmentEnd = {-1, -1, -1, -1, -1, -1, -1};
+    // First case insensitive occurrence of the entity markers, that has something before and after it
+    private final int[] entityMarkerAt = {-1, -1, -1, -1};
+
+    private ParsedMrn(String mrn) {
+        this.mrn = mrn;
+        if (mrn == null || mrn.trim().isEmpty()) {
+            error = "MRN is empty";
+            return;
+        }
+        scan();
+    }
+
+    public static ParsedMrn parse(String mrn) {
+        return new ParsedMrn(mrn);
+    }
+
+    private void scan() {
+        int len = mrn.length();
+        hasPrefix = len > PREFIX.length() && mrn.regionMatches(true, 0, PREFIX, 0, PREFIX.length());
+        boolean validChars = hasPrefix;
+        for (int i = 0; i < len; i++) {
+            char c = mrn.charAt(i);
+            if (c == ':') {
+                onColon(i, len);
+            } else if (i >= PREFIX.length() && validChars) {
+                if (c == '%') {
+                    if (i + 2 < len && isHex(mrn.charAt(i + 1)) && isHex(mrn.charAt(i + 2))) {
+                        i += 2;
+                    } else {
+                        validChars = false;
+                    }
+                } else if (c >= 128 || !ALLOWED[c]) {
+                    validChars = false;
+                }
+            }
+        }
+        if (!validChars) {
+            error = "MRN is not in a valid format";
+        } else if (markerAt[SERVICE] >= 0 && entityMarkerAt[SERVICE_INSTANCE] < 0) {
+            error = "MRN is not in a valid format for a service instances";
+        } else if (markerAt[USER] >= 0 && entityMarkerAt[USER] < 0) {
+            error = "MRN is not in a valid format for a user";
+        } else if (markerAt[VESSEL] >= 0 && entityMarkerAt[VESSEL] < 0) {
+            error = "MRN is not in a valid format for a vessel";
+        } else if (markerAt[DEVICE] >= 0 && entityMarkerAt[DEVICE] < 0) {
+            error = "MRN is not in a valid format for a device";
+        }
+    }
+
+    private void onColon(int i, int len) {
+        lastColon = i;
+        if (ownerEnd < 0 && i >= PREFIX.length()) {
+            ownerEnd = i;
+        }
+        for (int k = 0; k < MARKERS.length; k++) {
+            String marker = MARKERS[k];
+            if (markerAt[k] >= 0) {
+                if (segmentEnd[k] < 0 && i >= markerAt[k] + marker.length()) {
+                    segmentEnd[k] = i;
+                }
+            } else if (mrn.startsWith(marker, i)) {
+                markerAt[k] = i;
+            }
+            // An entity MRN needs at least one character between the prefix and the marker, and one after it
+            if (k < entityMarkerAt.length && entityMarkerAt[k] < 0 && i > PREFIX.length()
+                    && i + marker.length() < len && mrn.regionMatches(true, i, marker, 0, marker.length())) {
+                entityMarkerAt[k] = i;
+            }
+        }
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    /* Returns the reason the MRN is invalid, or null if it is valid */
+    public String getError() {
+        return error;
+    }
+
+    /* Throws an IllegalArgumentException if the MRN is invalid */
+    public ParsedMrn validate() {
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        return this;
+    }
+
+    public String getMrn() {
+        return mrn;
+    }
+
+    public String getNamespace() {
+        return hasPrefix ? mrn.substring(4, 7) : null;
+    }
+
+    public String getOwner() {
+        if (!hasPrefix) {
+            return null;
+        }
+        return mrn.substring(PREFIX.length(), ownerEnd < 0 ? mrn.length() : ownerEnd);
+    }
+
+    /* Index of the marker used to find the org shortname, -1 if there is none */
+    private int entityMarker() {
+        for (int k = USER; k <= SERVICE_INSTANCE; k++) {
+            if (markerAt[k] >= 0) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /* Returns user, device, vessel, service or org, or null if the type is unknown */
+    public String getEntityType() {
+        int k = entityMarker();
+        if (k >= 0) {
+            return ENTITY_TYPES[k];
+        }
+        return markerAt[ORG] >= 0 ? "org" : null;
+    }
+
+    /**
+     * Returns the org shortname of an entity MRN, i.e. the segment following the entity type,
+     * like "dma" in urn:mrn:mcl:user:dma:b00345
+     */
+    public String getOrgShortName() {
+        int k = entityMarker();
+        if (k < 0 || segmentEnd[k] < 0) {
+            throw new IllegalArgumentException("MRN is not a valid entity MRN!");
+        }
+        return mrn.substring(markerAt[k] + MARKERS[k].length(), segmentEnd[k]);
+    }
+
+    /* Returns the last segment of the MRN */
+    public String getEntityId() {
+        return mrn.substring(lastColon + 1);
+    }
+
+    public String getServiceType() {
+        if (markerAt[INSTANCE] < 0 || markerAt[SERVICE] < 0 || markerAt[SERVICE_INSTANCE] < 0 || segmentEnd[SERVICE_INSTANCE] < 0) {
+            throw new IllegalArgumentException("The MRN must belong to a service instance!");
+        }
+        return mrn.substring(markerAt[SERVICE_INSTANCE] + MARKERS[SERVICE_INSTANCE].length(), segmentEnd[SERVICE_INSTANCE]);
+    }
+}
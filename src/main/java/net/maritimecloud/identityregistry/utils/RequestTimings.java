@@ -0,0 +1,94 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects how much time the current request spends in each phase (auth, org, entity, db, keycloak, sign...).
+ * Recording is only active between begin() and end(), which ServerTimingFilter calls when Server-Timing is
+ * enabled, otherwise all calls are no-ops.
+ *
+ * Usage:
+ * <pre>
+ *     long start = RequestTimings.start();
+ *     ...
+ *     RequestTimings.record("org", start);
+ * </pre>
+ */
+public final class RequestTimings {
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    // Total nanos and number of calls per phase, in the order the phases were first seen
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+    // Phases that were started by startPhase and are closed by end()
+    private final Map<String, Long> openPhases = new LinkedHashMap<>();
+
+    private RequestTimings() {
+    }
+
+    public static void begin() {
+        CURRENT.set(new RequestTimings());
+    }
+
+    /**
+     * Stops recording for the current thread and returns the recorded phases
+     *
+     * @return total nanos and number of calls per phase, or an empty map if recording was not active
+     */
+    public static Map<String, long[]> end() {
+        RequestTimings timings = CURRENT.get();
+        CURRENT.remove();
+        if (timings == null) {
+            return new LinkedHashMap<>();
+        }
+        for (Map.Entry<String, Long> open : timings.openPhases.entrySet()) {
+            timings.add(open.getKey(), open.getValue());
+        }
+        return timings.phases;
+    }
+
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    public static void record(String phase, long start) {
+        RequestTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.add(phase, start);
+        }
+    }
+
+    /* Starts a phase that lasts until the end of the request, e.g. serialization of the response */
+    public static void startPhase(String phase) {
+        RequestTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.openPhases.putIfAbsent(phase, System.nanoTime());
+        }
+    }
+
+    private void add(String phase, long start) {
+        long[] phaseTimings = phases.computeIfAbsent(phase, k -> new long[2]);
+        phaseTimings[0] += System.nanoTime() - start;
+        phaseTimings[1]++;
+    }
+}
@@ -0,0 +1,103 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Encrypts secrets, like generated passwords, that must be kept in the database until a background job has used
+ * them. Uses AES-GCM with the base64 encoded key in net.maritimecloud.idreg.secret-key, which must be the same on
+ * all instances. Without a key a random one is made at startup, so secrets queued before a restart, or by another
+ * instance, can't be decrypted.
+ */
+@Component
+public class SecretEncryptor {
+    private static final Logger logger = LoggerFactory.getLogger(SecretEncryptor.class);
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    @Value("${net.maritimecloud.idreg.secret-key:}")
+    private String configuredKey;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private SecretKey key;
+
+    @PostConstruct
+    public void init() throws GeneralSecurityException {
+        if (configuredKey == null || configuredKey.trim().isEmpty()) {
+            logger.warn("No net.maritimecloud.idreg.secret-key configured, secrets queued in the database will be lost on restart");
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(128, random);
+            key = keyGenerator.generateKey();
+        } else {
+            key = new SecretKeySpec(Base64.getDecoder().decode(configuredKey.trim()), "AES");
+        }
+    }
+
+    public String encrypt(String plaintext) {
+        if (plaintext == null) {
+            return null;
+        }
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + ciphertext.length).put(iv).put(ciphertext).array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt secret", e);
+        }
+    }
+
+    /**
+     * Decrypts a secret made by encrypt. Throws IllegalArgumentException if it was encrypted with another key or
+     * has been tampered with.
+     */
+    public String decrypt(String encrypted) {
+        if (encrypted == null) {
+            return null;
+        }
+        byte[] bytes = Base64.getDecoder().decode(encrypted);
+        if (bytes.length <= IV_LENGTH) {
+            throw new IllegalArgumentException("Invalid encrypted secret");
+        }
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, bytes, 0, IV_LENGTH));
+            return new String(cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Could not decrypt secret", e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.util.EntityUtils;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts signed webhook events to the subscribers. Webhooks may only point to public addresses, unless
+ * allow-private-addresses is set, so they can't be used to reach the registry's own network. The addresses are
+ * checked when a host is resolved for a connection, so a name that later resolves to a private address is refused too.
+ */
+@Component
+public class WebhookSender {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookSender.class);
+
+    public static final String SIGNATURE_HEADER = "X-MC-Signature";
+    public static final String EVENT_COUNT_HEADER = "X-MC-Event-Count";
+
+    @Value("${net.maritimecloud.idreg.webhooks.max-connections:50}")
+    private int maxConnections;
+    @Value("${net.maritimecloud.idreg.webhooks.connect-timeout:5000}")
+    private int connectTimeout;
+    @Value("${net.maritimecloud.idreg.webhooks.socket-timeout:10000}")
+    private int socketTimeout;
+    @Value("${net.maritimecloud.idreg.webhooks.keep-alive:30000}")
+    private long keepAlive;
+    @Value("${net.maritimecloud.idreg.webhooks.time-to-live:-1}")
+    private long timeToLive;
+    @Value("${net.maritimecloud.idreg.webhooks.allow-private-addresses:false}")
+    private boolean allowPrivateAddresses;
+
+    private CloseableHttpClient httpClient;
+
+    @PostConstruct
+    public void initHttpClient() {
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                .build();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories,
+                null, null, this::resolve, timeToLive, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        // The concurrency of each subscriber is limited by the dispatcher
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(2000);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setRedirectsEnabled(false)
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableCookieManagement()
+                .setKeepAliveStrategy((response, context) -> {
+                    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @PreDestroy
+    public void closeHttpClient() {
+        try {
+            if (httpClient != null) {
+                httpClient.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not close http client", e);
+        }
+    }
+
+    /**
+     * Posts the events to the url
+     *
+     * @param url       Where to post the events
+     * @param secret    The secret the body is signed with
+     * @param body      Json array of events
+     * @param count     Number of events in the body
+     * @throws IOException if the events could not be posted, or the subscriber did not reply with 2xx
+     */
+    public void send(String url, String secret, String body, int count) throws IOException {
+        HttpPost post = new HttpPost(url);
+        post.setHeader(SIGNATURE_HEADER, "sha256=" + sign(secret, body));
+        post.setHeader(EVENT_COUNT_HEADER, String.valueOf(count));
+        post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            // Read the body so the connection can be reused
+            EntityUtils.consumeQuietly(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                throw new IOException("Webhook replied with status " + status);
+            }
+        }
+    }
+
+    /**
+     * Checks that events can be posted to the url: it must be http or https, and its host must resolve to a
+     * public address
+     *
+     * @param url       The url of the webhook
+     * @throws IOException if the url is malformed or not allowed
+     */
+    public void checkUrl(String url) throws IOException {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IOException("Malformed url: " + url, e);
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            throw new IOException("Only http and https urls are allowed");
+        }
+        if (uri.getHost() == null) {
+            throw new IOException("The url has no host");
+        }
+        resolve(uri.getHost());
+    }
+
+    /* Resolves the host, leaving out the addresses webhooks may not be posted to */
+    private InetAddress[] resolve(String host) throws UnknownHostException {
+        InetAddress[] addresses = SystemDefaultDnsResolver.INSTANCE.resolve(host);
+        if (allowPrivateAddresses) {
+            return addresses;
+        }
+        List<InetAddress> allowed = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            if (!isPrivate(address)) {
+                allowed.add(address);
+            }
+        }
+        if (allowed.isEmpty()) {
+            throw new UnknownHostException(host + " only resolves to private addresses");
+        }
+        return allowed.toArray(new InetAddress[allowed.size()]);
+    }
+
+    /**
+     * Returns true for loopback, link-local, private network, wildcard and multicast addresses
+     */
+    public static boolean isPrivate(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress()
+                || address.isAnyLocalAddress() || address.isMulticastAddress()) {
+            return true;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            // "This network" (0.0.0.0/8) and the carrier-grade NAT range (100.64.0.0/10)
+            return bytes[0] == 0 || (bytes[0] == 100 && (bytes[1] & 0xc0) == 64);
+        }
+        // Unique local IPv6 addresses (fc00::/7), which isSiteLocalAddress() doesn't cover
+        return (bytes[0] & 0xfe) == 0xfc;
+    }
+
+    /**
+     * Returns the hex encoded HMAC-SHA256 of the body
+     */
+    public static String sign(String secret, String body) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return Hex.toHexString(mac.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
@@ -15,7 +15,7 @@
 package net.maritimecloud.identityregistry.validators;
 
 
-import net.maritimecloud.identityregistry.utils.MrnUtil;
+import net.maritimecloud.identityregistry.utils.ParsedMrn;
 
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
@@ -28,16 +28,15 @@ public class MRNValidator implements ConstraintValidator<MRN, String> {
 
     @Override
     public boolean isValid(String value, ConstraintValidatorContext context) {
-        try {
-            boolean ret = MrnUtil.validateMrn(value);
-            return ret;
-        } catch (IllegalArgumentException e) {
-            context.disableDefaultConstraintViolation();
-            context
-                .buildConstraintViolationWithTemplate(e.getMessage())
-                .addConstraintViolation();
-            return false;
+        ParsedMrn parsedMrn = ParsedMrn.parse(value);
+        if (parsedMrn.isValid()) {
+            return true;
         }
+        context.disableDefaultConstraintViolation();
+        context
+            .buildConstraintViolationWithTemplate(parsedMrn.getError())
+            .addConstraintViolation();
+        return false;
     }
 
 }
\ No newline at end of file
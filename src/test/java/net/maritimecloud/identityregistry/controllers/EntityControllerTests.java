@@ -0,0 +1,134 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.controllers;
+
+import net.maritimecloud.identityregistry.exception.McBasicRestException;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.model.database.entities.Vessel;
+import net.maritimecloud.identityregistry.services.EntityService;
+import net.maritimecloud.identityregistry.services.OrganizationService;
+import net.maritimecloud.identityregistry.utils.MCIdRegConstants;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.validation.BeanPropertyBindingResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that the organization in the path of a request must match the organization part of the entity MRN
+ */
+public class EntityControllerTests {
+
+    private static final String ORG_MRN = "urn:mrn:mcl:org:dma";
+    private static final String OWN_VESSEL_MRN = "urn:mrn:mcl:vessel:dma:poul-loewenoern";
+    private static final String OTHER_VESSEL_MRN = "urn:mrn:mcl:vessel:sma:sea-star";
+
+    private VesselController controller;
+    private EntityService<Vessel> vesselService;
+    private MockHttpServletRequest request;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        OrganizationService organizationService = mock(OrganizationService.class);
+        when(organizationService.getOrganizationByMrn(ORG_MRN)).thenReturn(new Organization());
+        vesselService = mock(EntityService.class);
+        when(vesselService.save(any(Vessel.class))).thenAnswer(invocation -> invocation.getArguments()[0]);
+        controller = new VesselController();
+        controller.setOrganizationService(organizationService);
+        controller.setVesselService(vesselService);
+        request = new MockHttpServletRequest();
+        request.setServletPath("/api/org/" + ORG_MRN + "/vessel");
+    }
+
+    @Test
+    public void createVesselInOwnOrganization() throws McBasicRestException {
+        Vessel vessel = vessel(OWN_VESSEL_MRN);
+        ResponseEntity<Vessel> response = controller.createVessel(request, ORG_MRN, vessel, bindingResult(vessel));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        verify(vesselService).save(vessel);
+    }
+
+    @Test
+    public void createVesselOfOtherOrganizationIsRejected() {
+        Vessel vessel = vessel(OTHER_VESSEL_MRN);
+        try {
+            controller.createVessel(request, ORG_MRN, vessel, bindingResult(vessel));
+            fail("A vessel of another organization should not be created");
+        } catch (McBasicRestException e) {
+            assertRejected(e);
+        }
+        verify(vesselService, never()).save(any(Vessel.class));
+    }
+
+    @Test
+    public void getVesselOfOtherOrganizationIsRejected() {
+        try {
+            controller.getVessel(request, ORG_MRN, OTHER_VESSEL_MRN);
+            fail("A vessel of another organization should not be returned");
+        } catch (McBasicRestException e) {
+            assertRejected(e);
+        }
+    }
+
+    @Test
+    public void updateVesselOfOtherOrganizationIsRejected() {
+        Vessel vessel = vessel(OTHER_VESSEL_MRN);
+        try {
+            controller.updateVessel(request, ORG_MRN, OTHER_VESSEL_MRN, vessel, bindingResult(vessel));
+            fail("A vessel of another organization should not be updated");
+        } catch (McBasicRestException e) {
+            assertRejected(e);
+        }
+        verify(vesselService, never()).save(any(Vessel.class));
+    }
+
+    @Test
+    public void deleteVesselOfOtherOrganizationIsRejected() {
+        try {
+            controller.deleteVessel(request, ORG_MRN, OTHER_VESSEL_MRN);
+            fail("A vessel of another organization should not be deleted");
+        } catch (McBasicRestException e) {
+            assertRejected(e);
+        }
+        verify(vesselService, never()).delete(anyLong());
+    }
+
+    private static Vessel vessel(String mrn) {
+        Vessel vessel = new Vessel();
+        vessel.setMrn(mrn);
+        vessel.setName("Test vessel");
+        return vessel;
+    }
+
+    private static BeanPropertyBindingResult bindingResult(Vessel vessel) {
+        return new BeanPropertyBindingResult(vessel, "vessel");
+    }
+
+    private static void assertRejected(McBasicRestException e) {
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        assertEquals(MCIdRegConstants.MISSING_RIGHTS, e.getErrorMessage());
+    }
+}
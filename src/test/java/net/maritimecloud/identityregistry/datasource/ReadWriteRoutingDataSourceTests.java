@@ -0,0 +1,114 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.datasource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadWriteRoutingDataSourceTests {
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private ReadWriteRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readTransaction;
+    private TransactionTemplate writeTransaction;
+
+    @Before
+    public void setUp() {
+        primary = createDatabase("primary");
+        replica = createDatabase("replica");
+        routingDataSource = new ReadWriteRoutingDataSource(primary.getDataSource(),
+                Collections.singletonList(replica.getDataSource()), "SELECT lag FROM replication", 10, 0);
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+        writeTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @After
+    public void tearDown() {
+        ReadWriteRoutingDataSource.clearRequest();
+        primary.execute("DROP ALL OBJECTS");
+        replica.execute("DROP ALL OBJECTS");
+    }
+
+    private JdbcTemplate createDatabase(String name) {
+        JdbcTemplate db = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:routing-" + name + ";DB_CLOSE_DELAY=-1"));
+        db.execute("CREATE TABLE node (name VARCHAR(20))");
+        db.update("INSERT INTO node VALUES (?)", name);
+        db.execute("CREATE TABLE replication (lag INT)");
+        db.update("INSERT INTO replication VALUES (0)");
+        return db;
+    }
+
+    private String readNode() {
+        return readTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT name FROM node", String.class));
+    }
+
+    @Test
+    public void readOnlyTransactionsUseReplica() {
+        assertEquals("replica", readNode());
+    }
+
+    @Test
+    public void writeTransactionsUsePrimary() {
+        String node = writeTransaction.execute(status -> jdbcTemplate.queryForObject("SELECT name FROM node", String.class));
+        assertEquals("primary", node);
+    }
+
+    @Test
+    public void readsAfterWriteUsePrimaryUntilRequestIsCleared() {
+        writeTransaction.execute(status -> jdbcTemplate.update("UPDATE node SET name = 'written'"));
+        assertEquals("written", readNode());
+        ReadWriteRoutingDataSource.clearRequest();
+        assertEquals("replica", readNode());
+    }
+
+    @Test
+    public void laggingReplicaIsSkipped() {
+        replica.update("UPDATE replication SET lag = 60");
+        routingDataSource.checkReplicas();
+        assertEquals("primary", readNode());
+
+        replica.update("UPDATE replication SET lag = 1");
+        routingDataSource.checkReplicas();
+        assertEquals("replica", readNode());
+    }
+
+    @Test
+    public void unreachableReplicaFallsBackToPrimary() {
+        ReadWriteRoutingDataSource withBrokenReplica = new ReadWriteRoutingDataSource(primary.getDataSource(),
+                Collections.singletonList(new DriverManagerDataSource("jdbc:h2:tcp://localhost:1/none")), null, 10, 0);
+        DataSource dataSource = new LazyConnectionDataSourceProxy(withBrokenReplica);
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transaction.setReadOnly(true);
+        String node = transaction.execute(status -> new JdbcTemplate(dataSource).queryForObject("SELECT name FROM node", String.class));
+        assertEquals("primary", node);
+    }
+}
@@ -0,0 +1,75 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletResponse;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ServerTimingFilterTests {
+
+    private ServerTimingFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Before
+    public void setUp() {
+        filter = new ServerTimingFilter();
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        ReflectionTestUtils.setField(filter, "slowRequestThreshold", 1000L);
+        ReflectionTestUtils.setField(filter, "slowRequestSampleRate", 0.0);
+        request = new MockHttpServletRequest("GET", "/oidc/api/orgs");
+        request.setAsyncSupported(true);
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    public void bufferedResponseGetsHeaderAndBody() throws Exception {
+        filter.doFilter(request, response, (req, res) -> res.getWriter().write("[]"));
+
+        assertEquals("[]", response.getContentAsString());
+        assertNotNull(response.getHeader(ServerTimingFilter.SERVER_TIMING_HEADER));
+        assertTrue(response.getHeader(ServerTimingFilter.SERVER_TIMING_HEADER).contains("total;dur="));
+    }
+
+    @Test
+    public void asyncResponseIsWrittenDirectly() throws Exception {
+        AtomicReference<ServletResponse> asyncResponse = new AtomicReference<>();
+        FilterChain chain = (req, res) -> {
+            req.startAsync();
+            asyncResponse.set(res);
+        };
+
+        filter.doFilter(request, response, chain);
+        // Written by the async processing after the filter has returned, like an SseEmitter does
+        asyncResponse.get().getOutputStream().write("data:1\n\n".getBytes("UTF-8"));
+        asyncResponse.get().flushBuffer();
+
+        assertEquals("data:1\n\n", response.getContentAsString());
+        assertNull(response.getHeader(ServerTimingFilter.SERVER_TIMING_HEADER));
+        assertNull(response.getHeader("Content-Length"));
+    }
+}
@@ -0,0 +1,226 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.repositories;
+
+import net.maritimecloud.identityregistry.model.database.Certificate;
+import net.maritimecloud.identityregistry.model.database.IdentityProviderAttribute;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.model.database.entities.Vessel;
+import net.maritimecloud.identityregistry.model.database.entities.VesselAttribute;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what the repository queries load and how many statements it takes, against an in-memory database. The
+ * collections are lazy, so a query that forgets its fetch plan, or a lost @BatchSize, shows up as extra statements.
+ */
+public class FetchPlanTests {
+
+    private static final int ORGANIZATIONS = 3;
+    private static final int VESSELS = 60;
+
+    private static EmbeddedDatabase database;
+    private static EntityManagerFactory entityManagerFactory;
+    private static TransactionTemplate transactionTemplate;
+    private static OrganizationRepository organizationRepository;
+    private static VesselRepository vesselRepository;
+    private static Long orgId;
+
+    private Statistics statistics;
+
+    @BeforeClass
+    public static void setUpDatabase() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+        HibernateJpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
+        vendorAdapter.setGenerateDdl(true);
+        Properties properties = new Properties();
+        properties.setProperty("hibernate.generate_statistics", "true");
+        properties.setProperty("javax.persistence.validation.mode", "none");
+        LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(database);
+        factoryBean.setJpaVendorAdapter(vendorAdapter);
+        factoryBean.setPackagesToScan("net.maritimecloud.identityregistry.model.database");
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+        entityManagerFactory = factoryBean.getObject();
+        transactionTemplate = new TransactionTemplate(new JpaTransactionManager(entityManagerFactory));
+
+        JpaRepositoryFactory repositoryFactory = new JpaRepositoryFactory(
+                SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory));
+        organizationRepository = repositoryFactory.getRepository(OrganizationRepository.class);
+        vesselRepository = repositoryFactory.getRepository(VesselRepository.class);
+
+        orgId = transactionTemplate.execute(status -> {
+            EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+            List<Organization> orgs = new ArrayList<>();
+            for (int i = 0; i < ORGANIZATIONS; i++) {
+                Organization org = new Organization();
+                org.setMrn("urn:mrn:mcl:org:fetch" + i);
+                org.setName("Fetch " + i);
+                org.setApproved(true);
+                List<IdentityProviderAttribute> attributes = new ArrayList<>();
+                for (String name : new String[] {"importUrl", "clientId"}) {
+                    IdentityProviderAttribute attribute = new IdentityProviderAttribute();
+                    attribute.setAttributeName(name);
+                    attribute.setAttributeValue("secret");
+                    attribute.setOrganization(org);
+                    attributes.add(attribute);
+                }
+                org.setIdentityProviderAttributes(attributes);
+                entityManager.persist(org);
+                orgs.add(org);
+            }
+            Organization unapproved = new Organization();
+            unapproved.setMrn("urn:mrn:mcl:org:unapproved");
+            unapproved.setName("Unapproved");
+            entityManager.persist(unapproved);
+            for (int i = 0; i < VESSELS; i++) {
+                Vessel vessel = new Vessel();
+                vessel.setMrn("urn:mrn:mcl:vessel:fetch0:" + i);
+                vessel.setName("Vessel " + i);
+                vessel.setIdOrganization(orgs.get(0).getId());
+                VesselAttribute attribute = new VesselAttribute();
+                attribute.setAttributeName("imo-number");
+                attribute.setAttributeValue(String.valueOf(i));
+                attribute.setVessel(vessel);
+                vessel.setAttributes(new ArrayList<>(Collections.singletonList(attribute)));
+                entityManager.persist(vessel);
+                Certificate certificate = new Certificate();
+                certificate.setCertificate("cert " + i);
+                certificate.setVessel(vessel);
+                entityManager.persist(certificate);
+            }
+            return orgs.get(0).getId();
+        });
+    }
+
+    @AfterClass
+    public static void tearDownDatabase() {
+        entityManagerFactory.close();
+        database.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    public void publicListLeavesAttributesUnloaded() {
+        transactionTemplate.execute(status -> {
+            List<Organization> orgs = organizationRepository.findByApprovedTrue();
+            assertEquals(ORGANIZATIONS, orgs.size());
+            for (Organization org : orgs) {
+                assertFalse(Hibernate.isInitialized(org.getIdentityProviderAttributes()));
+            }
+            assertEquals(1, statistics.getPrepareStatementCount());
+            return null;
+        });
+    }
+
+    @Test
+    public void detailedListJoinsAttributes() {
+        transactionTemplate.execute(status -> {
+            List<Organization> orgs = organizationRepository.findDetailedByApprovedTrue();
+            assertEquals(ORGANIZATIONS, orgs.size());
+            for (Organization org : orgs) {
+                assertTrue(Hibernate.isInitialized(org.getIdentityProviderAttributes()));
+                assertEquals(2, org.getIdentityProviderAttributes().size());
+            }
+            assertEquals(1, statistics.getPrepareStatementCount());
+            return null;
+        });
+    }
+
+    @Test
+    public void detailedLookupJoinsAttributes() {
+        transactionTemplate.execute(status -> {
+            Organization org = organizationRepository.findDetailedByMrnAndApprovedTrue("urn:mrn:mcl:org:fetch1");
+            assertTrue(Hibernate.isInitialized(org.getIdentityProviderAttributes()));
+            assertEquals(2, org.getIdentityProviderAttributes().size());
+            assertEquals(1, statistics.getPrepareStatementCount());
+            return null;
+        });
+    }
+
+    @Test
+    public void lookupLeavesAttributesUnloaded() {
+        transactionTemplate.execute(status -> {
+            Organization org = organizationRepository.findByMrnAndApprovedTrue("urn:mrn:mcl:org:fetch1");
+            assertFalse(Hibernate.isInitialized(org.getIdentityProviderAttributes()));
+            assertEquals(1, statistics.getPrepareStatementCount());
+            return null;
+        });
+    }
+
+    @Test
+    public void entityListJoinsCertificatesAndBatchesAttributes() {
+        transactionTemplate.execute(status -> {
+            List<Vessel> vessels = vesselRepository.findDistinctByidOrganization(orgId);
+            assertEquals(VESSELS, vessels.size());
+            for (Vessel vessel : vessels) {
+                assertTrue(Hibernate.isInitialized(vessel.getCertificates()));
+                assertEquals(1, vessel.getCertificates().size());
+            }
+            assertEquals(1, statistics.getPrepareStatementCount());
+            for (Vessel vessel : vessels) {
+                assertEquals(1, vessel.getAttributes().size());
+            }
+            // 50 vessels, then the last 10
+            assertEquals(3, statistics.getPrepareStatementCount());
+            return null;
+        });
+    }
+
+    @Test
+    public void certificatesAreBatchFetched() {
+        transactionTemplate.execute(status -> {
+            List<Vessel> vessels = vesselRepository.findByidOrganization(orgId);
+            assertEquals(VESSELS, vessels.size());
+            assertFalse(Hibernate.isInitialized(vessels.get(0).getCertificates()));
+            for (Vessel vessel : vessels) {
+                assertEquals(1, vessel.getCertificates().size());
+            }
+            assertEquals(3, statistics.getPrepareStatementCount());
+            return null;
+        });
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.maritimecloud.identityregistry.model.database.IdentityProviderAttribute;
+import net.maritimecloud.identityregistry.model.database.Organization;
+import net.maritimecloud.identityregistry.model.database.entities.Service;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensitiveFieldFilterTests {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void publicViewHidesServiceSecrets() throws Exception {
+        Service service = new Service();
+        service.setMrn("urn:mrn:mcl:service:dma:test");
+        service.setOidcClientId("client");
+        service.setOidcClientSecret("secret");
+
+        JsonNode json = mapper.readTree(mapper.writer(SensitiveFieldFilter.publicFilters()).writeValueAsString(service));
+
+        assertEquals("urn:mrn:mcl:service:dma:test", json.get("mrn").asText());
+        assertFalse(json.has("oidcClientId"));
+        assertFalse(json.has("oidcClientSecret"));
+        // The entity itself is left as it was
+        assertEquals("secret", service.getOidcClientSecret());
+    }
+
+    @Test
+    public void publicViewHidesIdentityProviderAttributes() throws Exception {
+        IdentityProviderAttribute attribute = new IdentityProviderAttribute();
+        attribute.setAttributeName("importUrl");
+        attribute.setAttributeValue("https://idp.example.com");
+        Organization org = new Organization();
+        org.setMrn("urn:mrn:mcl:org:dma");
+        org.setIdentityProviderAttributes(new ArrayList<>(Collections.singletonList(attribute)));
+
+        JsonNode json = mapper.readTree(mapper.writer(SensitiveFieldFilter.publicFilters()).writeValueAsString(org));
+
+        assertTrue(json.get("identityProviderAttributes").isArray());
+        assertEquals(0, json.get("identityProviderAttributes").size());
+        assertEquals(1, org.getIdentityProviderAttributes().size());
+    }
+}
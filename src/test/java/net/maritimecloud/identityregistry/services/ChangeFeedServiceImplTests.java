@@ -0,0 +1,204 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.ChangeSet;
+import net.maritimecloud.identityregistry.model.database.TimestampModel;
+import net.maritimecloud.identityregistry.model.database.Tombstone;
+import net.maritimecloud.identityregistry.model.database.entities.Vessel;
+import net.maritimecloud.identityregistry.repositories.TombstoneRepository;
+import net.maritimecloud.identityregistry.repositories.VesselRepository;
+import net.maritimecloud.identityregistry.utils.ChangeCursor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks how the changed entities and the tombstones are merged into pages, and how the cursor moves, with the
+ * repositories mocked.
+ */
+public class ChangeFeedServiceImplTests {
+
+    private static final long SETTLE_TIME = 5000;
+    private static final long T1 = 1476000000000L;
+    private static final long T2 = T1 + 1000;
+    private static final long T3 = T1 + 2000;
+
+    private ChangeFeedServiceImpl changeFeedService;
+    private TombstoneRepository tombstoneRepository;
+    private VesselRepository vesselRepository;
+
+    @Before
+    public void setUp() {
+        tombstoneRepository = mock(TombstoneRepository.class);
+        vesselRepository = mock(VesselRepository.class);
+        changeFeedService = new ChangeFeedServiceImpl();
+        changeFeedService.setTombstoneRepository(tombstoneRepository);
+        ReflectionTestUtils.setField(changeFeedService, "settleTime", SETTLE_TIME);
+        ReflectionTestUtils.setField(changeFeedService, "tombstoneRetention", 7776000000L);
+    }
+
+    @Test
+    public void streamsAreMergedByTime() {
+        changed(vessel(1, T1), vessel(3, T3));
+        deleted(tombstone(10, T2));
+
+        ChangeSet<Vessel> changes = getChanges(ChangeCursor.START, 2);
+
+        assertEquals(Collections.singletonList(1L), ids(changes.getChanged()));
+        assertEquals(Collections.singletonList(10L), ids(changes.getDeleted()));
+        assertTrue(changes.isMore());
+        ChangeCursor next = ChangeCursor.parse(changes.getCursor());
+        assertEquals(T1, next.getChangedAt().getTime());
+        assertEquals(1, next.getChangedId());
+    }
+
+    @Test
+    public void changeIsTakenBeforeTombstoneWithSameTime() {
+        changed(vessel(1, T1), vessel(2, T1), vessel(3, T1));
+        deleted(tombstone(10, T1));
+
+        ChangeSet<Vessel> changes = getChanges(ChangeCursor.START, 2);
+
+        assertEquals(Arrays.asList(1L, 2L), ids(changes.getChanged()));
+        assertTrue(changes.getDeleted().isEmpty());
+        assertTrue(changes.isMore());
+        ChangeCursor next = ChangeCursor.parse(changes.getCursor());
+        // The tie is broken by id within a stream, and the tombstone stream has not moved
+        assertEquals(T1, next.getChangedAt().getTime());
+        assertEquals(2, next.getChangedId());
+        assertEquals(ChangeCursor.START.getDeletedAt(), next.getDeletedAt());
+        assertEquals(ChangeCursor.START.getDeletedId(), next.getDeletedId());
+    }
+
+    @Test
+    public void fullPageLeavesCursorAtLastReturnedRow() {
+        changed(vessel(1, T1), vessel(2, T2), vessel(3, T3));
+        deleted();
+
+        long before = System.currentTimeMillis();
+        ChangeSet<Vessel> changes = getChanges(ChangeCursor.START, 2);
+        long after = System.currentTimeMillis();
+
+        assertEquals(Arrays.asList(1L, 2L), ids(changes.getChanged()));
+        assertTrue(changes.isMore());
+        ChangeCursor next = ChangeCursor.parse(changes.getCursor());
+        assertEquals(T2, next.getChangedAt().getTime());
+        assertEquals(2, next.getChangedId());
+        // The tombstones have been read to the end
+        assertUntil(next.getDeletedAt(), before, after);
+        assertEquals(Long.MAX_VALUE, next.getDeletedId());
+    }
+
+    @Test
+    public void streamsReadToTheEndMoveCursorToSettleTime() {
+        changed(vessel(1, T1));
+        deleted(tombstone(10, T2));
+
+        long before = System.currentTimeMillis();
+        ChangeSet<Vessel> changes = getChanges(ChangeCursor.START, 2);
+        long after = System.currentTimeMillis();
+
+        assertEquals(Collections.singletonList(1L), ids(changes.getChanged()));
+        assertEquals(Collections.singletonList(10L), ids(changes.getDeleted()));
+        assertFalse(changes.isMore());
+        ChangeCursor next = ChangeCursor.parse(changes.getCursor());
+        assertUntil(next.getChangedAt(), before, after);
+        assertEquals(Long.MAX_VALUE, next.getChangedId());
+        assertUntil(next.getDeletedAt(), before, after);
+        assertEquals(Long.MAX_VALUE, next.getDeletedId());
+    }
+
+    @Test
+    public void nextPageIsReadFromCursor() {
+        changed();
+        deleted();
+        ChangeCursor cursor = new ChangeCursor(new Date(T1), 2, new Date(T2), 10);
+
+        getChanges(cursor, 2);
+
+        ArgumentCaptor<Pageable> page = ArgumentCaptor.forClass(Pageable.class);
+        verify(vesselRepository).findChangedSince(eq(new Date(T1)), eq(2L), any(Date.class), page.capture());
+        verify(tombstoneRepository).findDeletedSince(eq("vessel"), eq(new Date(T2)), eq(10L), any(Date.class), any(Pageable.class));
+        // One more than the limit, to know if there are more
+        assertEquals(3, page.getValue().getPageSize());
+    }
+
+    @Test
+    public void changesInOrganizationAreReadWithOrganization() {
+        when(vesselRepository.findChangedSinceInOrg(any(Date.class), anyLong(), any(Date.class), eq(7L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(vessel(1, T1)));
+        when(tombstoneRepository.findDeletedSinceInOrg(eq("vessel"), any(Date.class), anyLong(), any(Date.class), eq(7L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        ChangeSet<Vessel> changes = changeFeedService.getChanges("vessel", vesselRepository, 7L, ChangeCursor.START, 2);
+
+        assertEquals(Collections.singletonList(1L), ids(changes.getChanged()));
+    }
+
+    private ChangeSet<Vessel> getChanges(ChangeCursor cursor, int limit) {
+        return changeFeedService.getChanges("vessel", vesselRepository, null, cursor, limit);
+    }
+
+    private void changed(Vessel... vessels) {
+        when(vesselRepository.findChangedSince(any(Date.class), anyLong(), any(Date.class), any(Pageable.class)))
+                .thenReturn(Arrays.asList(vessels));
+    }
+
+    private void deleted(Tombstone... tombstones) {
+        when(tombstoneRepository.findDeletedSince(eq("vessel"), any(Date.class), anyLong(), any(Date.class), any(Pageable.class)))
+                .thenReturn(Arrays.asList(tombstones));
+    }
+
+    private void assertUntil(Date date, long before, long after) {
+        assertTrue(date.getTime() >= before - SETTLE_TIME && date.getTime() <= after - SETTLE_TIME);
+    }
+
+    private Vessel vessel(long id, long updatedAt) {
+        Vessel vessel = new Vessel();
+        ReflectionTestUtils.setField(vessel, "id", id);
+        ReflectionTestUtils.setField(vessel, "updatedAt", new Date(updatedAt));
+        return vessel;
+    }
+
+    private Tombstone tombstone(long id, long updatedAt) {
+        Tombstone tombstone = new Tombstone("vessel", id + 100, "urn:mrn:mcl:vessel:dma:" + id, 7L);
+        ReflectionTestUtils.setField(tombstone, "id", id);
+        ReflectionTestUtils.setField(tombstone, "updatedAt", new Date(updatedAt));
+        return tombstone;
+    }
+
+    private static List<Long> ids(List<? extends TimestampModel> models) {
+        return models.stream().map(TimestampModel::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.CacheInvalidation;
+import net.maritimecloud.identityregistry.repositories.CacheInvalidationRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks how the database invalidation bus pages through the change log and moves its high-water mark, with the
+ * repository mocked.
+ */
+public class DatabaseInvalidationBusTests {
+
+    private static final int BATCH_SIZE = 10;
+    private static final long GRACE_PERIOD = 30000;
+
+    private DatabaseInvalidationBus bus;
+    private final List<CacheInvalidation> rows = new ArrayList<>();
+    private final List<String> received = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        CacheInvalidationRepository repository = mock(CacheInvalidationRepository.class);
+        when(repository.findMaxId()).thenReturn(null);
+        when(repository.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+            long after = (Long) invocation.getArguments()[0];
+            int size = ((Pageable) invocation.getArguments()[1]).getPageSize();
+            return rows.stream().filter(row -> row.getId() > after).sorted((a, b) -> a.getId().compareTo(b.getId()))
+                    .limit(size).collect(Collectors.toList());
+        });
+        bus = new DatabaseInvalidationBus();
+        bus.setInvalidationRepository(repository);
+        ReflectionTestUtils.setField(bus, "batchSize", BATCH_SIZE);
+        ReflectionTestUtils.setField(bus, "gracePeriod", GRACE_PERIOD);
+        bus.init();
+        bus.subscribe("vessel", received::add);
+    }
+
+    private void insert(long id, long age) {
+        CacheInvalidation row = new CacheInvalidation();
+        ReflectionTestUtils.setField(row, "id", id);
+        ReflectionTestUtils.setField(row, "createdAt", new Date(System.currentTimeMillis() - age));
+        row.setCacheName("vessel");
+        row.setCacheKey(String.valueOf(id));
+        row.setNode("other-node");
+        rows.add(row);
+    }
+
+    private long highWaterMark() {
+        return (Long) ReflectionTestUtils.getField(bus, "highWaterMark");
+    }
+
+    @Test
+    public void burstLargerThanBatchIsDeliveredRightAway() {
+        for (long id = 1; id <= 2 * BATCH_SIZE + 5; id++) {
+            insert(id, 0);
+        }
+        bus.poll();
+        assertEquals(2 * BATCH_SIZE + 5, received.size());
+        // None of the rows has settled yet
+        assertEquals(0, highWaterMark());
+
+        bus.poll();
+        assertEquals(2 * BATCH_SIZE + 5, received.size());
+    }
+
+    @Test
+    public void rowsAfterUnsettledBurstAreNotHidden() {
+        for (long id = 1; id <= BATCH_SIZE; id++) {
+            insert(id, 0);
+        }
+        bus.poll();
+        insert(BATCH_SIZE + 1, 0);
+        bus.poll();
+        assertEquals(BATCH_SIZE + 1, received.size());
+        assertEquals(String.valueOf(BATCH_SIZE + 1), received.get(BATCH_SIZE));
+    }
+
+    @Test
+    public void markOnlyMovesPastSettledRows() {
+        insert(1, 2 * GRACE_PERIOD);
+        insert(2, 2 * GRACE_PERIOD);
+        insert(4, 0);
+        bus.poll();
+        assertEquals(2, highWaterMark());
+
+        // Committed late, below a row that has already been read
+        insert(3, 0);
+        bus.poll();
+        assertEquals(4, received.size());
+        assertTrue(received.contains("3"));
+        assertEquals(2, highWaterMark());
+    }
+
+    @Test
+    public void ownChangesAreNotDelivered() {
+        insert(1, 0);
+        rows.get(0).setNode((String) ReflectionTestUtils.getField(bus, "nodeId"));
+        bus.poll();
+        assertTrue(received.isEmpty());
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.DeadLetterEmail;
+import net.maritimecloud.identityregistry.model.database.QueuedEmail;
+import net.maritimecloud.identityregistry.repositories.DeadLetterEmailRepository;
+import net.maritimecloud.identityregistry.repositories.QueuedEmailRepository;
+import net.maritimecloud.identityregistry.utils.MetricsUtil;
+import net.maritimecloud.identityregistry.utils.SecretEncryptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.data.domain.Pageable;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks sending, retries with backoff and dead-lettering of queued emails, with the repositories and the
+ * mail server mocked.
+ */
+public class EmailQueueServiceImplTests {
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 5000;
+
+    private EmailQueueServiceImpl emailQueueService;
+    private QueuedEmailRepository queuedEmailRepository;
+    private DeadLetterEmailRepository deadLetterEmailRepository;
+    private FakeMailSender mailSender;
+    private SecretEncryptor secretEncryptor;
+
+    @Before
+    public void setUp() throws Exception {
+        queuedEmailRepository = mock(QueuedEmailRepository.class);
+        deadLetterEmailRepository = mock(DeadLetterEmailRepository.class);
+        mailSender = new FakeMailSender();
+        secretEncryptor = new SecretEncryptor();
+        secretEncryptor.init();
+        when(queuedEmailRepository.claim(anyLong(), any(Date.class), any(Date.class))).thenReturn(1);
+
+        emailQueueService = new EmailQueueServiceImpl();
+        emailQueueService.setQueuedEmailRepository(queuedEmailRepository);
+        emailQueueService.setDeadLetterEmailRepository(deadLetterEmailRepository);
+        ReflectionTestUtils.setField(emailQueueService, "mailSender", mailSender);
+        ReflectionTestUtils.setField(emailQueueService, "metricsUtil", mock(MetricsUtil.class));
+        ReflectionTestUtils.setField(emailQueueService, "gaugeService", mock(GaugeService.class));
+        ReflectionTestUtils.setField(emailQueueService, "secretEncryptor", secretEncryptor);
+        ReflectionTestUtils.setField(emailQueueService, "batchSize", 20);
+        ReflectionTestUtils.setField(emailQueueService, "maxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(emailQueueService, "initialBackoff", INITIAL_BACKOFF);
+        ReflectionTestUtils.setField(emailQueueService, "maxBackoff", MAX_BACKOFF);
+        ReflectionTestUtils.setField(emailQueueService, "claimTimeout", 60000L);
+    }
+
+    @Test
+    public void sentEmailIsRemovedAndGetsItsSecret() {
+        QueuedEmail email = queuedEmail(1L, "Your password is " + QueuedEmail.SECRET_PLACEHOLDER, "s3cret", 0);
+        queue(email);
+
+        emailQueueService.sendPending();
+
+        assertEquals(1, mailSender.sent.size());
+        assertEquals("Your password is s3cret", mailSender.sent.get(0).getText());
+        verify(queuedEmailRepository).delete(email);
+        verify(queuedEmailRepository, never()).save(any(QueuedEmail.class));
+    }
+
+    @Test
+    public void emailClaimedByAnotherInstanceIsSkipped() {
+        QueuedEmail email = queuedEmail(1L, "Hello", null, 0);
+        queue(email);
+        when(queuedEmailRepository.claim(eq(1L), any(Date.class), any(Date.class))).thenReturn(0);
+
+        emailQueueService.sendPending();
+
+        assertEquals(0, mailSender.attempts);
+        verify(queuedEmailRepository, never()).delete(any(QueuedEmail.class));
+    }
+
+    @Test
+    public void failedEmailIsRetriedAfterBackoff() {
+        QueuedEmail email = queuedEmail(1L, "Hello", null, 0);
+        queue(email);
+        mailSender.failWith("Connection refused");
+
+        long before = System.currentTimeMillis();
+        emailQueueService.sendPending();
+
+        verify(queuedEmailRepository).save(email);
+        verify(queuedEmailRepository, never()).delete(any(QueuedEmail.class));
+        assertEquals(1, email.getAttempts());
+        assertTrue(email.getLastError().contains("Connection refused"));
+        assertNull("The claim should be released", email.getClaimedUntil());
+        assertBackoff(before, INITIAL_BACKOFF, email.getNextAttemptAt());
+    }
+
+    @Test
+    public void backoffDoublesUpToTheMaximum() {
+        QueuedEmail first = queuedEmail(1L, "Hello", null, 0);
+        QueuedEmail second = queuedEmail(2L, "Hello again", null, 1);
+        QueuedEmail third = queuedEmail(3L, "Hello once more", null, 2);
+        QueuedEmail fourth = queuedEmail(4L, "Hello for the last time", null, 3);
+        ReflectionTestUtils.setField(emailQueueService, "maxAttempts", 100);
+        queue(first, second, third, fourth);
+        mailSender.failWith("Connection refused");
+
+        long before = System.currentTimeMillis();
+        emailQueueService.sendPending();
+
+        assertBackoff(before, INITIAL_BACKOFF, first.getNextAttemptAt());
+        assertBackoff(before, 2 * INITIAL_BACKOFF, second.getNextAttemptAt());
+        assertBackoff(before, 4 * INITIAL_BACKOFF, third.getNextAttemptAt());
+        assertBackoff(before, MAX_BACKOFF, fourth.getNextAttemptAt());
+    }
+
+    @Test
+    public void onlyTheFailedMessagesOfABatchAreRetried() {
+        QueuedEmail sent = queuedEmail(1L, "Hello", null, 0);
+        QueuedEmail failed = queuedEmail(2L, "Hello again", null, 0);
+        queue(sent, failed);
+        mailSender.failure = msg -> msg.getText().equals("Hello again") ? new MailSendException("Mailbox unavailable") : null;
+
+        emailQueueService.sendPending();
+
+        assertEquals(1, mailSender.attempts);
+        verify(queuedEmailRepository).delete(sent);
+        verify(queuedEmailRepository).save(failed);
+        assertEquals(0, sent.getAttempts());
+        assertEquals(1, failed.getAttempts());
+    }
+
+    @Test
+    public void emailIsDeadLetteredWithoutItsSecretAfterTheLastAttempt() {
+        QueuedEmail email = queuedEmail(1L, "Your password is " + QueuedEmail.SECRET_PLACEHOLDER, "s3cret", MAX_ATTEMPTS - 1);
+        queue(email);
+        mailSender.failWith("Connection refused");
+
+        emailQueueService.sendPending();
+
+        ArgumentCaptor<DeadLetterEmail> deadLetter = ArgumentCaptor.forClass(DeadLetterEmail.class);
+        verify(deadLetterEmailRepository).save(deadLetter.capture());
+        verify(queuedEmailRepository).delete(email);
+        assertEquals(MAX_ATTEMPTS, deadLetter.getValue().getAttempts());
+        assertFalse(deadLetter.getValue().getText().contains("s3cret"));
+    }
+
+    @Test
+    public void secretIsStoredEncrypted() {
+        SimpleMailMessage msg = new SimpleMailMessage();
+        msg.setTo("user@example.com");
+        msg.setText("Your password is " + QueuedEmail.SECRET_PLACEHOLDER);
+
+        emailQueueService.enqueue(msg, "s3cret");
+
+        ArgumentCaptor<QueuedEmail> queued = ArgumentCaptor.forClass(QueuedEmail.class);
+        verify(queuedEmailRepository).save(queued.capture());
+        assertFalse(queued.getValue().getText().contains("s3cret"));
+        assertFalse(queued.getValue().getSecret().contains("s3cret"));
+        assertEquals("s3cret", secretEncryptor.decrypt(queued.getValue().getSecret()));
+    }
+
+    private void queue(QueuedEmail... emails) {
+        when(queuedEmailRepository.findDue(any(Date.class), any(Pageable.class))).thenReturn(Arrays.asList(emails));
+    }
+
+    private QueuedEmail queuedEmail(Long id, String text, String secret, int attempts) {
+        QueuedEmail email = new QueuedEmail();
+        ReflectionTestUtils.setField(email, "id", id);
+        ReflectionTestUtils.setField(email, "createdAt", new Date());
+        email.setRecipient("user@example.com");
+        email.setSender("no-reply@example.com");
+        email.setSubject("Test");
+        email.setText(text);
+        email.setSecret(secretEncryptor.encrypt(secret));
+        email.setAttempts(attempts);
+        email.setNextAttemptAt(new Date());
+        return email;
+    }
+
+    /* Sends the messages for which failure gives no exception, and fails the others like JavaMailSenderImpl does */
+    private static class FakeMailSender implements MailSender {
+        private final List<SimpleMailMessage> sent = new ArrayList<>();
+        private Function<SimpleMailMessage, Exception> failure = msg -> null;
+        private int attempts;
+
+        private void failWith(String error) {
+            failure = msg -> new MailSendException(error);
+        }
+
+        @Override
+        public void send(SimpleMailMessage simpleMessage) {
+            send(new SimpleMailMessage[] {simpleMessage});
+        }
+
+        @Override
+        public void send(SimpleMailMessage... simpleMessages) {
+            attempts++;
+            Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+            for (SimpleMailMessage msg : simpleMessages) {
+                Exception e = failure.apply(msg);
+                if (e == null) {
+                    sent.add(msg);
+                } else {
+                    failedMessages.put(msg, e);
+                }
+            }
+            if (!failedMessages.isEmpty()) {
+                throw new MailSendException(failedMessages);
+            }
+        }
+    }
+
+    private static void assertBackoff(long before, long backoff, Date nextAttemptAt) {
+        long delay = nextAttemptAt.getTime() - before;
+        assertTrue("Expected a backoff of " + backoff + " ms, was " + delay, delay >= backoff && delay < backoff + 1000);
+    }
+}
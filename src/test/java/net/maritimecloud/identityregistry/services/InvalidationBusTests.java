@@ -0,0 +1,93 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.McIdregApplication;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.security.Security;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs two nodes sharing a database in the same JVM, and checks that changes published on one reach the other.
+ */
+public class InvalidationBusTests {
+
+    private static ConfigurableApplicationContext node1;
+    private static ConfigurableApplicationContext node2;
+
+    @BeforeClass
+    public static void startNodes() {
+        Security.addProvider(new BouncyCastleProvider());
+        node1 = startNode("create-drop");
+        node2 = startNode("none");
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        node2.close();
+        node1.close();
+    }
+
+    private static ConfigurableApplicationContext startNode(String ddlAuto) {
+        return new SpringApplicationBuilder(McIdregApplication.class).properties(
+                "server.port=0",
+                "spring.jmx.enabled=false",
+                "spring.datasource.url=jdbc:h2:mem:invalidation;DB_CLOSE_DELAY=-1",
+                "spring.jpa.hibernate.ddl-auto=" + ddlAuto,
+                "net.maritimecloud.idreg.invalidation-bus.poll-interval=100").run();
+    }
+
+    @Test
+    public void changesReachOtherNode() throws InterruptedException {
+        BlockingQueue<String> received1 = subscribe(node1, "test");
+        BlockingQueue<String> received2 = subscribe(node2, "test");
+
+        node1.getBean(InvalidationBus.class).publish("test", "42");
+
+        assertEquals("42", received2.poll(5, TimeUnit.SECONDS));
+        // The publishing node updates its own caches directly
+        assertNull(received1.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void changesAreDeliveredOnce() throws InterruptedException {
+        BlockingQueue<String> received = subscribe(node2, "once");
+
+        InvalidationBus bus = node1.getBean(InvalidationBus.class);
+        bus.publish("once", "1");
+        bus.publish("once", "2");
+
+        assertEquals("1", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("2", received.poll(5, TimeUnit.SECONDS));
+        assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    private BlockingQueue<String> subscribe(ConfigurableApplicationContext node, String cache) {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        node.getBean(InvalidationBus.class).subscribe(cache, received::add);
+        return received;
+    }
+}
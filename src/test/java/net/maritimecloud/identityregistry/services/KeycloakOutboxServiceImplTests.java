@@ -0,0 +1,261 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.KeycloakOutboxEntry;
+import net.maritimecloud.identityregistry.repositories.KeycloakOutboxRepository;
+import net.maritimecloud.identityregistry.utils.KeycloakAdminUtil;
+import net.maritimecloud.identityregistry.utils.SecretEncryptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks claiming, retries with backoff, giving up and ordering per target of queued keycloak operations, with
+ * the repository and keycloak mocked.
+ */
+public class KeycloakOutboxServiceImplTests {
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 5000;
+
+    private KeycloakOutboxServiceImpl outboxService;
+    private KeycloakOutboxRepository outboxRepository;
+    private KeycloakAdminUtil keycloakAU;
+    private SecretEncryptor secretEncryptor;
+    private List<KeycloakOutboxEntry> saved;
+
+    @Before
+    public void setUp() throws Exception {
+        outboxRepository = mock(KeycloakOutboxRepository.class);
+        keycloakAU = mock(KeycloakAdminUtil.class);
+        secretEncryptor = new SecretEncryptor();
+        secretEncryptor.init();
+        saved = new ArrayList<>();
+        when(outboxRepository.save(any(KeycloakOutboxEntry.class))).thenAnswer(invocation -> {
+            KeycloakOutboxEntry entry = (KeycloakOutboxEntry) invocation.getArguments()[0];
+            saved.add(entry);
+            return entry;
+        });
+        when(outboxRepository.claim(anyLong(), any(Date.class), any(Date.class))).thenReturn(1);
+        when(outboxRepository.findTargetsByStatus(KeycloakOutboxEntry.STATUS_FAILED)).thenReturn(Collections.emptyList());
+
+        outboxService = newOutboxService();
+    }
+
+    @Test
+    public void deliveredOperationIsRemovedAndGetsItsPassword() throws Exception {
+        KeycloakOutboxEntry entry = queuedCreateUser(1L, "user@example.com", "s3cret");
+        assertFalse("The password should be stored encrypted", entry.getPayload().contains("s3cret"));
+        queue(entry);
+
+        outboxService.dispatchPending();
+
+        verify(keycloakAU).init(KeycloakAdminUtil.USER_INSTANCE);
+        verify(keycloakAU).createUser("urn:mrn:mcl:user:dma:user", "s3cret", "John", "Doe", "user@example.com",
+                "urn:mrn:mcl:org:dma", "MCADMIN", true);
+        verify(outboxRepository).delete(entry);
+        assertTrue(saved.isEmpty());
+    }
+
+    @Test
+    public void entryClaimedTwiceIsDeliveredOnce() throws Exception {
+        KeycloakOutboxEntry entry = queuedDeleteClient(1L, "client");
+        queue(entry);
+        // Only the first claim of the entry succeeds, like the update in KeycloakOutboxRepository.claim
+        when(outboxRepository.claim(eq(1L), any(Date.class), any(Date.class))).thenReturn(1, 0);
+
+        outboxService.dispatchPending();
+        newOutboxService().dispatchPending();
+
+        verify(keycloakAU, times(1)).deleteClient("client");
+        verify(outboxRepository, times(1)).delete(entry);
+    }
+
+    @Test
+    public void failedOperationIsRetriedAfterBackoff() throws Exception {
+        KeycloakOutboxEntry entry = queuedDeleteClient(1L, "client");
+        queue(entry);
+        failDeleteClient("client");
+
+        long before = System.currentTimeMillis();
+        outboxService.dispatchPending();
+
+        verify(outboxRepository, never()).delete(any(KeycloakOutboxEntry.class));
+        assertEquals(Collections.singletonList(entry), saved);
+        assertEquals(1, entry.getAttempts());
+        assertEquals(KeycloakOutboxEntry.STATUS_PENDING, entry.getStatus());
+        assertTrue(entry.getLastError().contains("Connection refused"));
+        assertNull("The claim should be released", entry.getClaimedUntil());
+        assertBackoff(before, INITIAL_BACKOFF, entry.getNextAttemptAt());
+    }
+
+    @Test
+    public void backoffDoublesUpToTheMaximum() throws Exception {
+        KeycloakOutboxEntry first = queuedDeleteClient(1L, "first", 0);
+        KeycloakOutboxEntry second = queuedDeleteClient(2L, "second", 1);
+        KeycloakOutboxEntry third = queuedDeleteClient(3L, "third", 2);
+        KeycloakOutboxEntry fourth = queuedDeleteClient(4L, "fourth", 3);
+        ReflectionTestUtils.setField(outboxService, "maxAttempts", 100);
+        queue(first, second, third, fourth);
+        doThrow(new RuntimeException("Connection refused")).when(keycloakAU).deleteClient(anyString());
+
+        long before = System.currentTimeMillis();
+        outboxService.dispatchPending();
+
+        assertBackoff(before, INITIAL_BACKOFF, first.getNextAttemptAt());
+        assertBackoff(before, 2 * INITIAL_BACKOFF, second.getNextAttemptAt());
+        assertBackoff(before, 4 * INITIAL_BACKOFF, third.getNextAttemptAt());
+        assertBackoff(before, MAX_BACKOFF, fourth.getNextAttemptAt());
+    }
+
+    @Test
+    public void operationIsGivenUpWithoutItsPasswordAfterTheLastAttempt() throws Exception {
+        KeycloakOutboxEntry entry = queuedCreateUser(1L, "user@example.com", "s3cret");
+        entry.setAttempts(MAX_ATTEMPTS - 1);
+        queue(entry);
+        doThrow(new IOException("Connection refused")).when(keycloakAU).createUser(anyString(), anyString(), anyString(),
+                anyString(), anyString(), anyString(), anyString(), anyBoolean());
+
+        outboxService.dispatchPending();
+
+        verify(outboxRepository, never()).delete(any(KeycloakOutboxEntry.class));
+        assertEquals(Collections.singletonList(entry), saved);
+        assertEquals(MAX_ATTEMPTS, entry.getAttempts());
+        assertEquals(KeycloakOutboxEntry.STATUS_FAILED, entry.getStatus());
+        assertNull("The encrypted password should not be kept", entry.getPayload());
+        assertNull(entry.getClaimedUntil());
+    }
+
+    @Test
+    public void laterOperationsForATargetWaitBehindAFailedOne() throws Exception {
+        KeycloakOutboxEntry failed = queuedDeleteClient(1L, "client");
+        KeycloakOutboxEntry later = queuedDeleteClient(2L, "client");
+        KeycloakOutboxEntry other = queuedDeleteClient(3L, "other");
+        queue(failed, later, other);
+        failDeleteClient("client");
+
+        outboxService.dispatchPending();
+
+        verify(keycloakAU, times(1)).deleteClient("client");
+        verify(outboxRepository, never()).claim(eq(2L), any(Date.class), any(Date.class));
+        verify(outboxRepository, never()).delete(later);
+        verify(keycloakAU).deleteClient("other");
+        verify(outboxRepository).delete(other);
+        assertEquals(0, later.getAttempts());
+    }
+
+    @Test
+    public void laterOperationsForATargetWaitBehindAnUnclaimedOne() throws Exception {
+        KeycloakOutboxEntry waiting = queuedDeleteClient(1L, "client");
+        KeycloakOutboxEntry later = queuedDeleteClient(2L, "client");
+        queue(waiting, later);
+        // Not due yet, or claimed by another instance
+        when(outboxRepository.claim(eq(1L), any(Date.class), any(Date.class))).thenReturn(0);
+
+        outboxService.dispatchPending();
+
+        verify(outboxRepository, never()).claim(eq(2L), any(Date.class), any(Date.class));
+        verify(keycloakAU, never()).deleteClient(anyString());
+    }
+
+    @Test
+    public void operationsForATargetThatWasGivenUpAreHeldBack() throws Exception {
+        KeycloakOutboxEntry later = queuedDeleteClient(2L, "client");
+        KeycloakOutboxEntry other = queuedDeleteClient(3L, "other");
+        queue(later, other);
+        when(outboxRepository.findTargetsByStatus(KeycloakOutboxEntry.STATUS_FAILED)).thenReturn(Collections.singletonList("client:client"));
+
+        outboxService.dispatchPending();
+
+        verify(outboxRepository, never()).claim(eq(2L), any(Date.class), any(Date.class));
+        verify(keycloakAU, never()).deleteClient("client");
+        verify(keycloakAU).deleteClient("other");
+    }
+
+    private KeycloakOutboxServiceImpl newOutboxService() {
+        KeycloakOutboxServiceImpl service = new KeycloakOutboxServiceImpl();
+        service.setOutboxRepository(outboxRepository);
+        ReflectionTestUtils.setField(service, "keycloakAU", keycloakAU);
+        ReflectionTestUtils.setField(service, "secretEncryptor", secretEncryptor);
+        ReflectionTestUtils.setField(service, "batchSize", 20);
+        ReflectionTestUtils.setField(service, "maxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(service, "initialBackoff", INITIAL_BACKOFF);
+        ReflectionTestUtils.setField(service, "maxBackoff", MAX_BACKOFF);
+        ReflectionTestUtils.setField(service, "claimTimeout", 60000L);
+        return service;
+    }
+
+    private void queue(KeycloakOutboxEntry... entries) {
+        when(outboxRepository.findByStatusOrderByIdAsc(eq(KeycloakOutboxEntry.STATUS_PENDING), any(Pageable.class))).thenReturn(Arrays.asList(entries));
+    }
+
+    private void failDeleteClient(String clientId) {
+        doThrow(new RuntimeException("Connection refused")).when(keycloakAU).deleteClient(clientId);
+    }
+
+    private KeycloakOutboxEntry queuedCreateUser(Long id, String email, String password) {
+        outboxService.createUser("urn:mrn:mcl:user:dma:user", password, "John", "Doe", email, "urn:mrn:mcl:org:dma", "MCADMIN", true);
+        return lastQueued(id);
+    }
+
+    private KeycloakOutboxEntry queuedDeleteClient(Long id, String clientId) {
+        return queuedDeleteClient(id, clientId, 0);
+    }
+
+    private KeycloakOutboxEntry queuedDeleteClient(Long id, String clientId, int attempts) {
+        outboxService.deleteClient(clientId);
+        KeycloakOutboxEntry entry = lastQueued(id);
+        entry.setAttempts(attempts);
+        return entry;
+    }
+
+    /* Gives the entry saved by the last queued operation the id the database would have */
+    private KeycloakOutboxEntry lastQueued(Long id) {
+        KeycloakOutboxEntry entry = saved.remove(saved.size() - 1);
+        ReflectionTestUtils.setField(entry, "id", id);
+        return entry;
+    }
+
+    private static void assertBackoff(long before, long backoff, Date nextAttemptAt) {
+        long delay = nextAttemptAt.getTime() - before;
+        assertTrue("Expected a backoff of " + backoff + " ms, was " + delay, delay >= backoff && delay < backoff + 1000);
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.data.MrnIndexEntry;
+import net.maritimecloud.identityregistry.model.database.entities.Device;
+import net.maritimecloud.identityregistry.model.database.entities.Vessel;
+import net.maritimecloud.identityregistry.repositories.DeviceRepository;
+import net.maritimecloud.identityregistry.repositories.ServiceRepository;
+import net.maritimecloud.identityregistry.repositories.UserRepository;
+import net.maritimecloud.identityregistry.repositories.VesselRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks prefix search, updates and rebuilds of the MRN index, with the repositories mocked.
+ */
+public class MrnIndexServiceImplTests {
+
+    private static final Long ORG = 1L;
+    private static final Long OTHER_ORG = 2L;
+
+    private MrnIndexServiceImpl mrnIndexService;
+    private VesselRepository vesselRepository;
+    private DeviceRepository deviceRepository;
+    private final Map<String, Consumer<String>> listeners = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        vesselRepository = mock(VesselRepository.class);
+        deviceRepository = mock(DeviceRepository.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        ServiceRepository serviceRepository = mock(ServiceRepository.class);
+        when(vesselRepository.findAllMrns()).thenReturn(Arrays.asList(
+                new Object[] {10L, "urn:mrn:mcl:vessel:dma:a", ORG},
+                new Object[] {11L, "urn:mrn:mcl:vessel:dma:b", ORG},
+                new Object[] {12L, "urn:mrn:mcl:vessel:dmax:c", OTHER_ORG},
+                new Object[] {13L, "urn:mrn:mcl:vessel:dmax:d", ORG}));
+        when(deviceRepository.findAllMrns()).thenReturn(Collections.singletonList(
+                new Object[] {20L, "urn:mrn:mcl:device:dma:a", ORG}));
+        when(userRepository.findAllMrns()).thenReturn(new ArrayList<>());
+        when(serviceRepository.findAllMrns()).thenReturn(new ArrayList<>());
+
+        mrnIndexService = new MrnIndexServiceImpl();
+        mrnIndexService.setUserRepository(userRepository);
+        mrnIndexService.setDeviceRepository(deviceRepository);
+        mrnIndexService.setVesselRepository(vesselRepository);
+        mrnIndexService.setServiceRepository(serviceRepository);
+        ReflectionTestUtils.setField(mrnIndexService, "invalidationBus", new InvalidationBus() {
+            @Override
+            public void publish(String cache, String key) {
+            }
+
+            @Override
+            public void subscribe(String cache, Consumer<String> listener) {
+                listeners.put(cache, listener);
+            }
+        });
+        mrnIndexService.init();
+    }
+
+    private static List<String> mrns(List<MrnIndexEntry> entries) {
+        return entries.stream().map(MrnIndexEntry::getMrn).collect(Collectors.toList());
+    }
+
+    private static Vessel vessel(Long id, String mrn, Long orgId) {
+        Vessel vessel = new Vessel();
+        ReflectionTestUtils.setField(vessel, "id", id);
+        vessel.setMrn(mrn);
+        vessel.setIdOrganization(orgId);
+        return vessel;
+    }
+
+    @Test
+    public void prefixDoesNotMatchLongerSegment() {
+        assertEquals(Arrays.asList("urn:mrn:mcl:vessel:dma:a", "urn:mrn:mcl:vessel:dma:b"),
+                mrns(mrnIndexService.search("urn:mrn:mcl:vessel:dma:", ORG, 100)));
+        assertEquals(Arrays.asList("urn:mrn:mcl:vessel:dma:a", "urn:mrn:mcl:vessel:dma:b", "urn:mrn:mcl:vessel:dmax:d"),
+                mrns(mrnIndexService.search("urn:mrn:mcl:vessel:dma", ORG, 100)));
+    }
+
+    @Test
+    public void searchIsCaseInsensitive() {
+        assertEquals(Collections.singletonList("urn:mrn:mcl:device:dma:a"),
+                mrns(mrnIndexService.search("URN:MRN:MCL:DEVICE:", ORG, 100)));
+        assertNotNull(mrnIndexService.get("URN:mrn:mcl:vessel:DMA:a"));
+    }
+
+    @Test
+    public void searchOnlyReturnsEntriesOfTheOrganization() {
+        assertEquals(Collections.singletonList("urn:mrn:mcl:vessel:dmax:c"),
+                mrns(mrnIndexService.search("urn:mrn:mcl:vessel:", OTHER_ORG, 100)));
+    }
+
+    @Test
+    public void searchStopsAtLimit() {
+        assertEquals(Arrays.asList("urn:mrn:mcl:vessel:dma:a", "urn:mrn:mcl:vessel:dma:b"),
+                mrns(mrnIndexService.search("urn:mrn:mcl:vessel:", ORG, 2)));
+        assertEquals(1, mrnIndexService.search("urn:mrn:mcl:", ORG, 1).size());
+    }
+
+    @Test
+    public void putReplacesChangedMrn() {
+        mrnIndexService.put("vessel", vessel(10L, "urn:mrn:mcl:vessel:dma:renamed", ORG));
+        assertNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:a"));
+        MrnIndexEntry entry = mrnIndexService.get("urn:mrn:mcl:vessel:dma:renamed");
+        assertEquals(Long.valueOf(10L), entry.getId());
+        assertEquals("vessel", entry.getType());
+    }
+
+    @Test
+    public void removeOnlyRemovesTheEntity() {
+        mrnIndexService.remove("vessel", 10L);
+        assertNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:a"));
+        assertNotNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:b"));
+        // Same id, other type
+        mrnIndexService.remove("device", 11L);
+        assertNotNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:b"));
+    }
+
+    @Test
+    public void removeByOrgOnlyRemovesThatTypeAndOrganization() {
+        mrnIndexService.removeByOrg("vessel", ORG);
+        assertEquals(Collections.singletonList("urn:mrn:mcl:vessel:dmax:c"),
+                mrns(mrnIndexService.search("urn:mrn:mcl:vessel:", OTHER_ORG, 100)));
+        assertTrue(mrnIndexService.search("urn:mrn:mcl:vessel:", ORG, 100).isEmpty());
+        assertNotNull(mrnIndexService.get("urn:mrn:mcl:device:dma:a"));
+        // A removed entity can be added back under the same id
+        mrnIndexService.put("vessel", vessel(10L, "urn:mrn:mcl:vessel:dma:a", ORG));
+        assertNotNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:a"));
+    }
+
+    @Test
+    public void busChangesReloadTheEntity() {
+        when(vesselRepository.findOne(11L)).thenReturn(vessel(11L, "urn:mrn:mcl:vessel:dma:moved", ORG));
+        listeners.get("vessel").accept("11");
+        assertNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:b"));
+        assertNotNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:moved"));
+
+        // Deleted on the other node
+        listeners.get("vessel").accept("10");
+        assertNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:a"));
+    }
+
+    @Test
+    public void rebuildPicksUpMissedChanges() {
+        when(deviceRepository.findAllMrns()).thenReturn(Collections.singletonList(
+                new Object[] {21L, "urn:mrn:mcl:device:dma:new", ORG}));
+        listeners.get("device").accept(null);
+        assertNull(mrnIndexService.get("urn:mrn:mcl:device:dma:a"));
+        assertNotNull(mrnIndexService.get("urn:mrn:mcl:device:dma:new"));
+        assertNotNull(mrnIndexService.get("urn:mrn:mcl:vessel:dma:a"));
+    }
+}
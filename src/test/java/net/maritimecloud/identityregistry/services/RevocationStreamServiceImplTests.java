@@ -0,0 +1,233 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.RevocationEvent;
+import net.maritimecloud.identityregistry.repositories.RevocationEventRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.support.ExecutorServiceAdapter;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks what the revocation streams are sent, and that slow or stalled streams are dropped. The thread pool is
+ * replaced by a queue of tasks that the tests run themselves.
+ */
+public class RevocationStreamServiceImplTests {
+
+    private static final Pattern ID = Pattern.compile("^id:(\\d+)$", Pattern.MULTILINE);
+
+    private RevocationStreamServiceImpl revocationStreamService;
+    private RevocationEventRepository revocationEventRepository;
+    private Queue<Runnable> tasks;
+    private RecordingEmitter emitter;
+
+    @Before
+    public void setUp() {
+        revocationEventRepository = mock(RevocationEventRepository.class);
+        tasks = new ArrayDeque<>();
+        emitter = new RecordingEmitter();
+
+        revocationStreamService = new RevocationStreamServiceImpl() {
+            @Override
+            SseEmitter createEmitter() {
+                return emitter;
+            }
+        };
+        revocationStreamService.setRevocationEventRepository(revocationEventRepository);
+        ReflectionTestUtils.setField(revocationStreamService, "invalidationBus", mock(InvalidationBus.class));
+        ReflectionTestUtils.setField(revocationStreamService, "executor", new ExecutorServiceAdapter(tasks::add));
+        ReflectionTestUtils.setField(revocationStreamService, "bufferSize", 5);
+        ReflectionTestUtils.setField(revocationStreamService, "batchSize", 2);
+        ReflectionTestUtils.setField(revocationStreamService, "queueSize", 3);
+        ReflectionTestUtils.setField(revocationStreamService, "sendTimeout", 10000L);
+        ReflectionTestUtils.setField(revocationStreamService, "maxSubscribers", 10);
+        ReflectionTestUtils.setField(revocationStreamService, "timeout", 60000L);
+    }
+
+    @Test
+    public void newRevocationsAreSentInOrder() {
+        revocationStreamService.subscribe(null);
+        add(1, 2, 3);
+        runTasks();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), emitter.ids());
+    }
+
+    @Test
+    public void resumedStreamIsFilledFromMemory() {
+        add(1, 2, 3, 4);
+        revocationStreamService.subscribe(1L);
+        runTasks();
+
+        assertEquals(Arrays.asList(2L, 3L, 4L), emitter.ids());
+    }
+
+    @Test
+    public void resumedStreamIsFilledFromDatabaseWhenBehindMemory() {
+        add(1, 2, 3, 4, 5, 6, 7);
+        // Only 3 to 7 are left in memory
+        when(revocationEventRepository.findByIdGreaterThanOrderByIdAsc(eq(0L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(event(1), event(2)));
+        revocationStreamService.subscribe(0L);
+        runTasks();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L), emitter.ids());
+    }
+
+    @Test
+    public void lateRevocationIsSentWithCurrentSequenceNumber() {
+        revocationStreamService.subscribe(null);
+        add(5);
+        runTasks();
+        add(3);
+        runTasks();
+
+        assertEquals(Arrays.asList(5L, 5L), emitter.ids());
+    }
+
+    @Test
+    public void streamIsDroppedWhenQueueOverflows() {
+        revocationStreamService.subscribe(null);
+        add(1, 2, 3, 4);
+        runTasks();
+
+        assertTrue(emitter.completed);
+        assertTrue(emitter.ids().isEmpty());
+
+        add(5);
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void stalledStreamIsDropped() {
+        ReflectionTestUtils.setField(revocationStreamService, "sendTimeout", -1L);
+        // Checked while the first event is being sent
+        emitter.duringSend = revocationStreamService::dropStalled;
+        revocationStreamService.subscribe(null);
+        add(1, 2);
+        runTasks();
+
+        assertEquals(Arrays.asList(1L), emitter.ids());
+        assertTrue(emitter.completed);
+    }
+
+    @Test
+    public void streamIsClosedWhenClientGoesAway() {
+        emitter.fail = true;
+        revocationStreamService.subscribe(null);
+        add(1);
+        runTasks();
+
+        assertTrue(emitter.completed);
+        add(2);
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void idleStreamIsSentHeartbeat() {
+        revocationStreamService.subscribe(null);
+        runTasks();
+        revocationStreamService.heartbeat();
+        runTasks();
+
+        assertEquals(1, emitter.sent.size());
+        assertTrue(emitter.ids().isEmpty());
+        assertFalse(emitter.completed);
+    }
+
+    private void add(long... ids) {
+        for (long id : ids) {
+            revocationStreamService.add(event(id));
+        }
+    }
+
+    private RevocationEvent event(long id) {
+        RevocationEvent event = new RevocationEvent();
+        ReflectionTestUtils.setField(event, "id", id);
+        event.setSerialNumber(id);
+        event.setRevokedAt(new Date());
+        event.setRevokeReason("keycompromise");
+        return event;
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<String> sent = new ArrayList<>();
+        private boolean completed;
+        private boolean fail;
+        private Runnable duringSend;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (fail) {
+                throw new IOException("Broken pipe");
+            }
+            if (duringSend != null) {
+                duringSend.run();
+            }
+            StringBuilder text = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType data : builder.build()) {
+                if (data.getData() instanceof String) {
+                    text.append(data.getData());
+                }
+            }
+            sent.add(text.toString());
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed = true;
+        }
+
+        private List<Long> ids() {
+            List<Long> ids = new ArrayList<>();
+            for (String event : sent) {
+                Matcher matcher = ID.matcher(event);
+                if (matcher.find()) {
+                    ids.add(Long.valueOf(matcher.group(1)));
+                }
+            }
+            return ids;
+        }
+    }
+}
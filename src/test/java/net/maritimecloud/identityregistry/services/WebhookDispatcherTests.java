@@ -0,0 +1,233 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.services;
+
+import net.maritimecloud.identityregistry.model.database.WebhookDelivery;
+import net.maritimecloud.identityregistry.model.database.WebhookSubscription;
+import net.maritimecloud.identityregistry.repositories.WebhookDeliveryRepository;
+import net.maritimecloud.identityregistry.repositories.WebhookSubscriptionRepository;
+import net.maritimecloud.identityregistry.utils.WebhookSender;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks batching, claiming, backoff and giving up on webhook events, with the repositories mocked, the events
+ * posted to a fake sender and the batches run on the polling thread.
+ */
+public class WebhookDispatcherTests {
+
+    private static final int BATCH_SIZE = 2;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 5000;
+    private static final long FAILED_RETENTION = 86400000;
+
+    private WebhookDispatcher webhookDispatcher;
+    private WebhookSubscriptionRepository subscriptionRepository;
+    private WebhookDeliveryRepository deliveryRepository;
+    private FakeWebhookSender webhookSender;
+
+    @Before
+    public void setUp() {
+        subscriptionRepository = mock(WebhookSubscriptionRepository.class);
+        deliveryRepository = mock(WebhookDeliveryRepository.class);
+        webhookSender = new FakeWebhookSender();
+        when(deliveryRepository.claim(anyLong(), any(Date.class), any(Date.class))).thenReturn(1);
+        when(subscriptionRepository.findOne(1L)).thenReturn(subscription(1));
+
+        webhookDispatcher = new WebhookDispatcher();
+        webhookDispatcher.setSubscriptionRepository(subscriptionRepository);
+        webhookDispatcher.setDeliveryRepository(deliveryRepository);
+        ReflectionTestUtils.setField(webhookDispatcher, "webhookSender", webhookSender);
+        ReflectionTestUtils.setField(webhookDispatcher, "executor", new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        ReflectionTestUtils.setField(webhookDispatcher, "pollSize", 100);
+        ReflectionTestUtils.setField(webhookDispatcher, "batchSize", BATCH_SIZE);
+        ReflectionTestUtils.setField(webhookDispatcher, "maxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(webhookDispatcher, "initialBackoff", INITIAL_BACKOFF);
+        ReflectionTestUtils.setField(webhookDispatcher, "maxBackoff", MAX_BACKOFF);
+        ReflectionTestUtils.setField(webhookDispatcher, "claimTimeout", 60000L);
+        ReflectionTestUtils.setField(webhookDispatcher, "failedRetention", FAILED_RETENTION);
+    }
+
+    @Test
+    public void eventsAreSentInBatches() {
+        due(delivery(1, 1), delivery(2, 1), delivery(3, 1), delivery(4, 1), delivery(5, 1));
+
+        webhookDispatcher.dispatchPending();
+
+        assertEquals(Arrays.asList("[{\"n\":1},{\"n\":2}]", "[{\"n\":3},{\"n\":4}]", "[{\"n\":5}]"), webhookSender.bodies);
+        assertEquals(Arrays.asList(2, 2, 1), webhookSender.counts);
+        assertEquals(Arrays.asList("http://hooks.example.com/1", "http://hooks.example.com/1", "http://hooks.example.com/1"), webhookSender.urls);
+        verify(deliveryRepository, times(3)).delete(any(Iterable.class));
+    }
+
+    @Test
+    public void eventsClaimedElsewhereAreSkipped() {
+        due(delivery(1, 1), delivery(2, 1), delivery(3, 1));
+        when(deliveryRepository.claim(eq(2L), any(Date.class), any(Date.class))).thenReturn(0);
+
+        webhookDispatcher.dispatchPending();
+
+        assertEquals(Arrays.asList("[{\"n\":1}]", "[{\"n\":3}]"), webhookSender.bodies);
+    }
+
+    @Test
+    public void eventsOfDeletedWebhookAreDropped() {
+        due(delivery(1, 2));
+
+        webhookDispatcher.dispatchPending();
+
+        assertTrue(webhookSender.bodies.isEmpty());
+        verify(deliveryRepository).delete(any(Iterable.class));
+    }
+
+    @Test
+    public void failedEventIsRetriedWithBackoff() {
+        webhookSender.fail = true;
+        WebhookDelivery delivery = delivery(1, 1);
+        due(delivery);
+
+        long before = System.currentTimeMillis();
+        webhookDispatcher.dispatchPending();
+        long after = System.currentTimeMillis();
+
+        assertEquals(1, delivery.getAttempts());
+        assertEquals(WebhookDelivery.STATUS_PENDING, delivery.getStatus());
+        assertTrue(delivery.getLastError().contains("Connection refused"));
+        assertNull(delivery.getClaimedUntil());
+        assertRetryAt(delivery, before + INITIAL_BACKOFF, after + INITIAL_BACKOFF);
+        verify(deliveryRepository, never()).delete(any(Iterable.class));
+    }
+
+    @Test
+    public void backoffDoublesUpToMaximum() {
+        webhookSender.fail = true;
+        ReflectionTestUtils.setField(webhookDispatcher, "maxAttempts", 10);
+        WebhookDelivery delivery = delivery(1, 1);
+        due(delivery);
+
+        long[] expected = {INITIAL_BACKOFF, 2 * INITIAL_BACKOFF, 4 * INITIAL_BACKOFF, MAX_BACKOFF, MAX_BACKOFF};
+        for (long backoff : expected) {
+            long before = System.currentTimeMillis();
+            webhookDispatcher.dispatchPending();
+            long after = System.currentTimeMillis();
+            assertRetryAt(delivery, before + backoff, after + backoff);
+        }
+        assertEquals(expected.length, delivery.getAttempts());
+    }
+
+    @Test
+    public void eventIsMarkedFailedAfterMaxAttempts() {
+        webhookSender.fail = true;
+        WebhookDelivery delivery = delivery(1, 1);
+        delivery.setAttempts(MAX_ATTEMPTS - 1);
+        due(delivery);
+
+        webhookDispatcher.dispatchPending();
+
+        assertEquals(MAX_ATTEMPTS, delivery.getAttempts());
+        assertEquals(WebhookDelivery.STATUS_FAILED, delivery.getStatus());
+        assertNull(delivery.getClaimedUntil());
+    }
+
+    @Test
+    public void oldFailuresAreDeleted() {
+        long before = System.currentTimeMillis();
+        webhookDispatcher.deleteOldFailures();
+        long after = System.currentTimeMillis();
+
+        ArgumentCaptor<Date> date = ArgumentCaptor.forClass(Date.class);
+        verify(deliveryRepository).deleteFailedOlderThan(date.capture());
+        assertTrue(date.getValue().getTime() >= before - FAILED_RETENTION && date.getValue().getTime() <= after - FAILED_RETENTION);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void due(WebhookDelivery... deliveries) {
+        when(deliveryRepository.findDue(any(Date.class), any(Collection.class), any(Pageable.class)))
+                .thenReturn(Arrays.asList(deliveries));
+    }
+
+    private void assertRetryAt(WebhookDelivery delivery, long earliest, long latest) {
+        long at = delivery.getNextAttemptAt().getTime();
+        assertTrue(at >= earliest && at <= latest);
+    }
+
+    private WebhookSubscription subscription(long id) {
+        WebhookSubscription subscription = new WebhookSubscription();
+        ReflectionTestUtils.setField(subscription, "id", id);
+        subscription.setUrl("http://hooks.example.com/" + id);
+        subscription.setSecret("secret");
+        subscription.setMaxConcurrency(1);
+        return subscription;
+    }
+
+    private WebhookDelivery delivery(long id, long subscriptionId) {
+        WebhookDelivery delivery = new WebhookDelivery();
+        ReflectionTestUtils.setField(delivery, "id", id);
+        delivery.setIdSubscription(subscriptionId);
+        delivery.setEvent("vessel.created");
+        delivery.setPayload("{\"n\":" + id + "}");
+        delivery.setStatus(WebhookDelivery.STATUS_PENDING);
+        delivery.setNextAttemptAt(new Date());
+        return delivery;
+    }
+
+    private static class FakeWebhookSender extends WebhookSender {
+        private final List<String> urls = new ArrayList<>();
+        private final List<String> bodies = new ArrayList<>();
+        private final List<Integer> counts = new ArrayList<>();
+        private boolean fail;
+
+        @Override
+        public void send(String url, String secret, String body, int count) throws IOException {
+            if (fail) {
+                throw new IOException("Connection refused");
+            }
+            urls.add(url);
+            bodies.add(body);
+            counts.add(count);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ChangeCursorTests {
+
+    @Test
+    public void cursorSurvivesRoundTrip() {
+        ChangeCursor cursor = new ChangeCursor(new Date(1476000000000L), 42, new Date(1476000005000L), Long.MAX_VALUE);
+        ChangeCursor parsed = ChangeCursor.parse(cursor.toString());
+        assertEquals(cursor.getChangedAt(), parsed.getChangedAt());
+        assertEquals(cursor.getChangedId(), parsed.getChangedId());
+        assertEquals(cursor.getDeletedAt(), parsed.getDeletedAt());
+        assertEquals(cursor.getDeletedId(), parsed.getDeletedId());
+    }
+
+    @Test
+    public void encodesTimesInMilliseconds() {
+        assertEquals("1476000000000-42-1476000005000-7",
+                new ChangeCursor(new Date(1476000000000L), 42, new Date(1476000005000L), 7).toString());
+    }
+
+    @Test
+    public void missingCursorIsStart() {
+        assertSame(ChangeCursor.START, ChangeCursor.parse(null));
+        assertSame(ChangeCursor.START, ChangeCursor.parse(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorWithTooFewPartsIsRejected() {
+        ChangeCursor.parse("1476000000000-42-1476000005000");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorWithTooManyPartsIsRejected() {
+        ChangeCursor.parse("1476000000000-42-1476000005000-7-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorWithNonNumericPartIsRejected() {
+        ChangeCursor.parse("1476000000000-abc-1476000005000-7");
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import net.maritimecloud.identityregistry.model.data.ResourceVersion;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCacheUtilTests {
+
+    private final Date modified = new Date(1476000000000L);
+
+    private final ResourceVersion version = new ResourceVersion(1L, "vessel-1-5-full", modified);
+
+    @Test
+    public void matchingETagIsNotModified() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", W/\"vessel-1-5-full\"");
+        assertTrue(HttpCacheUtil.isNotModified(request, version));
+    }
+
+    @Test
+    public void strongETagMatchesWeakly() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"vessel-1-5-full\"");
+        assertTrue(HttpCacheUtil.isNotModified(request, version));
+    }
+
+    @Test
+    public void otherViewIsModified() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/\"vessel-1-5-public\"");
+        assertFalse(HttpCacheUtil.isNotModified(request, version));
+    }
+
+    @Test
+    public void eTagTakesPrecedenceOverDate() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/\"vessel-1-4-full\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, modified.getTime() + 60000);
+        assertFalse(HttpCacheUtil.isNotModified(request, version));
+    }
+
+    @Test
+    public void ifModifiedSinceUsesSeconds() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, modified.getTime());
+        assertTrue(HttpCacheUtil.isNotModified(request, new ResourceVersion(1L, "x", new Date(modified.getTime() + 999))));
+        assertFalse(HttpCacheUtil.isNotModified(request, new ResourceVersion(1L, "x", new Date(modified.getTime() + 1000))));
+    }
+
+    @Test
+    public void noValidatorsIsModified() {
+        assertFalse(HttpCacheUtil.isNotModified(new MockHttpServletRequest(), version));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, modified.getTime());
+        assertFalse(HttpCacheUtil.isNotModified(request, new ResourceVersion(null, "orgs-1-1-public", null)));
+    }
+
+    @Test
+    public void onlyPublicViewHasDate() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, modified.getTime());
+        ResourceVersion full = new ResourceVersion(1L, "vessel-1-5", "full", modified);
+        assertEquals("W/\"vessel-1-5-full\"", full.getETag());
+        assertFalse(HttpCacheUtil.isNotModified(request, full));
+        assertNull(HttpCacheUtil.ok("body", full).getHeaders().get(HttpHeaders.LAST_MODIFIED));
+        ResourceVersion shared = new ResourceVersion(1L, "vessel-1-5", ResourceVersion.PUBLIC_VIEW, modified);
+        assertTrue(HttpCacheUtil.isNotModified(request, shared));
+        assertEquals(modified.getTime(), HttpCacheUtil.ok("body", shared).getHeaders().getLastModified());
+    }
+
+    @Test
+    public void repliesCarryValidators() {
+        ResponseEntity<String> notModified = HttpCacheUtil.notModified(version);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertEquals("W/\"vessel-1-5-full\"", notModified.getHeaders().getETag());
+        ResponseEntity<String> ok = HttpCacheUtil.ok("body", version);
+        assertEquals(HttpStatus.OK, ok.getStatusCode());
+        assertEquals(modified.getTime(), ok.getHeaders().getLastModified());
+        assertEquals("no-cache, private", ok.getHeaders().getCacheControl());
+    }
+}
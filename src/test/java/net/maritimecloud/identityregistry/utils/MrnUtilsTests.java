@@ -139,4 +139,36 @@ public class MrnUtilsTests {
         boolean ret = MrnUtil.validateMrn(vesselMrn);
     }
 
+    @Test
+    public void parseUserMRN() {
+        ParsedMrn parsedMrn = ParsedMrn.parse("urn:mrn:mcl:user:dfds@bimco:fiskerfinn");
+        assertTrue("User MRN should be valid", parsedMrn.isValid());
+        assertEquals("Namespace should be 'mrn'", "mrn", parsedMrn.getNamespace());
+        assertEquals("Owner should be 'mcl'", "mcl", parsedMrn.getOwner());
+        assertEquals("Entity type should be 'user'", "user", parsedMrn.getEntityType());
+        assertEquals("Org shortname should be 'dfds@bimco'", "dfds@bimco", parsedMrn.getOrgShortName());
+        assertEquals("User id should be 'fiskerfinn'", "fiskerfinn", parsedMrn.getEntityId());
+    }
+
+    @Test
+    public void parseServiceInstanceMRN() {
+        ParsedMrn parsedMrn = ParsedMrn.parse("urn:mrn:mcl:org:dma:service:instance:nw-nm-design:nw-nm-prod");
+        assertTrue("Service MRN should be valid", parsedMrn.isValid());
+        assertEquals("Entity type should be 'service'", "service", parsedMrn.getEntityType());
+        assertEquals("Service type should be 'nw-nm-design'", "nw-nm-design", parsedMrn.getServiceType());
+    }
+
+    @Test
+    public void parseEscapedMRN() {
+        assertTrue("Escaped MRN should be valid", ParsedMrn.parse("urn:mrn:mcl:user:dma:b%2F345").isValid());
+        assertFalse("Broken escape should be invalid", ParsedMrn.parse("urn:mrn:mcl:user:dma:b%2").isValid());
+    }
+
+    @Test
+    public void parseIncompleteEntityMRN() {
+        ParsedMrn parsedMrn = ParsedMrn.parse("urn:mrn:mcl:org:dma:service:");
+        assertFalse("Service MRN without instance should be invalid", parsedMrn.isValid());
+        assertEquals("MRN is not in a valid format for a service instances", parsedMrn.getError());
+    }
+
 }
@@ -0,0 +1,167 @@
+/* Copyright 2016 Danish Maritime Authority.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.maritimecloud.identityregistry.utils;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Posts to a local http server. Private addresses are allowed for that, except in the tests that check they are refused.
+ */
+public class WebhookSenderTests {
+
+    private static final String SECRET = "0123456789abcdef";
+
+    private WebhookSender webhookSender;
+
+    private HttpServer sink;
+
+    private final BlockingQueue<String[]> received = new LinkedBlockingQueue<>();
+
+    private volatile int replyStatus = 200;
+
+    @Before
+    public void setUp() throws IOException {
+        sink = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        sink.createContext("/hook", exchange -> {
+            String body = StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            received.add(new String[] {body, exchange.getRequestHeaders().getFirst(WebhookSender.SIGNATURE_HEADER),
+                    exchange.getRequestHeaders().getFirst(WebhookSender.EVENT_COUNT_HEADER)});
+            exchange.sendResponseHeaders(replyStatus, -1);
+            exchange.close();
+        });
+        sink.start();
+        webhookSender = createSender(true);
+    }
+
+    @After
+    public void tearDown() {
+        webhookSender.closeHttpClient();
+        sink.stop(0);
+    }
+
+    private WebhookSender createSender(boolean allowPrivateAddresses) {
+        WebhookSender sender = new WebhookSender();
+        ReflectionTestUtils.setField(sender, "maxConnections", 5);
+        ReflectionTestUtils.setField(sender, "connectTimeout", 5000);
+        ReflectionTestUtils.setField(sender, "socketTimeout", 5000);
+        ReflectionTestUtils.setField(sender, "keepAlive", 30000L);
+        ReflectionTestUtils.setField(sender, "timeToLive", -1L);
+        ReflectionTestUtils.setField(sender, "allowPrivateAddresses", allowPrivateAddresses);
+        sender.initHttpClient();
+        return sender;
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + sink.getAddress().getPort() + "/hook";
+    }
+
+    @Test
+    public void signatureMatchesKnownVector() {
+        // RFC 4231, test case 2
+        assertEquals("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843",
+                WebhookSender.sign("Jefe", "what do ya want for nothing?"));
+    }
+
+    @Test
+    public void sendsSignedBody() throws Exception {
+        String body = "[{\"id\":\"1\",\"event\":\"vessel.created\"}]";
+        webhookSender.send(url(), SECRET, body, 1);
+        String[] request = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull("The sink should have received the events", request);
+        assertEquals(body, request[0]);
+        assertEquals("sha256=" + WebhookSender.sign(SECRET, body), request[1]);
+        assertEquals("1", request[2]);
+    }
+
+    @Test(expected = IOException.class)
+    public void errorReplyFails() throws Exception {
+        replyStatus = 500;
+        webhookSender.send(url(), SECRET, "[]", 0);
+    }
+
+    @Test
+    public void privateAddressIsRefusedWhenPosting() throws Exception {
+        WebhookSender sender = createSender(false);
+        try {
+            sender.send(url(), SECRET, "[]", 0);
+            fail("Posting to a loopback address should fail");
+        } catch (IOException e) {
+            assertTrue(received.isEmpty());
+        } finally {
+            sender.closeHttpClient();
+        }
+    }
+
+    @Test
+    public void urlsToPrivateAddressesAreRejected() {
+        WebhookSender sender = createSender(false);
+        try {
+            for (String url : new String[] {"http://127.0.0.1/hook", "http://10.1.2.3/hook", "http://192.168.1.1/hook",
+                    "http://169.254.169.254/latest/meta-data", "http://[::1]/hook", "http://[fd00::1]/hook",
+                    "ftp://93.184.216.34/hook", "not a url"}) {
+                try {
+                    sender.checkUrl(url);
+                    fail(url + " should have been rejected");
+                } catch (IOException e) {
+                    // Expected
+                }
+            }
+        } finally {
+            sender.closeHttpClient();
+        }
+    }
+
+    @Test
+    public void urlToPublicAddressIsAccepted() throws Exception {
+        WebhookSender sender = createSender(false);
+        try {
+            sender.checkUrl("https://93.184.216.34/hook");
+        } finally {
+            sender.closeHttpClient();
+        }
+    }
+
+    @Test
+    public void privateAddressesAreRecognized() throws Exception {
+        assertTrue(WebhookSender.isPrivate(InetAddress.getByName("127.0.0.1")));
+        assertTrue(WebhookSender.isPrivate(InetAddress.getByName("172.16.0.1")));
+        assertTrue(WebhookSender.isPrivate(InetAddress.getByName("100.64.0.1")));
+        assertTrue(WebhookSender.isPrivate(InetAddress.getByName("0.0.0.0")));
+        assertTrue(WebhookSender.isPrivate(InetAddress.getByName("fe80::1")));
+        assertTrue(WebhookSender.isPrivate(InetAddress.getByName("fc00::1")));
+        assertFalse(WebhookSender.isPrivate(InetAddress.getByName("8.8.8.8")));
+        assertFalse(WebhookSender.isPrivate(InetAddress.getByName("100.128.0.1")));
+        assertFalse(WebhookSender.isPrivate(InetAddress.getByName("2001:4860:4860::8888")));
+    }
+}